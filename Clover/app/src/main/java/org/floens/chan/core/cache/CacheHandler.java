@@ -24,83 +24,102 @@ import androidx.annotation.WorkerThread;
 import android.util.Pair;
 
 import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
+import okio.ByteString;
+
+/**
+ * Stores the files of the {@link FileCache} and the {@link ThumbnailCache}, named by the SHA-256
+ * of their key and spread over 256 subdirectories by the first two characters of the hash.
+ * Incomplete downloads are kept next to their file with a .part suffix.
+ * <p>The size and use order of the files is kept in memory and in a {@link CacheJournal}, so
+ * starting doesn't need to list the directories. All bookkeeping happens on one worker thread,
+ * which deletes the least recently used files once the cache exceeds its max size.
+ */
 public class CacheHandler {
     private static final String TAG = "CacheHandler";
-    private static final int TRIM_TRIES = 20;
+    private static final int SHARD_LENGTH = 2;
+    private static final String PARTIAL_SUFFIX = ".part";
+    // Trim to a bit below the max size, so that not every added file has to trim.
+    private static final float TRIM_TARGET = 0.9f;
 
-    private final ExecutorService pool = Executors.newFixedThreadPool(1);
+    private final ExecutorService pool = Executors.newSingleThreadExecutor();
 
     private final File directory;
     private final long maxSize;
 
-    /**
-     * An estimation of the current size of the directory. Used to check if trim must be run
-     * because the folder exceeds the maximum size.
-     */
-    private AtomicLong size = new AtomicLong();
-    private AtomicBoolean trimRunning = new AtomicBoolean(false);
+    // Worker thread only.
+    // The hashes of the files with their size, least recently used first.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private CacheJournal journal;
 
     public CacheHandler(File directory, long maxSize) {
         this.directory = directory;
         this.maxSize = maxSize;
 
         createDirectories();
-        backgroundRecalculateSize();
+        submit(this::load);
     }
 
-    @MainThread
+    @AnyThread
     public boolean exists(String key) {
         return get(key).exists();
     }
 
-    @MainThread
+    @AnyThread
     public File get(String key) {
-        createDirectories();
+        String hash = hash(key);
 
-        return new File(directory, hash(key));
+        File shard = new File(directory, hash.substring(0, SHARD_LENGTH));
+        if (!shard.exists() && !shard.mkdirs()) {
+            Logger.e(TAG, "Unable to create file cache dir " + shard.getAbsolutePath());
+        }
+
+        return new File(shard, hash);
     }
 
-    @MainThread
+    /**
+     * Get the file that an incomplete download of the file is kept in.
+     */
+    @AnyThread
+    public static File getPartial(File file) {
+        return new File(file.getParentFile(), file.getName() + PARTIAL_SUFFIX);
+    }
+
+    @AnyThread
     protected void fileWasAdded(File file) {
-        long adjustedSize = size.addAndGet(file.length());
-
-        if (adjustedSize > maxSize && trimRunning.compareAndSet(false, true)) {
-            pool.submit(() -> {
-                try {
-                    trim();
-                } catch (Exception e) {
-                    Logger.e(TAG, "Error trimming", e);
-                } finally {
-                    trimRunning.set(false);
-                }
-            });
-        }
+        submit(() -> added(file));
+    }
+
+    /**
+     * Mark the file as used, it will be deleted after the files that were used longer ago.
+     */
+    @AnyThread
+    protected void fileWasUsed(File file) {
+        submit(() -> used(file));
+    }
+
+    @AnyThread
+    protected void fileWasDeleted(File file) {
+        submit(() -> deleted(file));
     }
 
     @MainThread
     public void clearCache() {
         Logger.d(TAG, "Clearing cache");
 
-        if (directory.exists() && directory.isDirectory()) {
-            for (File file : directory.listFiles()) {
-                if (!file.delete()) {
-                    Logger.d(TAG, "Could not delete cache file while clearing cache " +
-                            file.getName());
-                }
-            }
-        }
-
-        recalculateSize();
+        submit(this::clear);
     }
 
     @MainThread
@@ -113,64 +132,222 @@ public class CacheHandler {
         }
     }
 
-    @MainThread
-    private void backgroundRecalculateSize() {
-        pool.submit(this::recalculateSize);
+    @AnyThread
+    private void submit(Runnable runnable) {
+        pool.submit(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Logger.e(TAG, "Error in cache task", e);
+            }
+        });
     }
 
-    @AnyThread
-    private void recalculateSize() {
-        long calculatedSize = 0;
+    @WorkerThread
+    private void load() {
+        long start = Time.startTiming();
+
+        journal = new CacheJournal(directory);
+        if (!journal.read(index)) {
+            // First start, or the journal was lost.
+            index.clear();
+            scan();
+            journal.rewrite(index);
+        } else if (journal.needsRewrite(index.size())) {
+            // Also when the last line was incomplete, before anything is appended after it.
+            journal.rewrite(index);
+        }
+
+        // Partial files can only be continued in the run that downloaded them, the file they are
+        // from is only known in memory.
+        List<String> completed = new ArrayList<>();
+        Iterator<String> iterator = index.keySet().iterator();
+        while (iterator.hasNext()) {
+            String name = iterator.next();
+            if (name.endsWith(PARTIAL_SUFFIX) && delete(fileForHash(name))) {
+                iterator.remove();
+                journal.removed(name);
+                completed.add(name.substring(0, name.length() - PARTIAL_SUFFIX.length()));
+            }
+        }
 
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                calculatedSize += file.length();
+        // The app can be stopped after a download was moved to its file but before it was added
+        // to the journal.
+        for (String hash : completed) {
+            File file = fileForHash(hash);
+            if (!index.containsKey(hash) && file.exists()) {
+                index.put(hash, file.length());
+                journal.added(hash, file.length());
             }
         }
 
-        size.set(calculatedSize);
+        size = 0;
+        for (Long fileSize : index.values()) {
+            size += fileSize;
+        }
+
+        Time.endTiming("Load file cache index of " + index.size() + " files, " + size + " bytes", start);
+
+        trim();
     }
 
+    /**
+     * Build the index from the files in the directories, ordered by their last modified time.
+     * Files of the previous flat layout are deleted, their name can't be found from a key.
+     */
     @WorkerThread
-    private void trim() {
-        File[] directoryFiles = directory.listFiles();
-
-        // Don't try to trim empty directories or just one file in it.
-        if (directoryFiles == null || directoryFiles.length <= 1) {
+    private void scan() {
+        File[] rootFiles = directory.listFiles();
+        if (rootFiles == null) {
             return;
         }
 
-        // Get all files with their last modified times.
-        List<Pair<File, Long>> files = new ArrayList<>(directoryFiles.length);
-        for (File file : directoryFiles) {
-            files.add(new Pair<>(file, file.lastModified()));
+        List<Pair<File, Long>> files = new ArrayList<>();
+        for (File rootFile : rootFiles) {
+            if (rootFile.isDirectory()) {
+                File[] shardFiles = rootFile.listFiles();
+                if (shardFiles != null) {
+                    for (File file : shardFiles) {
+                        if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+                            delete(file);
+                        } else {
+                            files.add(new Pair<>(file, file.lastModified()));
+                        }
+                    }
+                }
+            } else if (!CacheJournal.isJournalFile(rootFile)) {
+                delete(rootFile);
+            }
         }
 
         // Sort by oldest first.
         Collections.sort(files, (o1, o2) -> Long.signum(o1.second - o2.second));
 
-        // Trim as long as the directory size exceeds the threshold and we haven't reached
-        // the trim limit.
-        long workingSize = size.get();
-        for (int i = 0; workingSize >= maxSize && i < Math.min(files.size(), TRIM_TRIES); i++) {
-            File file = files.get(i).first;
+        for (Pair<File, Long> file : files) {
+            index.put(file.first.getName(), file.first.length());
+        }
+    }
+
+    @WorkerThread
+    private void added(File file) {
+        if (!file.exists()) {
+            return;
+        }
 
-            Logger.d(TAG, "Delete for trim " + file.getAbsolutePath());
-            workingSize -= file.length();
+        String hash = file.getName();
+        long fileSize = file.length();
+        Long previous = index.put(hash, fileSize);
+        size += fileSize - (previous == null ? 0 : previous);
+        journal.added(hash, fileSize);
+
+        // The partial file was moved to this file when the download completed.
+        Long partialSize = index.remove(hash + PARTIAL_SUFFIX);
+        if (partialSize != null) {
+            size -= partialSize;
+            journal.removed(hash + PARTIAL_SUFFIX);
+        }
 
-            boolean deleteResult = file.delete();
+        trim();
+        rewriteJournalIfNeeded();
+    }
 
-            if (!deleteResult) {
-                Logger.e(TAG, "Failed to delete cache file for trim");
+    @WorkerThread
+    private void used(File file) {
+        String hash = file.getName();
+        if (index.get(hash) != null) {
+            journal.used(hash);
+            rewriteJournalIfNeeded();
+        } else {
+            // A file that was never added to the journal, index it so that it is trimmed.
+            added(file);
+        }
+    }
+
+    @WorkerThread
+    private void deleted(File file) {
+        String hash = file.getName();
+        Long fileSize = index.remove(hash);
+        if (fileSize != null) {
+            size -= fileSize;
+            journal.removed(hash);
+            rewriteJournalIfNeeded();
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the size is below the trim target. The most
+     * recently used file is always kept, it is probably about to be shown.
+     */
+    @WorkerThread
+    private void trim() {
+        if (size <= maxSize) {
+            return;
+        }
+
+        long target = (long) (maxSize * TRIM_TARGET);
+        int deleted = 0;
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (size > target && index.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            String hash = entry.getKey();
+
+            if (delete(fileForHash(hash))) {
+                size -= entry.getValue();
+                iterator.remove();
+                journal.removed(hash);
+                deleted++;
+            }
+        }
+
+        Logger.d(TAG, "Trimmed " + deleted + " files, size is now " + size);
+    }
+
+    @WorkerThread
+    private void clear() {
+        File[] rootFiles = directory.listFiles();
+        if (rootFiles != null) {
+            for (File rootFile : rootFiles) {
+                if (rootFile.isDirectory()) {
+                    File[] shardFiles = rootFile.listFiles();
+                    if (shardFiles != null) {
+                        for (File file : shardFiles) {
+                            delete(file);
+                        }
+                    }
+                } else if (!CacheJournal.isJournalFile(rootFile)) {
+                    delete(rootFile);
+                }
             }
         }
 
-        recalculateSize();
+        index.clear();
+        size = 0;
+        journal.rewrite(index);
+    }
+
+    @WorkerThread
+    private void rewriteJournalIfNeeded() {
+        if (journal.needsRewrite(index.size())) {
+            journal.rewrite(index);
+        }
+    }
+
+    @WorkerThread
+    private boolean delete(File file) {
+        if (!file.delete() && file.exists()) {
+            Logger.e(TAG, "Could not delete cache file " + file.getName());
+            return false;
+        }
+        return true;
+    }
+
+    @AnyThread
+    private File fileForHash(String name) {
+        return new File(new File(directory, name.substring(0, SHARD_LENGTH)), name);
     }
 
     @AnyThread
     private String hash(String key) {
-        return String.valueOf(key.hashCode());
+        return ByteString.encodeUtf8(key).sha256().hex();
     }
 }
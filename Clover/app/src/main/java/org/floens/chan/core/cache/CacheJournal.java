@@ -0,0 +1,195 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+import androidx.annotation.WorkerThread;
+
+import org.floens.chan.utils.IOUtils;
+import org.floens.chan.utils.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The index of the {@link CacheHandler}, as an append only log of the files that were added,
+ * used and removed. Reading it back gives the files with their size in least recently used
+ * order, without listing the cache directories.
+ * <p>The log is rewritten with only the current files once it gets too long. Lines are:
+ * <pre>
+ * A hash size
+ * U hash
+ * R hash
+ * </pre>
+ */
+@WorkerThread
+class CacheJournal {
+    private static final String TAG = "CacheJournal";
+    private static final String HEADER = "clover-cache-journal 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MIN_REWRITE_LINES = 2000;
+
+    private final File file;
+    private final File tempFile;
+
+    private Writer writer;
+    private int lineCount;
+    // An incomplete line was read, lines appended after it would not be read back.
+    private boolean incomplete;
+
+    CacheJournal(File directory) {
+        file = new File(directory, "journal");
+        tempFile = new File(directory, "journal.tmp");
+    }
+
+    static boolean isJournalFile(File file) {
+        return file.getName().startsWith("journal");
+    }
+
+    /**
+     * Read the journal into the index, least recently used first.
+     *
+     * @return {@code false} if there is no journal or it is not a journal of this version.
+     */
+    boolean read(LinkedHashMap<String, Long> index) {
+        if (!file.exists()) {
+            return false;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            if (!HEADER.equals(reader.readLine())) {
+                return false;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && parts[0].equals("A")) {
+                    index.put(parts[1], Long.parseLong(parts[2]));
+                } else if (parts.length == 2 && parts[0].equals("U")) {
+                    // Moves it to the end of the access ordered map.
+                    index.get(parts[1]);
+                } else if (parts.length == 2 && parts[0].equals("R")) {
+                    index.remove(parts[1]);
+                } else {
+                    // Only the last line can be incomplete, when the app was killed while
+                    // writing it.
+                    Logger.w(TAG, "Invalid journal line, ignoring the rest");
+                    incomplete = true;
+                    break;
+                }
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            Logger.e(TAG, "Error reading journal", e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    void added(String hash, long size) {
+        write("A " + hash + " " + size);
+    }
+
+    void used(String hash) {
+        write("U " + hash);
+    }
+
+    void removed(String hash) {
+        write("R " + hash);
+    }
+
+    boolean needsRewrite(int entries) {
+        return incomplete || lineCount > Math.max(entries * 2, MIN_REWRITE_LINES);
+    }
+
+    /**
+     * Replace the journal with one that only adds the files of the index, in the same order.
+     */
+    void rewrite(Map<String, Long> index) {
+        close();
+
+        Writer tempWriter = null;
+        try {
+            tempWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8));
+            tempWriter.write(HEADER);
+            tempWriter.write('\n');
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                tempWriter.write("A " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            tempWriter.close();
+            tempWriter = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename the journal");
+            }
+            lineCount = index.size();
+            incomplete = false;
+        } catch (IOException e) {
+            Logger.e(TAG, "Error writing journal", e);
+            IOUtils.closeQuietly(tempWriter);
+            // Without a valid journal the directories are listed again on the next start.
+            if (!file.delete() && file.exists()) {
+                Logger.e(TAG, "Could not delete the journal");
+            }
+        }
+    }
+
+    void close() {
+        IOUtils.closeQuietly(writer);
+        writer = null;
+    }
+
+    private void write(String line) {
+        try {
+            if (writer == null) {
+                if (!file.exists()) {
+                    // Lost, the directories are listed again on the next start.
+                    return;
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+            }
+
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            lineCount++;
+        } catch (IOException e) {
+            Logger.e(TAG, "Error appending to journal", e);
+            close();
+            // A broken line would hide the lines after it, list the directories again instead.
+            if (!file.delete() && file.exists()) {
+                Logger.e(TAG, "Could not delete the journal");
+            }
+        }
+    }
+}
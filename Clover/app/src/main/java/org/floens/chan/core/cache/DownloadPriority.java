@@ -0,0 +1,40 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+/**
+ * The order in which the {@link FileCache} starts downloads, highest first.
+ */
+public enum DownloadPriority {
+    /**
+     * The user is waiting for the file, the image that is shown or a file to share.
+     */
+    VISIBLE,
+    /**
+     * A file that will probably be shown next.
+     */
+    PRELOAD,
+    /**
+     * A file that is saved without being shown.
+     */
+    BACKGROUND;
+
+    public boolean isHigherThan(DownloadPriority other) {
+        return ordinal() < other.ordinal();
+    }
+}
@@ -19,15 +19,13 @@ package org.floens.chan.core.cache;
 
 import androidx.annotation.MainThread;
 
-import org.floens.chan.utils.Logger;
-import org.floens.chan.utils.Time;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
@@ -36,24 +34,28 @@ import okhttp3.Protocol;
 public class FileCache implements FileCacheDownloader.Callback {
     private static final String TAG = "FileCache";
     private static final int TIMEOUT = 10000;
-    private static final int DOWNLOAD_POOL_SIZE = 2;
 
-    private final ExecutorService downloadPool = Executors.newFixedThreadPool(DOWNLOAD_POOL_SIZE);
+    private final FileCacheScheduler scheduler = new FileCacheScheduler();
     private String userAgent;
     protected OkHttpClient httpClient;
 
     private final CacheHandler cacheHandler;
 
     private List<FileCacheDownloader> downloaders = new ArrayList<>();
+    private long downloaderSequence = 0;
 
-    public FileCache(File directory, long maxSize, String userAgent) {
+    // Url to the validator of the partial file of a cancelled or failed download.
+    // Taken by the download thread of the next download of the url.
+    private Map<String, String> partialValidators = new ConcurrentHashMap<>();
+
+    public FileCache(File directory, long maxSize, String userAgent, OkHttpClient client) {
         this.userAgent = userAgent;
 
-        httpClient = new OkHttpClient.Builder()
+        // Shorter timeouts and HTTP/1.1 only, on the connection pool of the shared client.
+        httpClient = client.newBuilder()
                 .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
-                // Disable SPDY, causes reproducible timeouts, only one download at the same time and other fun stuff
                 .protocols(Collections.singletonList(Protocol.HTTP_1_1))
                 .build();
 
@@ -61,10 +63,12 @@ public class FileCache implements FileCacheDownloader.Callback {
     }
 
     public void clearCache() {
-        for (FileCacheDownloader downloader : downloaders) {
+        // Cancelling can remove it from the list.
+        for (FileCacheDownloader downloader : new ArrayList<>(downloaders)) {
             downloader.cancel();
         }
 
+        partialValidators.clear();
         cacheHandler.clearCache();
     }
 
@@ -81,9 +85,23 @@ public class FileCache implements FileCacheDownloader.Callback {
      */
     @MainThread
     public FileCacheDownloader downloadFile(String url, FileCacheListener listener) {
+        return downloadFile(url, listener, DownloadPriority.VISIBLE);
+    }
+
+    /**
+     * Same as {@link #downloadFile(String, FileCacheListener)}, the download starts before the
+     * downloads with a lower priority.<br>
+     * If the url is already downloading with a lower priority, it gets this priority.
+     */
+    @MainThread
+    public FileCacheDownloader downloadFile(String url, FileCacheListener listener,
+                                           DownloadPriority priority) {
         FileCacheDownloader runningDownloaderForKey = getDownloaderByKey(url);
         if (runningDownloaderForKey != null) {
-            runningDownloaderForKey.addListener(listener);
+            runningDownloaderForKey.addListener(listener, priority);
+            if (priority.isHigherThan(runningDownloaderForKey.getPriority())) {
+                scheduler.setPriority(runningDownloaderForKey, priority);
+            }
             return runningDownloaderForKey;
         }
 
@@ -92,13 +110,25 @@ public class FileCache implements FileCacheDownloader.Callback {
             handleFileImmediatelyAvailable(listener, file);
             return null;
         } else {
-            return handleStartDownload(listener, file, url);
+            return handleStartDownload(listener, file, url, priority);
+        }
+    }
+
+    /**
+     * Lower the priority of a preload that is not going to be shown soon, for example because the
+     * user swiped to another image.
+     */
+    @MainThread
+    public void deprioritize(FileCacheDownloader downloader) {
+        if (downloader.getPriority() == DownloadPriority.PRELOAD) {
+            scheduler.setPriority(downloader, DownloadPriority.BACKGROUND);
         }
     }
 
     public FileCacheDownloader getDownloaderByKey(String key) {
         for (FileCacheDownloader downloader : downloaders) {
-            if (downloader.getUrl().equals(key)) {
+            // A cancelled downloader is about to end, a new download can continue its partial file.
+            if (downloader.getUrl().equals(key) && !downloader.isCancelled()) {
                 return downloader;
             }
         }
@@ -108,6 +138,17 @@ public class FileCache implements FileCacheDownloader.Callback {
     @Override
     public void downloaderFinished(FileCacheDownloader fileCacheDownloader) {
         downloaders.remove(fileCacheDownloader);
+        scheduler.finished(fileCacheDownloader);
+    }
+
+    @Override
+    public String takePartialValidator(FileCacheDownloader fileCacheDownloader) {
+        String validator = partialValidators.remove(fileCacheDownloader.getUrl());
+        if (validator != null) {
+            // Don't trim it while it is continued.
+            cacheHandler.fileWasUsed(fileCacheDownloader.getPartial());
+        }
+        return validator;
     }
 
     @Override
@@ -115,6 +156,12 @@ public class FileCache implements FileCacheDownloader.Callback {
         cacheHandler.fileWasAdded(file);
     }
 
+    @Override
+    public void downloaderKeptPartial(FileCacheDownloader fileCacheDownloader, File partial, String validator) {
+        partialValidators.put(fileCacheDownloader.getUrl(), validator);
+        cacheHandler.fileWasAdded(partial);
+    }
+
     public boolean exists(String key) {
         return cacheHandler.exists(key);
     }
@@ -124,21 +171,18 @@ public class FileCache implements FileCacheDownloader.Callback {
     }
 
     private void handleFileImmediatelyAvailable(FileCacheListener listener, File file) {
-        // TODO: setLastModified doesn't seem to work on Android...
-        if (!file.setLastModified(Time.get())) {
-            Logger.e(TAG, "Could not set last modified time on file");
-        }
+        cacheHandler.fileWasUsed(file);
         listener.onSuccess(file);
         listener.onEnd();
     }
 
     private FileCacheDownloader handleStartDownload(
-            FileCacheListener listener, File file, String url) {
+            FileCacheListener listener, File file, String url, DownloadPriority priority) {
         FileCacheDownloader downloader = FileCacheDownloader.fromCallbackClientUrlOutputUserAgent(
-                this, httpClient, url, file, userAgent);
-        downloader.addListener(listener);
-        downloader.execute(downloadPool);
+                this, httpClient, url, file, userAgent, priority, downloaderSequence++);
+        downloader.addListener(listener, priority);
         downloaders.add(downloader);
+        scheduler.submit(downloader);
         return downloader;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.floens.chan.utils.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A {@link DataSource} for ExoPlayer that reads the file of a {@link FileCacheDownloader} while
+ * it is downloading, so that a video can play before it is downloaded. Reads wait until the
+ * downloader wrote the bytes. The download continues into the cache as usual, so playing it again
+ * reads the cached file.
+ */
+public class FileCacheDataSource extends BaseDataSource {
+    private final FileCacheDownloader downloader;
+
+    @Nullable
+    private Uri uri;
+    @Nullable
+    private RandomAccessFile file;
+    private long position;
+    private long bytesRemaining;
+    private boolean opened = false;
+
+    public FileCacheDataSource(FileCacheDownloader downloader) {
+        super(true);
+        this.downloader = downloader;
+    }
+
+    public static DataSource.Factory factory(FileCacheDownloader downloader) {
+        return () -> new FileCacheDataSource(downloader);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        position = dataSpec.position;
+        transferInitializing(dataSpec);
+
+        // Wait for the first byte, the partial file exists then.
+        long written = downloader.awaitWritten(position);
+        if (written == FileCacheDownloader.WRITTEN_COMPLETE) {
+            file = new RandomAccessFile(downloader.getOutput(), "r");
+        } else {
+            try {
+                file = new RandomAccessFile(downloader.getPartial(), "r");
+            } catch (FileNotFoundException e) {
+                // Completed and moved to the output in the meantime.
+                file = new RandomAccessFile(downloader.getOutput(), "r");
+            }
+        }
+        file.seek(position);
+
+        long contentLength = downloader.getContentLength();
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            bytesRemaining = dataSpec.length;
+        } else if (contentLength >= 0) {
+            bytesRemaining = Math.max(0, contentLength - position);
+        } else {
+            bytesRemaining = C.LENGTH_UNSET;
+        }
+
+        opened = true;
+        transferStarted(dataSpec);
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        } else if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            readLength = (int) Math.min(readLength, bytesRemaining);
+        }
+
+        long written = downloader.awaitWritten(position);
+        int read;
+        if (written == FileCacheDownloader.WRITTEN_COMPLETE) {
+            read = file.read(buffer, offset, readLength);
+            if (read == -1) {
+                return C.RESULT_END_OF_INPUT;
+            }
+        } else {
+            read = file.read(buffer, offset, (int) Math.min(readLength, written));
+            if (read == -1) {
+                throw new IOException("Unexpected end of the partial file");
+            }
+        }
+
+        position += read;
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            bytesRemaining -= read;
+        }
+        bytesTransferred(read);
+        return read;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() {
+        uri = null;
+        IOUtils.closeQuietly(file);
+        file = null;
+        if (opened) {
+            opened = false;
+            transferEnded();
+        }
+    }
+}
@@ -24,19 +24,27 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
 import androidx.annotation.WorkerThread;
 
-import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.utils.Logger;
 
-import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -47,65 +55,175 @@ import okio.BufferedSink;
 import okio.Okio;
 import okio.Source;
 
+/**
+ * Downloads a file into the partial file next to the output, and moves it to the output once
+ * complete.
+ * <p>When the download is cancelled or fails with a network error the partial file is kept, and
+ * the next download of the url continues where it stopped with a range request, if the server
+ * still has the same file. Large files are downloaded in multiple segments at the same time when
+ * the server supports range requests.
+ * <p>The parts of the partial file that are written can be read while it is downloading, see
+ * {@link #awaitWritten(long)}.
+ */
 public class FileCacheDownloader implements Runnable {
     private static final String TAG = "FileCacheDownloader";
     private static final long BUFFER_SIZE = 8192;
     private static final long NOTIFY_SIZE = BUFFER_SIZE * 8;
 
+    private static final int SEGMENT_COUNT = 3;
+    private static final long SEGMENT_MIN_SIZE = 2 * 1024 * 1024;
+    // For the segments after the first, the first is downloaded on the download thread.
+    private static final ExecutorService segmentPool = Executors.newCachedThreadPool();
+
+    /**
+     * Returned by {@link #awaitWritten(long)} when the download is complete.
+     */
+    static final long WRITTEN_COMPLETE = -1;
+
+    private static final Pattern contentRangePattern = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
     private final OkHttpClient httpClient;
     private final String url;
     private final File output;
+    private final File partial;
     private final String userAgent;
     private final Handler handler;
 
+    private final String host;
+    private final long sequence;
+    private final FutureTask<Void> future;
+
     // Main thread only.
     private final Callback callback;
     private final List<FileCacheListener> listeners = new ArrayList<>();
+    private DownloadPriority priority;
+    // If all the listeners are preloads, the download can be cancelled for a visible one.
+    private boolean onlyPreloads = true;
 
     // Main and worker thread.
     private AtomicBoolean running = new AtomicBoolean(false);
     private AtomicBoolean cancel = new AtomicBoolean(false);
-    private Future<?> future;
 
     // Worker thread.
-    private Call call;
-    private ResponseBody body;
+    // The ETag or Last-Modified of the file that is in the partial file, to check if a range
+    // of the file on the server can be added to it.
+    private String validator;
+    // If this download got to use the partial file, a download that is cancelled before it
+    // started must leave it alone.
+    private boolean ownsPartial = false;
+    private final List<Call> calls = new ArrayList<>();
+    private final AtomicLong downloaded = new AtomicLong();
+    private long notified;
+    private volatile long contentLength = -1;
+
+    // Worker threads and readers, the start and end of the written part of each segment of the
+    // partial file. When the file is not downloaded in segments only the first is used.
+    private final Object writtenLock = new Object();
+    private final long[] writtenStart = new long[SEGMENT_COUNT];
+    private final long[] writtenEnd = new long[SEGMENT_COUNT];
+    private boolean writtenComplete = false;
+    private boolean writtenFailed = false;
 
     static FileCacheDownloader fromCallbackClientUrlOutputUserAgent(
             Callback callback, OkHttpClient httpClient, String url,
-            File output, String userAgent) {
-        return new FileCacheDownloader(callback, httpClient, url, output, userAgent);
+            File output, String userAgent, DownloadPriority priority, long sequence) {
+        return new FileCacheDownloader(callback, httpClient, url, output, userAgent,
+                priority, sequence);
     }
 
     private FileCacheDownloader(Callback callback, OkHttpClient httpClient,
-                                String url, File output, String userAgent) {
+                                String url, File output, String userAgent,
+                                DownloadPriority priority, long sequence) {
         this.callback = callback;
         this.httpClient = httpClient;
         this.url = url;
         this.output = output;
         this.userAgent = userAgent;
+        this.priority = priority;
+        this.sequence = sequence;
 
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        host = httpUrl != null ? httpUrl.host() : "";
+        partial = CacheHandler.getPartial(output);
+        future = new FutureTask<>(this, null);
         handler = new Handler(Looper.getMainLooper());
     }
 
-    @MainThread
-    public void execute(ExecutorService executor) {
-        future = executor.submit(this);
+    @AnyThread
+    void execute(Executor executor) {
+        executor.execute(future);
     }
 
-    @MainThread
+    @AnyThread
     public String getUrl() {
         return url;
     }
 
+    @AnyThread
+    File getPartial() {
+        return partial;
+    }
+
+    @AnyThread
+    File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the size of the file, or -1 when it is not known yet.
+     */
+    @AnyThread
+    long getContentLength() {
+        return contentLength;
+    }
+
+    @AnyThread
+    String getHost() {
+        return host;
+    }
+
+    @AnyThread
+    long getSequence() {
+        return sequence;
+    }
+
+    @MainThread
+    public DownloadPriority getPriority() {
+        return priority;
+    }
+
+    @MainThread
+    void setPriority(DownloadPriority priority) {
+        this.priority = priority;
+    }
+
+    @AnyThread
+    public boolean isCancelled() {
+        return cancel.get();
+    }
+
+    /**
+     * A future that completes when the download ended, also when it is waiting to start.
+     */
     @AnyThread
     public Future<?> getFuture() {
         return future;
     }
 
+    /**
+     * @param priority the priority the listener asked the download with.
+     */
     @MainThread
-    public void addListener(FileCacheListener callback) {
+    public void addListener(FileCacheListener callback, DownloadPriority priority) {
         listeners.add(callback);
+        if (priority != DownloadPriority.PRELOAD) {
+            onlyPreloads = false;
+        }
+    }
+
+    @MainThread
+    boolean hasOnlyPreloadListeners() {
+        return onlyPreloads;
     }
 
     /**
@@ -118,6 +236,13 @@ public class FileCacheDownloader implements Runnable {
             if (!running.get()) {
                 callback.downloaderFinished(this);
             }
+
+            // Stop a blocking read, what was downloaded is kept in the partial file.
+            cancelCalls();
+
+            synchronized (writtenLock) {
+                writtenLock.notifyAll();
+            }
         }
     }
 
@@ -150,27 +275,72 @@ public class FileCacheDownloader implements Runnable {
 
     @WorkerThread
     private void execute() {
-        Closeable sourceCloseable = null;
-        Closeable sinkCloseable = null;
+        Response response = null;
 
         try {
             checkCancel();
 
-            ResponseBody body = getBody();
+            validator = callback.takePartialValidator(this);
+            ownsPartial = true;
+            long offset = partial.exists() ? partial.length() : 0;
+            if (offset > 0 && validator == null) {
+                // Not known what file the partial file is from.
+                offset = 0;
+            }
 
-            Source source = body.source();
-            sourceCloseable = source;
+            response = getResponse(offset);
+            if (offset > 0 && response.code() == 416) {
+                log("range not satisfiable, downloading the whole file");
+                Util.closeQuietly(response);
+                offset = 0;
+                response = getResponse(0);
+            }
 
-            BufferedSink sink = Okio.buffer(Okio.sink(output));
-            sinkCloseable = sink;
+            if (!response.isSuccessful()) {
+                throw new HttpCodeIOException(response.code());
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("body == null");
+            }
 
             checkCancel();
 
-            log("got input stream");
+            if (offset > 0 && (response.code() != 206 || getRangeStart(response) != offset)) {
+                // The server sent the whole file, the file changed or ranges are not supported.
+                log("could not resume at " + offset);
+                offset = 0;
+            }
+
+            String responseValidator = getValidator(response);
+            if (offset == 0 || responseValidator != null) {
+                validator = responseValidator;
+            }
+
+            contentLength = body.contentLength() <= 0 ? -1 : offset + body.contentLength();
+            downloaded.set(offset);
 
-            pipeBody(source, sink);
+            if (offset == 0 && validator != null && contentLength >= SEGMENT_MIN_SIZE &&
+                    "bytes".equalsIgnoreCase(response.header("Accept-Ranges"))) {
+                log("got input stream, downloading in " + SEGMENT_COUNT + " segments");
+                downloadSegments(body);
+            } else {
+                log("got input stream" + (offset > 0 ? ", resuming at " + offset : ""));
+                BufferedSink sink = Okio.buffer(offset > 0 ? Okio.appendingSink(partial) : Okio.sink(partial));
+                setWritten(0, 0, offset);
+                pipeBody(body.source(), sink);
+            }
+
+            if (output.exists() && !output.delete()) {
+                throw new IOException("Could not delete the old output");
+            }
+            if (!partial.renameTo(output)) {
+                throw new IOException("Could not move the partial file to the output");
+            }
 
             log("done");
+            endWritten(true);
 
             post(() -> {
                 callback.downloaderAddedFile(output);
@@ -181,14 +351,18 @@ public class FileCacheDownloader implements Runnable {
                 }
             });
         } catch (IOException e) {
+            endWritten(false);
+
             boolean isNotFound = false;
             boolean cancelled = false;
+            boolean keepPartial = true;
             if (e instanceof HttpCodeIOException) {
                 int code = ((HttpCodeIOException) e).code;
                 log("exception: http error, code: " + code, e);
                 isNotFound = code == 404;
-            } else if (e instanceof CancelException) {
-                // Don't log the stack.
+                keepPartial = false;
+            } else if (e instanceof CancelException || cancel.get()) {
+                // Don't log the stack, cancelling the call also makes it throw.
                 log("exception: cancelled");
                 cancelled = true;
             } else {
@@ -197,8 +371,15 @@ public class FileCacheDownloader implements Runnable {
 
             final boolean finalIsNotFound = isNotFound;
             final boolean finalCancelled = cancelled;
+            final boolean finalOwnsPartial = ownsPartial;
+            final String partialValidator = keepPartial && validator != null &&
+                    partial.exists() && partial.length() > 0 ? validator : null;
             post(() -> {
-                purgeOutput();
+                if (partialValidator != null) {
+                    callback.downloaderKeptPartial(this, partial, partialValidator);
+                } else if (finalOwnsPartial) {
+                    purgeOutput();
+                }
                 for (FileCacheListener callback : listeners) {
                     if (finalCancelled) {
                         callback.onCancel();
@@ -211,90 +392,293 @@ public class FileCacheDownloader implements Runnable {
                 callback.downloaderFinished(this);
             });
         } finally {
-            Util.closeQuietly(sourceCloseable);
-            Util.closeQuietly(sinkCloseable);
+            cancelCalls();
 
-            if (call != null) {
-                call.cancel();
+            if (response != null) {
+                Util.closeQuietly(response);
             }
+        }
+    }
+
+    /**
+     * Request the file, from the offset if it's not 0.
+     */
+    @WorkerThread
+    private Response getResponse(long offset) throws IOException {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", userAgent);
+
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+            // Returns the whole file instead if it's not the file of the partial file anymore.
+            request.header("If-Range", validator);
+        }
+
+        return execute(request.build());
+    }
 
-            if (body != null) {
-                Util.closeQuietly(body);
+    @WorkerThread
+    private Response execute(Request request) throws IOException {
+        Call call = httpClient.newCall(request);
+
+        synchronized (calls) {
+            calls.add(call);
+        }
+
+        // Cancelling the call makes it throw.
+        checkCancel();
+
+        return call.execute();
+    }
+
+    /**
+     * Download the rest of the file in segments, the first from the body of the first
+     * response, the others with range requests.
+     * <p>On failure the partial file is cut to what was downloaded of the first segment, so
+     * that it is always the start of the file.
+     */
+    @WorkerThread
+    private void downloadSegments(ResponseBody firstBody) throws IOException {
+        long segmentSize = contentLength / SEGMENT_COUNT;
+
+        RandomAccessFile file = new RandomAccessFile(partial, "rw");
+        long firstDownloaded = 0;
+        List<Future<?>> segments = new ArrayList<>();
+        try {
+            file.setLength(contentLength);
+
+            for (int i = 1; i < SEGMENT_COUNT; i++) {
+                final int segment = i;
+                final long start = i * segmentSize;
+                final long end = i == SEGMENT_COUNT - 1 ? contentLength - 1 : (i + 1) * segmentSize - 1;
+                setWritten(segment, start, start);
+                segments.add(segmentPool.submit(() -> {
+                    downloadSegment(segment, start, end);
+                    return null;
+                }));
+            }
+
+            Source source = firstBody.source();
+            Buffer buffer = new Buffer();
+            long read;
+            while (firstDownloaded < segmentSize &&
+                    (read = source.read(buffer, Math.min(BUFFER_SIZE, segmentSize - firstDownloaded))) != -1) {
+                file.write(buffer.readByteArray());
+                firstDownloaded += read;
+                setWritten(0, 0, firstDownloaded);
+                addProgress(read);
+                checkCancel();
+                checkSegments(segments);
+            }
+            Util.closeQuietly(source);
+
+            if (firstDownloaded < segmentSize) {
+                throw new IOException("Unexpected end of the first segment");
+            }
+
+            for (Future<?> segment : segments) {
+                getSegment(segment);
+            }
+        } catch (IOException e) {
+            // Stop the readers and the other segments, and wait for them to stop writing before
+            // cutting the file.
+            endWritten(false);
+            cancelCalls();
+            for (Future<?> segment : segments) {
+                try {
+                    segment.get();
+                } catch (InterruptedException | ExecutionException ignored) {
+                }
             }
+            file.setLength(firstDownloaded);
+            throw e;
+        } finally {
+            Util.closeQuietly(file);
         }
     }
 
+    /**
+     * Throw the exception of a segment that failed, without waiting for the others.
+     */
     @WorkerThread
-    private ResponseBody getBody() throws IOException {
+    private void checkSegments(List<Future<?>> segments) throws IOException {
+        for (Future<?> segment : segments) {
+            if (segment.isDone()) {
+                getSegment(segment);
+            }
+        }
+    }
+
+    @WorkerThread
+    private void getSegment(Future<?> segment) throws IOException {
+        try {
+            segment.get();
+        } catch (InterruptedException e) {
+            throw new CancelException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @WorkerThread
+    private void downloadSegment(int segment, long start, long end) throws IOException {
         Request request = new Request.Builder()
                 .url(url)
                 .header("User-Agent", userAgent)
+                .header("Range", "bytes=" + start + "-" + end)
+                .header("If-Range", validator)
                 .build();
 
-        call = httpClient.newBuilder()
-                .proxy(ChanSettings.getProxy())
-                .build()
-                .newCall(request);
+        Response response = execute(request);
+        RandomAccessFile file = null;
+        try {
+            ResponseBody body = response.body();
+            if (response.code() != 206 || getRangeStart(response) != start || body == null) {
+                throw new IOException("Server did not return the range " + start + "-" + end);
+            }
 
-        Response response = call.execute();
-        if (!response.isSuccessful()) {
-            throw new HttpCodeIOException(response.code());
-        }
+            file = new RandomAccessFile(partial, "rw");
+            file.seek(start);
 
-        checkCancel();
+            Source source = body.source();
+            Buffer buffer = new Buffer();
+            long remaining = end - start + 1;
+            long read;
+            while (remaining > 0 && (read = source.read(buffer, Math.min(BUFFER_SIZE, remaining))) != -1) {
+                file.write(buffer.readByteArray());
+                remaining -= read;
+                setWritten(segment, start, end + 1 - remaining);
+                addProgress(read);
+                checkCancel();
+            }
 
-        body = response.body();
-        if (body == null) {
-            throw new IOException("body == null");
+            if (remaining > 0) {
+                throw new IOException("Unexpected end of the segment at " + start);
+            }
+        } finally {
+            Util.closeQuietly(file);
+            Util.closeQuietly(response);
         }
-
-        checkCancel();
-
-        return body;
     }
 
     @WorkerThread
     private void pipeBody(Source source, BufferedSink sink) throws IOException {
-        long contentLength = body.contentLength();
+        try {
+            long read;
+            Buffer buffer = new Buffer();
+
+            while ((read = source.read(buffer, BUFFER_SIZE)) != -1) {
+                sink.write(buffer, read);
+                // Only what the sink emitted is in the file.
+                setWritten(0, 0, downloaded.get() + read - sink.buffer().size());
+                addProgress(read);
+                checkCancel();
+            }
+        } finally {
+            Util.closeQuietly(source);
+            Util.closeQuietly(sink);
+        }
+    }
 
-        long read;
-        long total = 0;
-        long notifyTotal = 0;
+    @AnyThread
+    private void addProgress(long read) {
+        long total = downloaded.addAndGet(read);
+
+        boolean notify = false;
+        synchronized (downloaded) {
+            if (total >= notified + NOTIFY_SIZE) {
+                notified = total;
+                notify = true;
+            }
+        }
+
+        if (notify) {
+            log("progress " + (total / (float) contentLength));
+            postProgress(total, contentLength <= 0 ? total : contentLength);
+        }
+    }
 
-        Buffer buffer = new Buffer();
+    /**
+     * Wait until the byte at the position of the file is written to the partial file, to read
+     * the file while it is downloading. Once the download is complete the partial file is moved
+     * to the output, a file opened before that has the whole file.
+     *
+     * @return the number of bytes that can be read from the position, or
+     * {@link #WRITTEN_COMPLETE} when the download is complete.
+     * @throws IOException when the download failed or was cancelled.
+     */
+    @WorkerThread
+    long awaitWritten(long position) throws IOException {
+        synchronized (writtenLock) {
+            while (true) {
+                if (writtenComplete) {
+                    return WRITTEN_COMPLETE;
+                }
+                if (writtenFailed || cancel.get()) {
+                    throw new IOException("Download stopped");
+                }
 
-        while ((read = source.read(buffer, BUFFER_SIZE)) != -1) {
-            sink.write(buffer, read);
-            total += read;
+                for (int i = 0; i < SEGMENT_COUNT; i++) {
+                    if (position >= writtenStart[i] && position < writtenEnd[i]) {
+                        return writtenEnd[i] - position;
+                    }
+                }
 
-            if (total >= notifyTotal + NOTIFY_SIZE) {
-                notifyTotal = total;
-                log("progress " + (total / (float) contentLength));
-                postProgress(total, contentLength <= 0 ? total : contentLength);
+                try {
+                    writtenLock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
             }
+        }
+    }
 
-            checkCancel();
+    @WorkerThread
+    private void setWritten(int segment, long start, long end) {
+        synchronized (writtenLock) {
+            writtenStart[segment] = start;
+            writtenEnd[segment] = end;
+            writtenLock.notifyAll();
         }
+    }
 
-        Util.closeQuietly(source);
-        Util.closeQuietly(sink);
+    @WorkerThread
+    private void endWritten(boolean complete) {
+        synchronized (writtenLock) {
+            if (complete) {
+                writtenComplete = true;
+            } else {
+                writtenFailed = true;
+            }
+            writtenLock.notifyAll();
+        }
+    }
 
-        call = null;
-        Util.closeQuietly(body);
-        body = null;
+    @AnyThread
+    private void cancelCalls() {
+        synchronized (calls) {
+            for (Call call : calls) {
+                call.cancel();
+            }
+            calls.clear();
+        }
     }
 
-    @WorkerThread
+    @AnyThread
     private void checkCancel() throws IOException {
         if (cancel.get()) {
             throw new CancelException();
         }
     }
 
-    @WorkerThread
+    @MainThread
     private void purgeOutput() {
-        if (output.exists()) {
-            final boolean deleteResult = output.delete();
+        if (partial.exists()) {
+            final boolean deleteResult = partial.delete();
 
             if (!deleteResult) {
                 log("could not delete the file in purgeOutput");
@@ -302,7 +686,7 @@ public class FileCacheDownloader implements Runnable {
         }
     }
 
-    @WorkerThread
+    @AnyThread
     private void postProgress(final long downloaded, final long total) {
         post(() -> {
             for (FileCacheListener callback : listeners) {
@@ -311,6 +695,26 @@ public class FileCacheDownloader implements Runnable {
         });
     }
 
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        // Weak etags can't be used for ranges.
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    private static long getRangeStart(Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange != null) {
+            Matcher matcher = contentRangePattern.matcher(contentRange);
+            if (matcher.matches()) {
+                return Long.parseLong(matcher.group(1));
+            }
+        }
+        return -1;
+    }
+
     private static class CancelException extends IOException {
         public CancelException() {
         }
@@ -327,6 +731,20 @@ public class FileCacheDownloader implements Runnable {
     public interface Callback {
         void downloaderFinished(FileCacheDownloader fileCacheDownloader);
 
+        /**
+         * Get the validator of the partial file kept for the url, if any.
+         */
+        @WorkerThread
+        String takePartialValidator(FileCacheDownloader fileCacheDownloader);
+
         void downloaderAddedFile(File file);
+
+        /**
+         * The download stopped before it was complete, and the partial file was kept to
+         * continue it later.
+         *
+         * @param validator the ETag or Last-Modified of the file the partial file is from.
+         */
+        void downloaderKeptPartial(FileCacheDownloader fileCacheDownloader, File partial, String validator);
     }
 }
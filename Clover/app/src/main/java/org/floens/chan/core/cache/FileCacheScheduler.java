@@ -0,0 +1,171 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+import org.floens.chan.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decides when the downloads of the {@link FileCache} start, by {@link DownloadPriority} and
+ * then in the order they were added.
+ * <p>One of the slots is kept for {@link DownloadPriority#VISIBLE} downloads, and when a visible
+ * download can't start because of the limits a running preload is cancelled for it. Only
+ * downloads that all of their listeners asked as a preload are cancelled. The partial file of a
+ * cancelled download is kept, so the preload continues where it was when it is needed again.
+ */
+class FileCacheScheduler {
+    private static final String TAG = "FileCacheScheduler";
+    private static final int MAX_RUNNING = 4;
+    private static final int MAX_RUNNING_PER_HOST = 3;
+
+    private static final Comparator<FileCacheDownloader> ORDER = (o1, o2) -> {
+        int byPriority = o1.getPriority().compareTo(o2.getPriority());
+        return byPriority != 0 ? byPriority : Long.compare(o1.getSequence(), o2.getSequence());
+    };
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final List<FileCacheDownloader> queue = new ArrayList<>();
+    private final List<FileCacheDownloader> running = new ArrayList<>();
+    // Preempted downloads that did not end yet, they don't count for the limits.
+    private final List<FileCacheDownloader> stopping = new ArrayList<>();
+    private boolean scheduling = false;
+
+    synchronized void submit(FileCacheDownloader downloader) {
+        queue.add(downloader);
+        schedule();
+    }
+
+    synchronized void setPriority(FileCacheDownloader downloader, DownloadPriority priority) {
+        if (downloader.getPriority() != priority) {
+            downloader.setPriority(priority);
+            schedule();
+        }
+    }
+
+    /**
+     * Called when the downloader finished, or was cancelled before it started.
+     */
+    synchronized void finished(FileCacheDownloader downloader) {
+        if (queue.remove(downloader)) {
+            // Run it anyway, it stops right away and tells the listeners it was cancelled.
+            downloader.execute(executor);
+        } else if (!running.remove(downloader)) {
+            stopping.remove(downloader);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        // Cancelling a preload can call finished() again.
+        if (scheduling) {
+            return;
+        }
+        scheduling = true;
+
+        try {
+            Collections.sort(queue, ORDER);
+
+            for (int i = 0; i < queue.size(); i++) {
+                FileCacheDownloader downloader = queue.get(i);
+
+                if (!canStart(downloader) &&
+                            !(downloader.getPriority() == DownloadPriority.VISIBLE &&
+                                !isUrlRunning(downloader.getUrl()) && preemptFor(downloader))) {
+                    continue;
+                }
+
+                queue.remove(i--);
+                running.add(downloader);
+                downloader.execute(executor);
+            }
+        } finally {
+            scheduling = false;
+        }
+    }
+
+    private boolean canStart(FileCacheDownloader downloader) {
+        // A cancelled download of the url may still be writing to the partial file.
+        if (isUrlRunning(downloader.getUrl())) {
+            return false;
+        }
+
+        // Keep a slot free for visible downloads.
+        int reserved = downloader.getPriority() == DownloadPriority.VISIBLE ? 0 : 1;
+        return running.size() < MAX_RUNNING - reserved &&
+                runningForHost(downloader.getHost()) < MAX_RUNNING_PER_HOST - reserved;
+    }
+
+    /**
+     * Cancel a running preload so that the visible download can start.
+     */
+    private boolean preemptFor(FileCacheDownloader visible) {
+        boolean hostFull = runningForHost(visible.getHost()) >= MAX_RUNNING_PER_HOST;
+
+        FileCacheDownloader preempt = null;
+        for (FileCacheDownloader downloader : running) {
+            // Other listeners, like a save in the background, would see the cancel.
+            if (downloader.getPriority() == DownloadPriority.PRELOAD &&
+                    downloader.hasOnlyPreloadListeners() &&
+                    (!hostFull || downloader.getHost().equals(visible.getHost()))) {
+                // The most recent one, the one that has downloaded the least.
+                preempt = downloader;
+            }
+        }
+
+        if (preempt == null) {
+            return false;
+        }
+
+        Logger.d(TAG, "Cancelling preload " + preempt.getUrl() + " for " + visible.getUrl());
+        running.remove(preempt);
+        stopping.add(preempt);
+        preempt.cancel();
+        return true;
+    }
+
+    private boolean isUrlRunning(String url) {
+        for (FileCacheDownloader downloader : running) {
+            if (downloader.getUrl().equals(url)) {
+                return true;
+            }
+        }
+        for (FileCacheDownloader downloader : stopping) {
+            if (downloader.getUrl().equals(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int runningForHost(String host) {
+        int count = 0;
+        for (FileCacheDownloader downloader : running) {
+            if (downloader.getHost().equals(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
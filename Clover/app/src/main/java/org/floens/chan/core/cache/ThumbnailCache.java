@@ -0,0 +1,215 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+import androidx.annotation.AnyThread;
+
+import com.android.volley.Cache;
+
+import org.floens.chan.utils.IOUtils;
+import org.floens.chan.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of the Volley requests of the image loader: thumbnails, flags and site icons.
+ * It is sized separately from the {@link FileCache}, and uses its own {@link CacheHandler} for
+ * the least recently used index.
+ * <p>Images on an url don't change, so entries are kept for at least {@link #MIN_TTL} even when
+ * the server asks for a shorter time. Opening a catalog again is served from the disk.
+ */
+@AnyThread
+public class ThumbnailCache implements Cache {
+    private static final String TAG = "ThumbnailCache";
+    private static final int MAGIC = 0x43544331;
+    private static final long MIN_TTL = TimeUnit.DAYS.toMillis(7);
+
+    private final CacheHandler cacheHandler;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    public ThumbnailCache(File directory, long maxSize) {
+        cacheHandler = new CacheHandler(directory, maxSize);
+    }
+
+    @Override
+    public void initialize() {
+        // The index is loaded by the cache handler.
+        cacheHandler.createDirectories();
+    }
+
+    @Override
+    public Entry get(String key) {
+        File file = cacheHandler.get(key);
+        Entry entry = file.exists() ? read(file) : null;
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        cacheHandler.fileWasUsed(file);
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        long minExpire = System.currentTimeMillis() + MIN_TTL;
+        entry.ttl = Math.max(entry.ttl, minExpire);
+        entry.softTtl = Math.max(entry.softTtl, minExpire);
+
+        File file = cacheHandler.get(key);
+        File partial = CacheHandler.getPartial(file);
+        if (write(partial, entry) && partial.renameTo(file)) {
+            stored.incrementAndGet();
+            storedBytes.addAndGet(entry.data.length);
+            cacheHandler.fileWasAdded(file);
+        } else if (!partial.delete() && partial.exists()) {
+            Logger.e(TAG, "Could not delete " + partial.getName());
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        File file = cacheHandler.get(key);
+        Entry entry = read(file);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            // Written as is, put would give it the min ttl again.
+            File partial = CacheHandler.getPartial(file);
+            if (!write(partial, entry) || !partial.renameTo(file)) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        File file = cacheHandler.get(key);
+        if (file.delete()) {
+            cacheHandler.fileWasDeleted(file);
+        }
+    }
+
+    @Override
+    public void clear() {
+        cacheHandler.clearCache();
+    }
+
+    public String getSummary() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return String.format(Locale.ENGLISH,
+                "Hits: %d of %d (%d%%)\nStored: %d, %d KB\n",
+                hitCount, total, total == 0 ? 0 : hitCount * 100 / total,
+                stored.get(), storedBytes.get() / 1024);
+    }
+
+    private Entry read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+
+            Entry entry = new Entry();
+            entry.etag = in.readBoolean() ? in.readUTF() : null;
+            entry.serverDate = in.readLong();
+            entry.lastModified = in.readLong();
+            entry.ttl = in.readLong();
+            entry.softTtl = in.readLong();
+
+            int headerCount = in.readInt();
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            entry.responseHeaders = headers;
+
+            entry.data = new byte[in.readInt()];
+            in.readFully(entry.data);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // Also when the file was trimmed while reading it.
+            Logger.w(TAG, "Could not read cache entry " + file.getName(), e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private boolean write(File file, Entry entry) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeBoolean(entry.etag != null);
+            if (entry.etag != null) {
+                out.writeUTF(entry.etag);
+            }
+            out.writeLong(entry.serverDate);
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.ttl);
+            out.writeLong(entry.softTtl);
+
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (entry.responseHeaders != null) {
+                for (Map.Entry<String, String> header : entry.responseHeaders.entrySet()) {
+                    if (header.getKey() != null && header.getValue() != null) {
+                        headers.put(header.getKey(), header.getValue());
+                    }
+                }
+            }
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+
+            out.writeInt(entry.data.length);
+            out.write(entry.data);
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not write cache entry " + file.getName(), e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.database;
+
+import android.util.SparseBooleanArray;
+
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.table.TableUtils;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostSearchIndex;
+import org.floens.chan.core.model.orm.ArchivedPost;
+import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.utils.Time;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the posts of the threads that were loaded, so that they can be searched without the
+ * network. The text is kept in an fts4 table, a search matches the posts with words that start
+ * with each word of the query.
+ */
+public class DatabaseArchiveManager {
+    private static final String TAG = "DatabaseArchiveManager";
+
+    static final String FTS_TABLE = "archivedpost_fts";
+
+    private static final long ARCHIVE_TRIM_TRIGGER = 30000;
+    private static final long ARCHIVE_TRIM_COUNT = 10000;
+
+    private DatabaseManager databaseManager;
+    private DatabaseHelper helper;
+
+    // Posts added since the last trim, to not count the rows on every add.
+    private long addedSinceTrim = 0;
+
+    public DatabaseArchiveManager(DatabaseManager databaseManager, DatabaseHelper helper) {
+        this.databaseManager = databaseManager;
+        this.helper = helper;
+    }
+
+    static void createTables(DatabaseHelper helper) throws SQLException {
+        TableUtils.createTable(helper.getConnectionSource(), ArchivedPost.class);
+        helper.archivedPostDao.executeRawNoArgs(
+                "CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts4(text);");
+    }
+
+    public Callable<Void> load() {
+        return () -> {
+            trim();
+            return null;
+        };
+    }
+
+    /**
+     * Add the posts of the thread that are not in the archive yet.
+     */
+    public Callable<Void> archivePosts(final Loadable loadable, List<Post> posts) {
+        if (!loadable.isThreadMode()) {
+            throw new IllegalArgumentException("Archived loadables must be in thread mode");
+        }
+
+        if (loadable.id == 0) {
+            throw new IllegalArgumentException("Archived loadable is not yet in the db");
+        }
+
+        // Get the text on this thread, not on the database thread.
+        final int[] nos = new int[posts.size()];
+        final long[] times = new long[posts.size()];
+        final String[] texts = new String[posts.size()];
+        for (int i = 0; i < posts.size(); i++) {
+            Post post = posts.get(i);
+            nos[i] = post.no;
+            times[i] = post.time;
+            texts[i] = PostSearchIndex.getSearchText(post);
+        }
+
+        return () -> {
+            List<ArchivedPost> existing = helper.archivedPostDao.queryBuilder()
+                    .selectColumns("no")
+                    .where().eq("loadable_id", loadable.id)
+                    .query();
+            SparseBooleanArray archived = new SparseBooleanArray(existing.size());
+            for (ArchivedPost archivedPost : existing) {
+                archived.put(archivedPost.no, true);
+            }
+
+            for (int i = 0; i < nos.length; i++) {
+                if (archived.get(nos[i])) {
+                    continue;
+                }
+                archived.put(nos[i], true);
+
+                ArchivedPost archivedPost = new ArchivedPost();
+                archivedPost.loadable = loadable;
+                archivedPost.no = nos[i];
+                archivedPost.time = times[i];
+                helper.archivedPostDao.create(archivedPost);
+
+                helper.archivedPostDao.executeRaw("INSERT INTO " + FTS_TABLE + "(docid, text) VALUES (?, ?)",
+                        String.valueOf(archivedPost.id), texts[i]);
+                addedSinceTrim++;
+            }
+
+            if (addedSinceTrim > ARCHIVE_TRIM_COUNT) {
+                trim();
+            }
+
+            return null;
+        };
+    }
+
+    /**
+     * Used by the search of the history, the recently viewed threads. Pinned threads are kept
+     * here by their watcher loads, they are found when they are in the history too.
+     *
+     * @return the ids of the loadables with a post that matches the query.
+     */
+    public Callable<Set<Integer>> searchThreads(String query) {
+        final String match = toMatchQuery(query);
+
+        return () -> {
+            Set<Integer> loadableIds = new HashSet<>();
+            if (match == null) {
+                return loadableIds;
+            }
+
+            long start = Time.startTiming();
+            GenericRawResults<String[]> results = helper.archivedPostDao.queryRaw(
+                    "SELECT DISTINCT loadable_id FROM archivedpost WHERE id IN " +
+                            "(SELECT docid FROM " + FTS_TABLE + " WHERE text MATCH ?)", match);
+            try {
+                for (String[] result : results) {
+                    loadableIds.add(Integer.parseInt(result[0]));
+                }
+            } finally {
+                results.close();
+            }
+            Time.endTiming("Search archive for " + match, start);
+
+            return loadableIds;
+        };
+    }
+
+    public Callable<Void> clearArchive() {
+        return () -> {
+            long start = Time.startTiming();
+            TableUtils.clearTable(helper.getConnectionSource(), ArchivedPost.class);
+            helper.archivedPostDao.executeRawNoArgs("DELETE FROM " + FTS_TABLE + ";");
+            addedSinceTrim = 0;
+            Time.endTiming("Clear archive tables", start);
+
+            return null;
+        };
+    }
+
+    private void trim() throws SQLException {
+        addedSinceTrim = 0;
+        databaseManager.trimTable(helper.archivedPostDao, "archivedpost",
+                ARCHIVE_TRIM_TRIGGER, ARCHIVE_TRIM_COUNT);
+        // The oldest posts were trimmed, remove their text too.
+        helper.archivedPostDao.executeRawNoArgs("DELETE FROM " + FTS_TABLE +
+                " WHERE docid < (SELECT MIN(id) FROM archivedpost);");
+    }
+
+    /**
+     * Make a prefix query of every word of the query, without the fts operators.
+     *
+     * @return the match query, or {@code null} if there are no words.
+     */
+    private static String toMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        String lowerQuery = query.toLowerCase(Locale.ENGLISH);
+        for (int i = 0; i <= lowerQuery.length(); i++) {
+            char c = i < lowerQuery.length() ? lowerQuery.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+}
@@ -89,60 +89,49 @@ public class DatabaseBoardManager {
         };
     }
 
+    /**
+     * Create the boards that are not in the database yet, and update the ones of which the
+     * properties changed, all in one batch.
+     *
+     * @return {@code true} if a board was created or updated.
+     */
     public Callable<Boolean> createAll(final Site site, final List<Board> boards) {
         return () -> {
             long start = Time.startTiming();
 
             List<Board> allFromDb = helper.boardsDao.queryForEq("site", site.id());
-            Map<String, Board> byCodeFromDb = new HashMap<>();
-            for (Board board : allFromDb) {
+            Map<String, Board> byCodeFromDb = new HashMap<>(allFromDb.size() * 2);
+            for (int i = 0; i < allFromDb.size(); i++) {
+                Board board = allFromDb.get(i);
                 byCodeFromDb.put(board.code, board);
                 board.site = site;
             }
 
             List<Board> toCreate = new ArrayList<>();
-            List<Pair<Board, Board>> toUpdate = new ArrayList<>();
-            for (Board board : boards) {
-                if (byCodeFromDb.containsKey(board.code)) {
-                    Board dbBoard = byCodeFromDb.get(board.code);
-                    if (!dbBoard.propertiesEqual(board)) {
-                        toUpdate.add(new Pair<>(dbBoard, board));
-                    }
-                } else {
+            List<Board> toUpdate = new ArrayList<>();
+            for (int i = 0; i < boards.size(); i++) {
+                Board board = boards.get(i);
+                Board dbBoard = byCodeFromDb.get(board.code);
+                if (dbBoard == null) {
                     toCreate.add(board);
+                } else if (!dbBoard.propertiesEqual(board)) {
+                    dbBoard.updateExcludingUserFields(board);
+                    toUpdate.add(dbBoard);
                 }
             }
 
-            if (!toCreate.isEmpty()) {
-                for (Board board : toCreate) {
-                    helper.boardsDao.create(board);
-                }
-            }
-
-            if (!toUpdate.isEmpty()) {
-                for (Pair<Board, Board> pair : toUpdate) {
-                    Board dbBoard = pair.first;
-                    Board newPropertiesBoard = pair.second;
-
-                    dbBoard.updateExcludingUserFields(newPropertiesBoard);
-                    helper.boardsDao.update(dbBoard);
-                }
+            if (!toCreate.isEmpty() || !toUpdate.isEmpty()) {
+                helper.boardsDao.callBatchTasks(() -> {
+                    for (int i = 0; i < toCreate.size(); i++) {
+                        helper.boardsDao.create(toCreate.get(i));
+                    }
+                    for (int i = 0; i < toUpdate.size(); i++) {
+                        helper.boardsDao.update(toUpdate.get(i));
+                    }
+                    return null;
+                });
             }
 
-            /*for (Board board : boards) {
-                QueryBuilder<Board, Integer> q = helper.boardsDao.queryBuilder();
-                q.where().eq("site", board.getSite().id())
-                        .and().eq("value", board.code);
-                Board existing = q.queryForFirst();
-                if (existing != null) {
-                    existing.updateExcludingUserFields(board);
-                    helper.boardsDao.update(existing);
-                    board.updateExcludingUserFields(existing);
-                } else {
-                    helper.boardsDao.create(board);
-                }
-            }*/
-
             Time.endTiming("createAll boards " +
                     toCreate.size() + ", " + toUpdate.size(), start);
 
@@ -25,6 +25,7 @@ import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
+import org.floens.chan.core.model.orm.ArchivedPost;
 import org.floens.chan.core.model.orm.Board;
 import org.floens.chan.core.model.orm.Filter;
 import org.floens.chan.core.model.orm.History;
@@ -45,7 +46,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     private static final String TAG = "DatabaseHelper";
 
     private static final String DATABASE_NAME = "ChanDB";
-    private static final int DATABASE_VERSION = 26;
+    private static final int DATABASE_VERSION = 27;
 
     public Dao<Pin, Integer> pinDao;
     public Dao<Loadable, Integer> loadableDao;
@@ -55,11 +56,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     public Dao<History, Integer> historyDao;
     public Dao<Filter, Integer> filterDao;
     public Dao<SiteModel, Integer> siteDao;
+    public Dao<ArchivedPost, Integer> archivedPostDao;
 
     private final Context context;
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Reads on other connections don't wait for the commits of the database thread.
+        setWriteAheadLoggingEnabled(true);
 
         this.context = context;
 
@@ -72,6 +76,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             historyDao = getDao(History.class);
             filterDao = getDao(Filter.class);
             siteDao = getDao(SiteModel.class);
+            archivedPostDao = getDao(ArchivedPost.class);
         } catch (SQLException e) {
             Logger.e(TAG, "Error creating dao's", e);
         }
@@ -88,6 +93,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             TableUtils.createTable(connectionSource, History.class);
             TableUtils.createTable(connectionSource, Filter.class);
             TableUtils.createTable(connectionSource, SiteModel.class);
+            DatabaseArchiveManager.createTables(this);
         } catch (SQLException e) {
             Logger.e(TAG, "Error creating db", e);
             throw new RuntimeException(e);
@@ -266,6 +272,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 Logger.e(TAG, "Error upgrading to version 26", e);
             }
         }
+
+        if (oldVersion < 27) {
+            try {
+                DatabaseArchiveManager.createTables(this);
+            } catch (SQLException e) {
+                Logger.e(TAG, "Error upgrading to version 27", e);
+            }
+        }
     }
 
     public void reset() {
@@ -28,18 +28,20 @@ import org.floens.chan.utils.Time;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DatabaseLoadableManager {
     private static final String TAG = "DatabaseLoadableManager";
+    private static final String FLUSH_KEY = "DatabaseLoadableManager.flush";
 
     private DatabaseManager databaseManager;
     private DatabaseHelper helper;
 
-    private Map<Loadable, Loadable> cachedLoadables = new HashMap<>();
+    // Only changed on the database thread, read on others by get().
+    private Map<Loadable, Loadable> cachedLoadables = new ConcurrentHashMap<>();
 
     public DatabaseLoadableManager(DatabaseManager databaseManager, DatabaseHelper helper) {
         this.databaseManager = databaseManager;
@@ -77,6 +79,13 @@ public class DatabaseLoadableManager {
         };
     }
 
+    /**
+     * Write the loadables whose list indexes or titles have changed with the next group commit.
+     */
+    public void flushWriteBehind() {
+        databaseManager.runTaskWriteBehind(FLUSH_KEY, flush());
+    }
+
     /**
      * All loadables that are not gotten from a database (like from any of the Loadable.for...() factory methods)
      * need to go through this method to correctly get a loadable if it already existed in the db.
@@ -93,6 +102,12 @@ public class DatabaseLoadableManager {
 
         // We only cache THREAD loadables in the db
         if (loadable.isThreadMode()) {
+            // Don't wait for the database thread for loadables that were loaded before.
+            Loadable cachedLoadable = cachedLoadables.get(loadable);
+            if (cachedLoadable != null) {
+                return cachedLoadable;
+            }
+
             long start = Time.startTiming();
             Loadable result = databaseManager.runTask(getLoadable(loadable));
             Time.endTiming("get loadable from db " + loadable.boardCode, start);
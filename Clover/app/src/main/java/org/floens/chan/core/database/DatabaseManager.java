@@ -32,9 +32,12 @@ import org.floens.chan.utils.Logger;
 import org.floens.chan.utils.Time;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -52,13 +55,18 @@ import de.greenrobot.event.EventBus;
  * {@link Callable} that needs to be queued on either {@link #runTaskAsync(Callable)},
  * {@link #runTaskAsync(Callable, TaskResult)} or {@link #runTask(Callable)}.<br>
  * You often want the sync flavour for queries that return data, it waits for the task to be finished on the other thread.<br>
- * Use the async versions when you don't care when the query is done.
+ * Use the async versions when you don't care when the query is done.<br>
+ * Frequent small updates can use {@link #runTaskWriteBehind(Object, Callable)}, they are queued
+ * and committed together in one transaction a moment later. Any other task commits the queued
+ * updates first, so it always sees them.
  */
 @Singleton
 public class DatabaseManager {
     private static final String TAG = "DatabaseManager";
+    private static final long WRITE_BEHIND_DELAY = 1000;
+    private static final int WRITE_BEHIND_MAX_PENDING = 64;
 
-    private final ExecutorService backgroundExecutor;
+    private final ThreadPoolExecutor backgroundExecutor;
     private Thread executorThread;
     private final DatabaseHelper helper;
 
@@ -70,6 +78,16 @@ public class DatabaseManager {
     private final DatabaseBoardManager databaseBoardManager;
     private final DatabaseSiteManager databaseSiteManager;
     private final DatabaseHideManager databaseHideManager;
+    private final DatabaseArchiveManager databaseArchiveManager;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable commitRunnable = this::commitWriteBehindAsync;
+
+    // Updates waiting for the next group commit, a newer update with the same key replaces it.
+    private final Map<Object, Callable<?>> pendingWrites = new LinkedHashMap<>();
+    private boolean commitScheduled;
+
+    private final WriteBehindStatistics writeBehindStatistics = new WriteBehindStatistics();
 
     @Inject
     public DatabaseManager(Context context) {
@@ -92,6 +110,7 @@ public class DatabaseManager {
         databaseBoardManager = new DatabaseBoardManager(this, helper);
         databaseSiteManager = new DatabaseSiteManager(this, helper);
         databaseHideManager = new DatabaseHideManager(this, helper);
+        databaseArchiveManager = new DatabaseArchiveManager(this, helper);
         EventBus.getDefault().register(this);
     }
 
@@ -102,6 +121,7 @@ public class DatabaseManager {
         // Only trims.
         runTaskAsync(databaseHistoryManager.load());
         runTaskAsync(databaseHideManager.load());
+        runTaskAsync(databaseArchiveManager.load());
     }
 
     public DatabasePinManager getDatabasePinManager() {
@@ -135,10 +155,15 @@ public class DatabaseManager {
     public DatabaseHideManager getDatabaseHideManager() {
         return databaseHideManager;
     }
+
+    public DatabaseArchiveManager getDatabaseArchiveManager() {
+        return databaseArchiveManager;
+    }
     // Called when the app changes foreground state
 
     public void onEvent(Chan.ForegroundChangedMessage message) {
         if (!message.inForeground) {
+            // Also commits the queued updates.
             runTaskAsync(databaseLoadableManager.flush());
         }
     }
@@ -168,10 +193,14 @@ public class DatabaseManager {
             o += "History rows: " + helper.historyDao.countOf() + "\n";
             o += "Filter rows: " + helper.filterDao.countOf() + "\n";
             o += "Site rows: " + helper.siteDao.countOf() + "\n";
+            o += "ArchivedPost rows: " + helper.archivedPostDao.countOf() + "\n";
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
+        o += "Queued tasks: " + backgroundExecutor.getQueue().size() + "\n";
+        o += writeBehindStatistics;
+
         return o;
     }
 
@@ -205,6 +234,39 @@ public class DatabaseManager {
         executeTask(taskCallable, taskResult);
     }
 
+    /**
+     * Queue an update for the next group commit. It runs within {@link #WRITE_BEHIND_DELAY}, or
+     * before the next task that is not write behind.
+     *
+     * @param key          an update queued earlier with an equal key is replaced by this one,
+     *                     use it for updates that write the latest state of an object.
+     * @param taskCallable the update, its result is ignored.
+     */
+    public <T> void runTaskWriteBehind(Object key, final Callable<T> taskCallable) {
+        boolean commitNow;
+        synchronized (pendingWrites) {
+            // Remove first so that the update moves to the end of the queue.
+            if (pendingWrites.remove(key) != null) {
+                writeBehindStatistics.coalesced();
+            }
+            pendingWrites.put(key, taskCallable);
+            writeBehindStatistics.queued(pendingWrites.size());
+
+            commitNow = pendingWrites.size() >= WRITE_BEHIND_MAX_PENDING;
+            if (commitNow) {
+                commitScheduled = false;
+            } else if (!commitScheduled) {
+                commitScheduled = true;
+                mainHandler.postDelayed(commitRunnable, WRITE_BEHIND_DELAY);
+            }
+        }
+
+        if (commitNow) {
+            mainHandler.removeCallbacks(commitRunnable);
+            commitWriteBehindAsync();
+        }
+    }
+
     public <T> T runTask(final Callable<T> taskCallable) {
         try {
             return executeTask(taskCallable, null).get();
@@ -249,6 +311,45 @@ public class DatabaseManager {
         }
     }
 
+    private void commitWriteBehindAsync() {
+        synchronized (pendingWrites) {
+            commitScheduled = false;
+        }
+        backgroundExecutor.submit(this::commitWriteBehind);
+    }
+
+    /**
+     * Run the queued updates in one transaction, on the database thread.
+     */
+    private void commitWriteBehind() {
+        List<Callable<?>> writes;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+
+        long start = Time.startTiming();
+        try {
+            TransactionManager.callInTransaction(helper.getConnectionSource(), () -> {
+                for (int i = 0; i < writes.size(); i++) {
+                    try {
+                        writes.get(i).call();
+                    } catch (Exception e) {
+                        // Only this update failed, the others are still committed.
+                        Logger.e(TAG, "Error in write behind task", e);
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            Logger.e(TAG, "Error committing " + writes.size() + " write behind tasks", e);
+        }
+        writeBehindStatistics.committed(writes.size(), System.nanoTime() - start);
+    }
+
     private class DatabaseCallable<T> implements Callable<T> {
         private final Callable<T> taskCallable;
         private final TaskResult<T> taskResult;
@@ -262,6 +363,9 @@ public class DatabaseManager {
         public T call() {
             executorThread = Thread.currentThread();
 
+            // The task sees, and is ordered after, all the updates that were queued before it.
+            commitWriteBehind();
+
             try {
                 final T result = TransactionManager.callInTransaction(helper.getConnectionSource(), taskCallable);
                 if (taskResult != null) {
@@ -278,4 +382,39 @@ public class DatabaseManager {
     public interface TaskResult<T> {
         void onComplete(T result);
     }
+
+    private static class WriteBehindStatistics {
+        private long queued;
+        private long coalesced;
+        private int maxPending;
+        private long commits;
+        private long committedTasks;
+        private long commitNanos;
+        private long maxCommitNanos;
+
+        synchronized void coalesced() {
+            coalesced++;
+        }
+
+        synchronized void queued(int pending) {
+            queued++;
+            maxPending = Math.max(maxPending, pending);
+        }
+
+        synchronized void committed(int tasks, long nanos) {
+            commits++;
+            committedTasks += tasks;
+            commitNanos += nanos;
+            maxCommitNanos = Math.max(maxCommitNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Write behind: " + queued + " queued, " + coalesced + " coalesced, " +
+                    maxPending + " max pending\n" +
+                    "Group commits: " + commits + ", " + committedTasks + " tasks, " +
+                    (commits == 0 ? 0 : commitNanos / commits / 1000000) + "ms average, " +
+                    (maxCommitNanos / 1000000) + "ms max\n";
+        }
+    }
 }
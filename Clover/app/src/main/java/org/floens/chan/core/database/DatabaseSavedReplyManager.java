@@ -120,18 +120,23 @@ public class DatabaseSavedReplyManager {
         };
     }
 
+    /**
+     * The reply is saved for {@link #isSaved(Board, int)} right away, the returned task writes it
+     * to the database.
+     */
     public Callable<SavedReply> saveReply(final SavedReply savedReply) {
+        synchronized (savedRepliesByNo) {
+            List<SavedReply> list = savedRepliesByNo.get(savedReply.no);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                savedRepliesByNo.put(savedReply.no, list);
+            }
+
+            list.add(savedReply);
+        }
+
         return () -> {
             helper.savedDao.create(savedReply);
-            synchronized (savedRepliesByNo) {
-                List<SavedReply> list = savedRepliesByNo.get(savedReply.no);
-                if (list == null) {
-                    list = new ArrayList<>(1);
-                    savedRepliesByNo.put(savedReply.no, list);
-                }
-
-                list.add(savedReply);
-            }
             return savedReply;
         };
     }
@@ -3,13 +3,20 @@ package org.floens.chan.core.di;
 import android.content.Context;
 
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
 import com.android.volley.toolbox.ImageLoader;
 
 import org.codejargon.feather.Provides;
+import org.floens.chan.core.cache.ThumbnailCache;
 import org.floens.chan.core.net.BitmapLruImageCache;
+import org.floens.chan.core.net.BitmapPool;
+import org.floens.chan.core.net.OkHttpStack;
+import org.floens.chan.core.net.PooledImageLoader;
 
 import javax.inject.Singleton;
 
+import okhttp3.OkHttpClient;
+
 public class AppModule {
     private Context applicationContext;
     private UserAgentProvider userAgentProvider;
@@ -33,9 +40,22 @@ public class AppModule {
 
     @Provides
     @Singleton
-    public ImageLoader provideImageLoader(RequestQueue requestQueue) {
+    public BitmapPool provideBitmapPool() {
+        return new BitmapPool(Runtime.getRuntime().maxMemory() / 32);
+    }
+
+    @Provides
+    @Singleton
+    public ImageLoader provideImageLoader(ThumbnailCache thumbnailCache, BitmapPool bitmapPool,
+                                          OkHttpClient okHttpClient) {
+        // Images get their own queue, with a disk cache sized for thumbnails, on the same connections.
+        RequestQueue imageRequestQueue = new RequestQueue(thumbnailCache,
+                new BasicNetwork(new OkHttpStack(okHttpClient, userAgentProvider.getUserAgent())));
+        imageRequestQueue.start();
+
         final int runtimeMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
         final int lruImageCacheSize = runtimeMemory / 8;
-        return new ImageLoader(requestQueue, new BitmapLruImageCache(lruImageCacheSize));
+        return new PooledImageLoader(imageRequestQueue,
+                new BitmapLruImageCache(lruImageCacheSize, bitmapPool), bitmapPool);
     }
 }
@@ -7,27 +7,55 @@ import com.android.volley.toolbox.Volley;
 
 import org.codejargon.feather.Provides;
 import org.floens.chan.core.cache.FileCache;
-import org.floens.chan.core.net.ProxiedHurlStack;
+import org.floens.chan.core.cache.ThumbnailCache;
+import org.floens.chan.core.net.HttpTransport;
+import org.floens.chan.core.net.OkHttpStack;
+import org.floens.chan.core.settings.ChanSettings;
 
 import java.io.File;
 
 import javax.inject.Singleton;
 
+import okhttp3.OkHttpClient;
+
 public class NetModule {
     private static final long FILE_CACHE_DISK_SIZE = 50 * 1024 * 1024;
     private static final String FILE_CACHE_NAME = "filecache";
+    private static final String THUMBNAIL_CACHE_NAME = "thumbnailcache";
 
     @Provides
     @Singleton
-    public RequestQueue provideRequestQueue(Context applicationContext, UserAgentProvider userAgentProvider) {
+    public HttpTransport provideHttpTransport() {
+        return new HttpTransport();
+    }
+
+    @Provides
+    @Singleton
+    public OkHttpClient provideOkHttpClient(HttpTransport httpTransport) {
+        return httpTransport.getClient();
+    }
+
+    @Provides
+    @Singleton
+    public RequestQueue provideRequestQueue(Context applicationContext, UserAgentProvider userAgentProvider,
+                                            OkHttpClient okHttpClient) {
         String userAgent = userAgentProvider.getUserAgent();
-        return Volley.newRequestQueue(applicationContext, new ProxiedHurlStack(userAgent));
+        return Volley.newRequestQueue(applicationContext, new OkHttpStack(okHttpClient, userAgent));
+    }
+
+    @Provides
+    @Singleton
+    public FileCache provideFileCache(Context applicationContext, UserAgentProvider userAgentProvider,
+                                      OkHttpClient okHttpClient) {
+        return new FileCache(new File(getCacheDir(applicationContext), FILE_CACHE_NAME), FILE_CACHE_DISK_SIZE,
+                userAgentProvider.getUserAgent(), okHttpClient);
     }
 
     @Provides
     @Singleton
-    public FileCache provideFileCache(Context applicationContext, UserAgentProvider userAgentProvider) {
-        return new FileCache(new File(getCacheDir(applicationContext), FILE_CACHE_NAME), FILE_CACHE_DISK_SIZE, userAgentProvider.getUserAgent());
+    public ThumbnailCache provideThumbnailCache(Context applicationContext) {
+        long size = ChanSettings.thumbnailCacheSize.get() * 1024L * 1024L;
+        return new ThumbnailCache(new File(getCacheDir(applicationContext), THUMBNAIL_CACHE_NAME), size);
     }
 
     private File getCacheDir(Context applicationContext) {
@@ -54,6 +54,17 @@ public class ChanLoaderException extends Exception {
         return volleyError instanceof ServerError && isServerErrorNotFound((ServerError) volleyError);
     }
 
+    /**
+     * @return {@code true} if the site answered that it got too many requests or is overloaded.
+     */
+    public boolean isSiteOverloaded() {
+        if (volleyError instanceof ServerError && volleyError.networkResponse != null) {
+            int statusCode = volleyError.networkResponse.statusCode;
+            return statusCode == 429 || statusCode == 503;
+        }
+        return false;
+    }
+
     public int getErrorMessage() {
         int errorMessage;
         if (volleyError.getCause() instanceof SSLException) {
@@ -18,25 +18,24 @@
 package org.floens.chan.core.manager;
 
 import androidx.annotation.AnyThread;
+import androidx.annotation.WorkerThread;
 
 import android.text.TextUtils;
 
 import org.floens.chan.core.database.DatabaseFilterManager;
 import org.floens.chan.core.database.DatabaseManager;
-import org.floens.chan.core.model.Post;
-import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.model.orm.Board;
 import org.floens.chan.core.model.orm.Filter;
 import org.floens.chan.ui.helper.BoardHelper;
 import org.floens.chan.utils.Logger;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -74,25 +73,50 @@ public class FilterEngine {
 
     private final DatabaseFilterManager databaseFilterManager;
 
-    private final Map<String, Pattern> patternCache = new HashMap<>();
+    private final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
+
+    private final Object snapshotLock = new Object();
+    private int snapshotVersion = 0;
+    private volatile Snapshot snapshot;
 
     @Inject
     public FilterEngine(DatabaseManager databaseManager, BoardManager boardManager) {
         this.databaseManager = databaseManager;
         this.boardManager = boardManager;
         databaseFilterManager = databaseManager.getDatabaseFilterManager();
+
+        // Load the first snapshot before it is needed.
+        databaseManager.runTaskAsync(this::loadSnapshot);
     }
 
     public void deleteFilter(Filter filter) {
-        databaseManager.runTask(databaseFilterManager.deleteFilter(filter));
+        databaseManager.runTask(() -> {
+            databaseFilterManager.deleteFilter(filter).call();
+            reloadSnapshot();
+            return null;
+        });
     }
 
     public void createOrUpdateFilter(Filter filter) {
-        if (filter.id == 0) {
-            databaseManager.runTask(databaseFilterManager.createFilter(filter));
-        } else {
-            databaseManager.runTask(databaseFilterManager.updateFilter(filter));
-        }
+        createOrUpdateFilters(Collections.singletonList(filter));
+    }
+
+    /**
+     * Save the filters in one database task, the snapshot is made again once for all of them in
+     * the same task.
+     */
+    public void createOrUpdateFilters(List<Filter> filters) {
+        databaseManager.runTask(() -> {
+            for (Filter filter : filters) {
+                if (filter.id == 0) {
+                    databaseFilterManager.createFilter(filter).call();
+                } else {
+                    databaseFilterManager.updateFilter(filter).call();
+                }
+            }
+            reloadSnapshot();
+            return null;
+        });
     }
 
     public List<Filter> getEnabledFilters() {
@@ -107,6 +131,62 @@ public class FilterEngine {
         return enabled;
     }
 
+    /**
+     * Get the enabled filters, without querying the database. The snapshot is replaced with a
+     * new one when a filter is created, updated or deleted. Only the first call loads it.
+     */
+    @AnyThread
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = loadSnapshot();
+        }
+        return current;
+    }
+
+    /**
+     * Get the enabled filters of the board, compiled into one matcher.
+     */
+    @AnyThread
+    public FilterMatcher getFilterMatcher(Board board) {
+        return getSnapshot().getMatcher(board);
+    }
+
+    /**
+     * Load the snapshot of the changed filters and swap it in, called in the database task that
+     * changed them. The previous snapshot is used until then.
+     */
+    @WorkerThread
+    private void reloadSnapshot() {
+        synchronized (snapshotLock) {
+            // A snapshot that is still being loaded with the old filters is not published.
+            snapshotVersion++;
+        }
+        loadSnapshot();
+    }
+
+    private Snapshot loadSnapshot() {
+        int version;
+        synchronized (snapshotLock) {
+            version = snapshotVersion;
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        for (Filter filter : getEnabledFilters()) {
+            // copy the filter because it will get used on other threads
+            filters.add(filter.copy());
+        }
+        Snapshot loaded = new Snapshot(version, filters);
+
+        synchronized (snapshotLock) {
+            // Don't publish a snapshot of filters that changed while it was loaded.
+            if (version == snapshotVersion) {
+                snapshot = loaded;
+            }
+        }
+        return loaded;
+    }
+
     public List<Filter> getAllFilters() {
         try {
             return databaseFilterManager.getFilters().call();
@@ -151,57 +231,18 @@ public class FilterEngine {
         }
     }
 
-    @AnyThread
-    public boolean matches(Filter filter, Post.Builder post) {
-        if ((filter.type & FilterType.TRIPCODE.flag) != 0 && matches(filter, FilterType.TRIPCODE.isRegex, post.tripcode, false)) {
-            return true;
-        }
-
-        if ((filter.type & FilterType.NAME.flag) != 0 && matches(filter, FilterType.NAME.isRegex, post.name, false)) {
-            return true;
-        }
-
-        if ((filter.type & FilterType.COMMENT.flag) != 0 && matches(filter, FilterType.COMMENT.isRegex, post.comment.toString(), false)) {
-            return true;
-        }
-
-        if ((filter.type & FilterType.ID.flag) != 0 && matches(filter, FilterType.ID.isRegex, post.posterId, false)) {
-            return true;
-        }
-
-        if ((filter.type & FilterType.SUBJECT.flag) != 0 && matches(filter, FilterType.SUBJECT.isRegex, post.subject, false)) {
-            return true;
-        }
-
-        if (post.images != null) {
-            StringBuilder filename = new StringBuilder();
-            for (PostImage image : post.images) {
-                filename.append(image.filename).append(" ");
-            }
-            if ((filename.length() > 0) && (filter.type & FilterType.FILENAME.flag) != 0 && matches(filter, FilterType.FILENAME.isRegex, filename.toString(), false)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
     @AnyThread
     public boolean matches(Filter filter, boolean matchRegex, String text, boolean forceCompile) {
         if (matchRegex) {
             Pattern pattern = null;
-            if (!forceCompile) {
-                synchronized (patternCache) {
-                    pattern = patternCache.get(filter.pattern);
-                }
+            if (!forceCompile && filter.pattern != null) {
+                pattern = patternCache.get(filter.pattern);
             }
 
             if (pattern == null) {
                 pattern = compile(filter.pattern);
                 if (pattern != null) {
-                    synchronized (patternCache) {
-                        patternCache.put(filter.pattern, pattern);
-                    }
+                    patternCache.put(filter.pattern, pattern);
                     Logger.d(TAG, "Resulting pattern: " + pattern.pattern());
                 }
             }
@@ -223,58 +264,59 @@ public class FilterEngine {
         }
     }
 
-    private static final Pattern isRegexPattern = Pattern.compile("^/(.*)/(i?)$");
-    private static final Pattern filterFilthyPattern = Pattern.compile("(\\.|\\^|\\$|\\*|\\+|\\?|\\(|\\)|\\[|\\]|\\{|\\}|\\\\|\\||\\-)");
-    private static final Pattern wildcardPattern = Pattern.compile("\\\\\\*"); // an escaped \ and an escaped *, to replace an escaped * from escapeRegex
-
     @AnyThread
     public Pattern compile(String rawPattern) {
-        if (TextUtils.isEmpty(rawPattern)) {
-            return null;
+        return FilterMatcher.compile(rawPattern);
+    }
+
+    /**
+     * The enabled filters at one point in time, and their matchers per board, which are built
+     * the first time a board needs them. Never changes, the filters must not be modified.
+     */
+    public class Snapshot {
+        private final int version;
+        private final List<Filter> filters;
+        private final ConcurrentHashMap<String, FilterMatcher> matchers = new ConcurrentHashMap<>();
+
+        private Snapshot(int version, List<Filter> filters) {
+            this.version = version;
+            this.filters = Collections.unmodifiableList(filters);
         }
 
-        Pattern pattern;
+        /**
+         * @return a number that is higher for a snapshot of changed filters.
+         */
+        public int getVersion() {
+            return version;
+        }
 
-        Matcher isRegex = isRegexPattern.matcher(rawPattern);
-        if (isRegex.matches()) {
-            // This is a /Pattern/
-            String flagsGroup = isRegex.group(2);
-            int flags = 0;
-            if (flagsGroup.contains("i")) {
-                flags |= Pattern.CASE_INSENSITIVE;
-            }
+        public List<Filter> getFilters() {
+            return filters;
+        }
 
-            try {
-                //Don't allow an empty regex string (would match everything)
-                pattern = isRegex.group(1).length() > 0 ? Pattern.compile(isRegex.group(1), flags) : null;
-            } catch (PatternSyntaxException e) {
-                return null;
-            }
-        } else if (rawPattern.length() >= 2 && rawPattern.charAt(0) == '"' && rawPattern.charAt(rawPattern.length() - 1) == '"') {
-            // "matches an exact sentence"
-            String text = escapeRegex(rawPattern.substring(1, rawPattern.length() - 1));
-            //Don't allow only double quotes (would match everything)
-            pattern = rawPattern.length() != 2 ? Pattern.compile(text, Pattern.CASE_INSENSITIVE) : null;
-        } else {
-            String[] words = rawPattern.split(" ");
-            String text = "";
-            for (int i = 0, wordsLength = words.length; i < wordsLength; i++) {
-                String word = words[i];
-                // Find a word (bounded by \b), replacing any * with \S*
-                text += "(\\b" + (wildcardPattern.matcher(escapeRegex(word)).replaceAll("\\\\S*")) + "\\b)";
-                // Allow multiple words by joining them with |
-                if (i < words.length - 1) {
-                    text += "|";
-                }
-            }
-            //Don't allow only spaces (would match everything after split)
-            pattern = !TextUtils.isEmpty(text) ? Pattern.compile(text.toString(), Pattern.CASE_INSENSITIVE) : null;
+        public List<Filter> getFilters(Board board) {
+            return getMatcher(board).getFilters();
         }
 
-        return pattern;
-    }
+        public FilterMatcher getMatcher(Board board) {
+            String uniqueId = BoardHelper.boardUniqueId(board);
+            FilterMatcher matcher = matchers.get(uniqueId);
+            if (matcher == null) {
+                List<Filter> boardFilters = new ArrayList<>();
+                for (int i = 0; i < filters.size(); i++) {
+                    Filter filter = filters.get(i);
+                    if (matchesBoard(filter, board)) {
+                        boardFilters.add(filter);
+                    }
+                }
 
-    private String escapeRegex(String filthy) {
-        return filterFilthyPattern.matcher(filthy).replaceAll("\\\\$1"); // Escape regex special characters with a \
+                matcher = new FilterMatcher(boardFilters);
+                FilterMatcher existing = matchers.putIfAbsent(uniqueId, matcher);
+                if (existing != null) {
+                    matcher = existing;
+                }
+            }
+            return matcher;
+        }
     }
 }
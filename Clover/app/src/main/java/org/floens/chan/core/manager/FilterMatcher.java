@@ -0,0 +1,473 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import androidx.annotation.AnyThread;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.model.orm.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * All filters of a board compiled into one structure per {@link FilterType}, so that a post is
+ * matched against all filters at once instead of filter by filter.
+ * <p>The exact types are looked up in a map. Plain words and "phrases" of the regex types are
+ * matched in a single pass over the text with an Aho-Corasick automaton, the /regex/ and
+ * wildcard filters are matched one by one, but only when they could still change the result.
+ * <p>Immutable, and safe to use from multiple threads.
+ */
+@AnyThread
+public class FilterMatcher {
+    private static final Pattern isRegexPattern = Pattern.compile("^/(.*)/(i?)$");
+    private static final Pattern filterFilthyPattern = Pattern.compile("(\\.|\\^|\\$|\\*|\\+|\\?|\\(|\\)|\\[|\\]|\\{|\\}|\\\\|\\||\\-)");
+    private static final Pattern wildcardPattern = Pattern.compile("\\\\\\*"); // an escaped \ and an escaped *, to replace an escaped * from escapeRegex
+
+    private final List<Filter> filters;
+
+    private final Map<String, Integer> tripcodes;
+    private final Map<String, Integer> names;
+    private final Map<String, Integer> ids;
+    private final TextMatcher comment;
+    private final TextMatcher subject;
+    private final TextMatcher filename;
+
+    public FilterMatcher(List<Filter> filters) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+
+        tripcodes = exactMatcher(filters, FilterType.TRIPCODE);
+        names = exactMatcher(filters, FilterType.NAME);
+        ids = exactMatcher(filters, FilterType.ID);
+        comment = new TextMatcher(filters, FilterType.COMMENT);
+        subject = new TextMatcher(filters, FilterType.SUBJECT);
+        filename = new TextMatcher(filters, FilterType.FILENAME);
+    }
+
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Match the post against all filters.
+     *
+     * @return the last filter in the list that matches the post, which is the one whose action
+     * applies, or {@code null} if none matched.
+     */
+    public Filter match(Post.Builder post) {
+        if (filters.isEmpty()) {
+            return null;
+        }
+
+        int best = -1;
+        best = matchExact(tripcodes, post.tripcode, best);
+        best = matchExact(names, post.name, best);
+        best = matchExact(ids, post.posterId, best);
+
+        if (!comment.isEmpty() && post.comment != null) {
+            best = comment.match(post.comment.toString(), best);
+        }
+
+        if (!subject.isEmpty() && post.subject != null) {
+            best = subject.match(post.subject, best);
+        }
+
+        if (!filename.isEmpty() && post.images != null) {
+            StringBuilder text = new StringBuilder();
+            for (PostImage image : post.images) {
+                text.append(image.filename).append(" ");
+            }
+            if (text.length() > 0) {
+                best = filename.match(text.toString(), best);
+            }
+        }
+
+        return best >= 0 ? filters.get(best) : null;
+    }
+
+    /**
+     * Compile the pattern of a filter of a regex {@link FilterType}.
+     * <p>Supports /regex/ with an optional i flag, "an exact sentence" and a list of words
+     * separated by spaces, where * in a word matches any non-whitespace.
+     *
+     * @return the pattern, or {@code null} if the pattern is invalid or would match everything.
+     */
+    public static Pattern compile(String rawPattern) {
+        if (rawPattern == null || rawPattern.length() == 0) {
+            return null;
+        }
+
+        Pattern pattern;
+
+        Matcher isRegex = isRegexPattern.matcher(rawPattern);
+        if (isRegex.matches()) {
+            // This is a /Pattern/
+            String flagsGroup = isRegex.group(2);
+            int flags = 0;
+            if (flagsGroup.contains("i")) {
+                flags |= Pattern.CASE_INSENSITIVE;
+            }
+
+            try {
+                //Don't allow an empty regex string (would match everything)
+                pattern = isRegex.group(1).length() > 0 ? Pattern.compile(isRegex.group(1), flags) : null;
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+        } else if (isSentence(rawPattern)) {
+            // "matches an exact sentence"
+            String text = escapeRegex(rawPattern.substring(1, rawPattern.length() - 1));
+            //Don't allow only double quotes (would match everything)
+            pattern = rawPattern.length() != 2 ? Pattern.compile(text, Pattern.CASE_INSENSITIVE) : null;
+        } else {
+            String[] words = rawPattern.split(" ");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0, wordsLength = words.length; i < wordsLength; i++) {
+                String word = words[i];
+                // Find a word (bounded by \b), replacing any * with \S*
+                text.append("(\\b").append(wildcardPattern.matcher(escapeRegex(word)).replaceAll("\\\\S*")).append("\\b)");
+                // Allow multiple words by joining them with |
+                if (i < words.length - 1) {
+                    text.append("|");
+                }
+            }
+            //Don't allow only spaces (would match everything after split)
+            pattern = text.length() > 0 ? Pattern.compile(text.toString(), Pattern.CASE_INSENSITIVE) : null;
+        }
+
+        return pattern;
+    }
+
+    private static boolean isSentence(String rawPattern) {
+        return rawPattern.length() >= 2 && rawPattern.charAt(0) == '"' && rawPattern.charAt(rawPattern.length() - 1) == '"';
+    }
+
+    private static String escapeRegex(String filthy) {
+        return filterFilthyPattern.matcher(filthy).replaceAll("\\\\$1"); // Escape regex special characters with a \
+    }
+
+    private static Map<String, Integer> exactMatcher(List<Filter> filters, FilterType type) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            if (filter.hasFilter(type) && filter.pattern != null) {
+                // Later filters overwrite earlier ones, the last match wins.
+                map.put(filter.pattern, i);
+            }
+        }
+        return map;
+    }
+
+    private static int matchExact(Map<String, Integer> map, String text, int best) {
+        if (text != null && !map.isEmpty()) {
+            Integer index = map.get(text);
+            if (index != null && index > best) {
+                return index;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The case insensitive literals of the filters, and the filters that need their pattern.
+     */
+    private static class TextMatcher {
+        private final AhoCorasick literals;
+        // Sorted by descending filter index.
+        private final int[] regexIndexes;
+        private final Pattern[] regexPatterns;
+
+        TextMatcher(List<Filter> filters, FilterType type) {
+            List<Literal> literalList = new ArrayList<>();
+            List<Integer> indexList = new ArrayList<>();
+            List<Pattern> patternList = new ArrayList<>();
+
+            for (int i = filters.size() - 1; i >= 0; i--) {
+                Filter filter = filters.get(i);
+                if (!filter.hasFilter(type)) {
+                    continue;
+                }
+
+                if (!addLiterals(filter.pattern, i, literalList)) {
+                    Pattern pattern = compile(filter.pattern);
+                    if (pattern != null) {
+                        indexList.add(i);
+                        patternList.add(pattern);
+                    }
+                }
+            }
+
+            literals = literalList.isEmpty() ? null : new AhoCorasick(literalList);
+            regexIndexes = new int[indexList.size()];
+            for (int i = 0; i < regexIndexes.length; i++) {
+                regexIndexes[i] = indexList.get(i);
+            }
+            regexPatterns = patternList.toArray(new Pattern[0]);
+        }
+
+        boolean isEmpty() {
+            return literals == null && regexIndexes.length == 0;
+        }
+
+        int match(String text, int best) {
+            if (literals != null) {
+                best = literals.match(text, best);
+            }
+
+            for (int i = 0; i < regexIndexes.length && regexIndexes[i] > best; i++) {
+                Matcher matcher = regexPatterns[i].matcher(text);
+                try {
+                    if (matcher.find()) {
+                        return regexIndexes[i];
+                    }
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+
+            return best;
+        }
+
+        /**
+         * Add the literals the pattern is made of, same as {@link #compile(String)} would match
+         * them.
+         *
+         * @return {@code false} if the pattern can't be matched as literals, or is invalid.
+         */
+        private static boolean addLiterals(String rawPattern, int index, List<Literal> literals) {
+            if (rawPattern == null || rawPattern.length() == 0 || isRegexPattern.matcher(rawPattern).matches()) {
+                return false;
+            }
+
+            if (isSentence(rawPattern)) {
+                String text = rawPattern.substring(1, rawPattern.length() - 1);
+                if (text.length() == 0 || !isAscii(text)) {
+                    return false;
+                }
+                literals.add(new Literal(text, index, false));
+                return true;
+            }
+
+            String[] words = rawPattern.split(" ");
+            if (words.length == 0) {
+                return false;
+            }
+            for (String word : words) {
+                // An empty word matches at any word boundary, and a wildcard needs the pattern.
+                if (word.length() == 0 || word.indexOf('*') >= 0 || !isAscii(word)) {
+                    return false;
+                }
+            }
+            for (String word : words) {
+                literals.add(new Literal(word, index, true));
+            }
+            return true;
+        }
+
+        private static boolean isAscii(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) >= 128) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Literal {
+        final String text;
+        final int index;
+        // Bounded by \b on both ends.
+        final boolean word;
+
+        Literal(String text, int index, boolean word) {
+            this.text = text;
+            this.index = index;
+            this.word = word;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over case folded ascii literals, with the transitions of all states
+     * precomputed into a table. Characters not in any literal share one column of the table.
+     */
+    private static class AhoCorasick {
+        private final int[] charClasses = new int[128];
+        private final int classCount;
+        private final int[] transitions;
+
+        // The literals ending in a state, including those of the states in its failure chain.
+        private final Literal[][] outputs;
+        // The highest filter index in the outputs, to skip states that can't change the result.
+        private final int[] maxOutputIndex;
+
+        AhoCorasick(List<Literal> literals) {
+            int classes = 1;
+            for (Literal literal : literals) {
+                for (int i = 0; i < literal.text.length(); i++) {
+                    char c = fold(literal.text.charAt(i));
+                    if (charClasses[c] == 0) {
+                        charClasses[c] = classes++;
+                    }
+                }
+            }
+            classCount = classes;
+
+            // Build the trie, -1 is no transition.
+            List<int[]> trie = new ArrayList<>();
+            List<List<Literal>> ends = new ArrayList<>();
+            trie.add(newRow());
+            ends.add(new ArrayList<Literal>());
+            for (Literal literal : literals) {
+                int state = 0;
+                for (int i = 0; i < literal.text.length(); i++) {
+                    int charClass = charClasses[fold(literal.text.charAt(i))];
+                    int next = trie.get(state)[charClass];
+                    if (next < 0) {
+                        next = trie.size();
+                        trie.get(state)[charClass] = next;
+                        trie.add(newRow());
+                        ends.add(new ArrayList<Literal>());
+                    }
+                    state = next;
+                }
+                ends.get(state).add(literal);
+            }
+
+            int stateCount = trie.size();
+            transitions = new int[stateCount * classCount];
+            outputs = new Literal[stateCount][];
+            maxOutputIndex = new int[stateCount];
+            int[] failure = new int[stateCount];
+
+            // Breadth first, so the failure state is always complete before it is used.
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < classCount; c++) {
+                int next = trie.get(0)[c];
+                if (next < 0) {
+                    transitions[c] = 0;
+                } else {
+                    transitions[c] = next;
+                    failure[next] = 0;
+                    queue[tail++] = next;
+                }
+            }
+            setOutputs(0, ends.get(0), null);
+
+            while (head < tail) {
+                int state = queue[head++];
+                setOutputs(state, ends.get(state), outputs[failure[state]]);
+
+                for (int c = 0; c < classCount; c++) {
+                    int next = trie.get(state)[c];
+                    int failureNext = transitions[failure[state] * classCount + c];
+                    if (next < 0) {
+                        transitions[state * classCount + c] = failureNext;
+                    } else {
+                        transitions[state * classCount + c] = next;
+                        failure[next] = failureNext;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        private int[] newRow() {
+            int[] row = new int[classCount];
+            Arrays.fill(row, -1);
+            return row;
+        }
+
+        private void setOutputs(int state, List<Literal> own, Literal[] inherited) {
+            int inheritedLength = inherited == null ? 0 : inherited.length;
+            Literal[] all = new Literal[own.size() + inheritedLength];
+            int max = -1;
+            for (int i = 0; i < own.size(); i++) {
+                all[i] = own.get(i);
+                max = Math.max(max, all[i].index);
+            }
+            for (int i = 0; i < inheritedLength; i++) {
+                all[own.size() + i] = inherited[i];
+                max = Math.max(max, inherited[i].index);
+            }
+            outputs[state] = all;
+            maxOutputIndex[state] = max;
+        }
+
+        int match(String text, int best) {
+            int state = 0;
+            for (int i = 0, length = text.length(); i < length; i++) {
+                char c = fold(text.charAt(i));
+                int charClass = c < 128 ? charClasses[c] : 0;
+                state = transitions[state * classCount + charClass];
+
+                if (maxOutputIndex[state] > best) {
+                    for (Literal literal : outputs[state]) {
+                        if (literal.index > best &&
+                                (!literal.word || isWordMatch(text, i + 1 - literal.text.length(), i + 1))) {
+                            best = literal.index;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Case fold like a case insensitive pattern does, the literals are ascii, but some
+         * other characters fold to ascii too.
+         */
+        private static char fold(char c) {
+            if (c < 128) {
+                return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            } else {
+                return Character.toLowerCase(Character.toUpperCase(c));
+            }
+        }
+
+        private static boolean isWordMatch(String text, int start, int end) {
+            return isBoundary(text, start) && isBoundary(text, end);
+        }
+
+        // Same as \b
+        private static boolean isBoundary(String text, int index) {
+            boolean before = index > 0 && isWordCharacter(Character.codePointBefore(text, index));
+            boolean after = index < text.length() && isWordCharacter(Character.codePointAt(text, index));
+            return before != after;
+        }
+
+        private static boolean isWordCharacter(int codePoint) {
+            if (codePoint == '_' || Character.isLetterOrDigit(codePoint)) {
+                return true;
+            }
+            int type = Character.getType(codePoint);
+            return type == Character.NON_SPACING_MARK ||
+                    type == Character.ENCLOSING_MARK ||
+                    type == Character.COMBINING_SPACING_MARK;
+        }
+    }
+}
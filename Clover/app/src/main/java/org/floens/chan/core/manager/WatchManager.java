@@ -26,11 +26,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 
 import android.text.TextUtils;
 
+import com.android.volley.RequestQueue;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
 
@@ -41,12 +43,16 @@ import org.floens.chan.core.exception.ChanLoaderException;
 import org.floens.chan.core.model.ChanThread;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.model.orm.Board;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.model.orm.Pin;
 import org.floens.chan.core.pool.ChanLoaderFactory;
 import org.floens.chan.core.receiver.WatchUpdateReceiver;
 import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.loader.ChanLoaderStatistics;
 import org.floens.chan.core.site.loader.ChanThreadLoader;
+import org.floens.chan.core.site.loader.ThreadIndex;
+import org.floens.chan.core.site.loader.ThreadIndexLoader;
 import org.floens.chan.ui.helper.PostHelper;
 import org.floens.chan.ui.notification.ThreadWatchNotifications;
 import org.floens.chan.utils.Logger;
@@ -55,11 +61,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -76,12 +80,14 @@ import static org.floens.chan.utils.AndroidUtils.getAppContext;
  * <p>Pins are threads that are pinned to a pane on the left.
  * <p/>
  * <p>The pin watcher is an optional feature that watches threads for new posts and displays a new
- * post counter next to the pin view. Watching happens with the same backoff timer as used for
- * the auto updater for open threads.
+ * post counter next to the pin view. The {@link WatchScheduler} decides when each thread is
+ * polled, from how active it is, and spreads the polls per site. When the site has a
+ * {@link ThreadIndex} of the board, a thread that was loaded before is only loaded again when the
+ * index shows it changed, one index request is used for all the threads of the board.
  * <p/>
  * <p>Background watching is a feature that can be enabled. With background watching enabled then
  * the PinManager will register an AlarmManager to check for updates in intervals. It will acquire
- * a wakelock shortly while checking for updates.
+ * a wakelock shortly while polling the threads that are due before the next broadcast.
  * <p/>
  * <p>All pin adding and removing must go through this class to properly update the watchers.
  */
@@ -91,12 +97,12 @@ public class WatchManager {
 
     private enum IntervalType {
         /**
-         * A timer that uses a {@link Handler} that calls {@link #update(boolean)} every {@value #FOREGROUND_INTERVAL}ms.
+         * A timer that uses a {@link Handler} that calls {@link #schedule()} when the next thread is due.
          */
         FOREGROUND,
 
         /**
-         * A timer that schedules a broadcast to be send that calls {@link #update(boolean)}.
+         * A timer that schedules a broadcast to be send that calls {@link #backgroundUpdate()}.
          */
         BACKGROUND,
 
@@ -108,13 +114,14 @@ public class WatchManager {
 
     public static final int DEFAULT_BACKGROUND_INTERVAL = 15 * 60 * 1000;
 
-    private static final long FOREGROUND_INTERVAL = 15 * 1000;
     private static final int MESSAGE_UPDATE = 1;
     private static final int REQUEST_CODE_WATCH_UPDATE = 2;
     private static final String WATCHER_UPDATE_ACTION = getAppContext().getPackageName() + ".intent.action.WATCHER_UPDATE";
     private static final String WAKELOCK_TAG = getAppContext().getPackageName() + ":watch_manager_update_lock";
     private static final long WAKELOCK_MAX_TIME = 60 * 1000;
     private static final long BACKGROUND_UPDATE_MIN_DELAY = 90 * 1000;
+    // How old a thread index can be to check a thread with it.
+    private static final long THREAD_INDEX_MAX_AGE = WatchScheduler.MIN_INTERVAL;
 
     private static final Comparator<Pin> SORT_PINS = new Comparator<Pin>() {
         @Override
@@ -137,8 +144,12 @@ public class WatchManager {
     private IntervalType currentInterval = IntervalType.NONE;
 
     private Map<Pin, PinWatcher> pinWatchers = new HashMap<>();
+    private final WatchScheduler<PinWatcher> watchScheduler = new WatchScheduler<>();
+    private final ThreadIndexLoader threadIndexLoader;
+    private boolean scheduling = false;
 
-    private Set<PinWatcher> waitingForPinWatchersForBackgroundUpdate;
+    // Start of the background update that holds the wakelock, 0 if there is none.
+    private long backgroundUpdateStart;
     private PowerManager.WakeLock wakeLock;
     private long lastBackgroundUpdateTime;
 
@@ -147,13 +158,15 @@ public class WatchManager {
     @Inject
     public WatchManager(Context applicationContext,
                         DatabaseManager databaseManager, ChanLoaderFactory chanLoaderFactory,
-                        ThreadWatchNotifications threadWatchNotifications) {
+                        ThreadWatchNotifications threadWatchNotifications,
+                        RequestQueue requestQueue) {
         alarmManager = (AlarmManager) applicationContext.getSystemService(Context.ALARM_SERVICE);
         powerManager = (PowerManager) applicationContext.getSystemService(Context.POWER_SERVICE);
 
         this.databaseManager = databaseManager;
         this.chanLoaderFactory = chanLoaderFactory;
         this.threadWatchNotifications = threadWatchNotifications;
+        threadIndexLoader = new ThreadIndexLoader(requestQueue);
 
         databasePinManager = databaseManager.getDatabasePinManager();
         pins = databaseManager.runTask(databasePinManager.getPins());
@@ -163,7 +176,7 @@ public class WatchManager {
             @Override
             public boolean handleMessage(Message msg) {
                 if (msg.what == MESSAGE_UPDATE) {
-                    update(false);
+                    schedule();
                     return true;
                 } else {
                     return false;
@@ -239,7 +252,7 @@ public class WatchManager {
     }
 
     public void updatePin(Pin pin) {
-        databaseManager.runTask(databasePinManager.updatePin(pin));
+        databaseManager.runTaskWriteBehind(pin, databasePinManager.updatePin(pin));
 
         updateState();
 
@@ -344,7 +357,7 @@ public class WatchManager {
             Logger.w(TAG, "Background update broadcast ignored because it was requested too soon");
         } else {
             lastBackgroundUpdateTime = System.currentTimeMillis();
-            update(true);
+            backgroundUpdate();
         }
     }
 
@@ -415,6 +428,18 @@ public class WatchManager {
         return pinWatchers.get(pin);
     }
 
+    public String getSummary() {
+        String summary = watchScheduler.getSummary(SystemClock.elapsedRealtime());
+        for (Pin pin : getWatchingPins()) {
+            PinWatcher pinWatcher = getPinWatcher(pin);
+            if (pinWatcher != null && pinWatcher.getTimeUntilNextPoll() >= 0) {
+                summary += pinWatcher.getTitle() + ": next poll in " +
+                        (pinWatcher.getTimeUntilNextPoll() / 1000) + "s\n";
+            }
+        }
+        return summary;
+    }
+
     // Called when the user changes the watch enabled preference
     private void onWatchEnabledChanged(boolean watchEnabled) {
         updateState(watchEnabled, isBackgroundWatchingSettingEnabled());
@@ -455,13 +480,16 @@ public class WatchManager {
     private boolean destroyPinWatcher(Pin pin) {
         PinWatcher pinWatcher = pinWatchers.remove(pin);
         if (pinWatcher != null) {
+            watchScheduler.remove(pinWatcher);
             pinWatcher.destroy();
         }
         return pinWatcher != null;
     }
 
     private void updatePinsInDatabase() {
-        databaseManager.runTaskAsync(databasePinManager.updatePins(pins));
+        // A copy, the list can change before the update is committed.
+        databaseManager.runTaskWriteBehind(databasePinManager,
+                databasePinManager.updatePins(new ArrayList<>(pins)));
     }
 
     private Boolean isWatchingSettingEnabled() {
@@ -520,6 +548,7 @@ public class WatchManager {
                 case BACKGROUND:
                     // Stop the scheduled broadcast
                     scheduleAlarmManager(false);
+                    endBackgroundUpdate();
                     break;
                 case NONE:
                     // Nothing to do when no timer was set.
@@ -531,8 +560,7 @@ public class WatchManager {
 
             switch (currentInterval) {
                 case FOREGROUND:
-                    // Schedule a delayed handler that will call update(false)
-                    handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE), FOREGROUND_INTERVAL);
+                    // The handler is set by the schedule() below
                     break;
                 case BACKGROUND:
                     // Schedule an intervaled broadcast receiver
@@ -555,6 +583,21 @@ public class WatchManager {
             }
         }
 
+        // Update the threads that the scheduler polls
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < pins.size(); i++) {
+            Pin pin = pins.get(i);
+            PinWatcher pinWatcher = getPinWatcher(pin);
+            if (pinWatcher != null) {
+                if (pin.watching && !pin.isError) {
+                    watchScheduler.add(pinWatcher, pin.loadable.siteId, now);
+                } else {
+                    watchScheduler.remove(pinWatcher);
+                }
+            }
+        }
+        schedule();
+
         // Update notification state
         if (watchEnabled && backgroundEnabled) {
             // Show/update notification
@@ -588,59 +631,81 @@ public class WatchManager {
         }
     }
 
-    // Update the watching pins
-    private void update(boolean fromBackground) {
-        Logger.d(TAG, "update() fromBackground = " + fromBackground);
+    // Poll the threads that are due within half of the background interval, holding a wakelock
+    // until they are done
+    private void backgroundUpdate() {
+        Logger.d(TAG, "backgroundUpdate()");
+        backgroundUpdateStart = SystemClock.elapsedRealtime();
+        manageLock(true);
+        schedule();
+    }
 
-        switch (currentInterval) {
-            case FOREGROUND:
-                // reschedule handler message
-                handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE), FOREGROUND_INTERVAL);
-                break;
-            case BACKGROUND:
-                // AlarmManager is scheduled as an interval
-                break;
+    private void endBackgroundUpdate() {
+        if (backgroundUpdateStart != 0) {
+            backgroundUpdateStart = 0;
+            manageLock(false);
         }
+    }
 
-        // A set of watchers that all have to complete being updated
-        // before the wakelock is released again
-        waitingForPinWatchersForBackgroundUpdate = null;
-        if (fromBackground) {
-            waitingForPinWatchersForBackgroundUpdate = new HashSet<>();
+    // Poll the threads that are due, and set the handler for when the next one is
+    private void schedule() {
+        // A thread checked with an index that was already loaded calls this again.
+        if (scheduling) {
+            return;
         }
+        scheduling = true;
+        try {
+            scheduleDue();
+        } finally {
+            scheduling = false;
+        }
+    }
 
-        List<Pin> watchingPins = getWatchingPins();
-        for (int i = 0; i < watchingPins.size(); i++) {
-            Pin pin = watchingPins.get(i);
-            PinWatcher pinWatcher = getPinWatcher(pin);
-            if (pinWatcher != null && pinWatcher.update(fromBackground)) {
-                EventBus.getDefault().post(new PinChangedMessage(pin));
+    private void scheduleDue() {
+        handler.removeMessages(MESSAGE_UPDATE);
 
-                if (fromBackground) {
-                    waitingForPinWatchersForBackgroundUpdate.add(pinWatcher);
-                }
+        boolean background = backgroundUpdateStart != 0;
+        if (currentInterval != IntervalType.FOREGROUND && !background) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (background && now - backgroundUpdateStart > WAKELOCK_MAX_TIME) {
+            Logger.w(TAG, "Background update took too long, not polling the rest");
+            endBackgroundUpdate();
+            return;
+        }
+
+        // In the background, poll each thread that is due before the next broadcast once.
+        long dueBefore = background ? backgroundUpdateStart + getBackgroundIntervalSetting() / 2 : now;
+        long notPolledSince = background ? backgroundUpdateStart : Long.MAX_VALUE;
+
+        // The background update may take a while, the index is used for the whole update.
+        long indexMaxAge = background ? WAKELOCK_MAX_TIME : THREAD_INDEX_MAX_AGE;
+
+        List<PinWatcher> due = watchScheduler.takeDue(now, dueBefore, notPolledSince);
+        for (int i = 0; i < due.size(); i++) {
+            PinWatcher pinWatcher = due.get(i);
+            if (pinWatcher.poll(indexMaxAge)) {
+                EventBus.getDefault().post(new PinChangedMessage(pinWatcher.pin));
+            } else {
+                watchScheduler.skipped(pinWatcher, now);
             }
         }
 
-        if (fromBackground && !waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-            Logger.i(TAG, "Acquiring wakelock for pin watcher updates");
-            manageLock(true);
+        long next = watchScheduler.getNextWakeup(now,
+                background ? dueBefore : Long.MAX_VALUE, notPolledSince);
+        if (next >= 0) {
+            handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE), next - now);
+        } else if (background && !watchScheduler.isRunning()) {
+            Logger.i(TAG, "All watchers updated, removing wakelock");
+            endBackgroundUpdate();
         }
     }
 
     private void pinWatcherUpdated(PinWatcher pinWatcher) {
         updateState();
         EventBus.getDefault().post(new PinChangedMessage(pinWatcher.pin));
-
-        if (waitingForPinWatchersForBackgroundUpdate != null) {
-            waitingForPinWatchersForBackgroundUpdate.remove(pinWatcher);
-
-            if (waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-                Logger.i(TAG, "All watchers updated, removing wakelock");
-                waitingForPinWatchersForBackgroundUpdate = null;
-                manageLock(false);
-            }
-        }
     }
 
     private void manageLock(boolean lock) {
@@ -707,6 +772,11 @@ public class WatchManager {
 
         private boolean requireNotificationUpdate = true;
 
+        // Of the last load, to check the thread index with.
+        private long lastModified = -1;
+        private int replies = -1;
+        private boolean archiveSoon = false;
+
         private Bitmap thumbnailBitmap = null;
         private ImageLoader.ImageContainer thumbnailContainer;
 
@@ -726,6 +796,15 @@ public class WatchManager {
             return pin.loadable.title;
         }
 
+        /**
+         * @return the time in milliseconds until the thread is polled again, or -1 if it isn't
+         * watched.
+         */
+        public long getTimeUntilNextPoll() {
+            long nextPoll = watchScheduler.getNextPoll(this);
+            return nextPoll < 0 ? -1 : Math.max(0, nextPoll - SystemClock.elapsedRealtime());
+        }
+
         public boolean requiresNotificationUpdate() {
             return requireNotificationUpdate;
         }
@@ -783,19 +862,47 @@ public class WatchManager {
             requireNotificationUpdate = true;
         }
 
-        private boolean update(boolean fromBackground) {
+        // Check the thread index of the board first if the site has one, and only load the
+        // thread when it changed. true if a check or load was started.
+        private boolean poll(long indexMaxAge) {
+            if (pin.isError || !pin.watching) {
+                return false;
+            }
+
+            Loadable loadable = pin.loadable;
+            if (!posts.isEmpty() && loadable.board != null &&
+                    threadIndexLoader.get(loadable.getSite(), loadable.board, indexMaxAge,
+                            this::onThreadIndex)) {
+                return true;
+            }
+
+            return update();
+        }
+
+        private void onThreadIndex(@Nullable ThreadIndex index) {
+            // Loaded by the open thread, or not watched anymore, while the index was loading.
+            if (chanLoader == null || !watchScheduler.isRunning(this)) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            if (index != null && !index.hasChanged(pin.loadable.no, lastModified, replies)) {
+                ChanLoaderStatistics.onThreadIndexSkippedLoad();
+                watchScheduler.loaded(this, now, posts.size(), quotes.size(), archiveSoon);
+                schedule();
+            } else if (!update()) {
+                watchScheduler.skipped(this, now);
+                schedule();
+            }
+        }
+
+        // true if the thread is loading, the scheduler is told when it is done
+        private boolean update() {
             if (!pin.isError && pin.watching) {
                 loadThumbnailBitmapIfNeeded();
 
-                if (fromBackground) {
-                    // Always load regardless of timer, since the time left is not accurate for 15min+ intervals
-                    chanLoader.clearTimer();
-                    chanLoader.requestMoreData();
-                    return true;
-                } else {
-                    // true if a load was started
-                    return chanLoader.loadMoreIfTime();
-                }
+                // The loader can already be loading for the open thread, its result comes here too.
+                return chanLoader.requestMoreData() || chanLoader.isLoading();
             } else {
                 return false;
             }
@@ -810,6 +917,8 @@ public class WatchManager {
                 pin.watching = false;
             }
 
+            watchScheduler.failed(this, SystemClock.elapsedRealtime(), error.isSiteOverloaded());
+
             pinWatcherUpdated(this);
         }
 
@@ -835,27 +944,9 @@ public class WatchManager {
             posts.clear();
             posts.addAll(thread.posts);
 
-            // Populate quotes list
+            // Populate quotes list, the posts that quote a saved reply
             quotes.clear();
-
-            // Get list of saved replies from this thread
-            Set<Integer> savedReplies = new HashSet<>();
-            for (Post item : thread.posts) {
-                if (item.isSavedReply) {
-                    savedReplies.add(item.no);
-                }
-            }
-
-            // Now get a list of posts that have a quote to a saved reply
-            out:
-            for (Post post : thread.posts) {
-                for (Integer no : post.repliesTo) {
-                    if (savedReplies.contains(no)) {
-                        quotes.add(post);
-                        continue out;
-                    }
-                }
-            }
+            quotes.addAll(thread.getSavedReplyQuotes());
 
             boolean isFirstLoad = pin.watchNewCount < 0 || pin.quoteNewCount < 0;
 
@@ -886,11 +977,23 @@ public class WatchManager {
                 }
             }
 
+            // Past the bump limit the thread sinks and will be archived soon.
+            Board board = pin.loadable.board;
+            archiveSoon = thread.op != null && board != null && board.bumpLimit > 0 &&
+                    Math.max(thread.op.getReplies(), posts.size() - 1) >= board.bumpLimit;
+            watchScheduler.loaded(this, SystemClock.elapsedRealtime(),
+                    posts.size(), quotes.size(), archiveSoon);
+
+            if (thread.op != null) {
+                lastModified = thread.op.getLastModified();
+                replies = thread.op.getReplies();
+            }
+
             if (Logger.debugEnabled()) {
                 Logger.d(TAG, String.format(Locale.ENGLISH,
                         "postlast=%d postnew=%d werenewposts=%b quotelast=%d quotenew=%d werenewquotes=%b nextload=%ds",
                         pin.watchLastCount, pin.watchNewCount, wereNewPosts, pin.quoteLastCount,
-                        pin.quoteNewCount, wereNewQuotes, chanLoader.getTimeUntilLoadMore() / 1000));
+                        pin.quoteNewCount, wereNewQuotes, getTimeUntilNextPoll() / 1000));
             }
 
             if (thread.archived || thread.closed) {
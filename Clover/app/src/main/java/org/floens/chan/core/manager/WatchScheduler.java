@@ -0,0 +1,335 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.MainThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides when the watched threads are polled, instead of each loader having its own timer.
+ * <p>Every thread gets an interval from how fast it gets new posts, and backs off while it gets
+ * none. Threads that quoted one of your posts recently, or that are past the bump limit and
+ * will soon be archived, are polled more often and go first when a site is busy. Polls are
+ * spread over the interval with some jitter, and each site only gets
+ * {@value #MAX_RUNNING_PER_SITE} requests at a time, at least {@value #MIN_SITE_SPACING}ms
+ * apart. A site that answers that it is overloaded is paused for a while.
+ * <p>Times are {@link android.os.SystemClock#elapsedRealtime()} milliseconds, given by the
+ * caller.
+ */
+@MainThread
+class WatchScheduler<T> {
+    static final long MIN_INTERVAL = 10 * 1000;
+    static final long MAX_INTERVAL = 60 * 60 * 1000;
+    static final long FIRST_INTERVAL = 30 * 1000;
+    // Recently quoted threads and threads that are archived soon are polled at least this often.
+    static final long QUOTED_MAX_INTERVAL = 60 * 1000;
+    static final long ARCHIVE_SOON_MAX_INTERVAL = 2 * 60 * 1000;
+    static final long QUOTE_ACTIVE_TIME = 10 * 60 * 1000;
+    static final long ERROR_INTERVAL = 60 * 1000;
+    static final long MIN_SITE_SPACING = 1000;
+    static final int MAX_RUNNING_PER_SITE = 2;
+    static final long MIN_SITE_PAUSE = 30 * 1000;
+    static final long MAX_SITE_PAUSE = 10 * 60 * 1000;
+
+    // Poll about when this many new posts are expected.
+    private static final double POSTS_PER_POLL = 2.0;
+    private static final double BACKOFF = 1.5;
+    private static final double JITTER = 0.1;
+
+    private final Random random = new Random();
+    private final Map<T, Entry> entries = new HashMap<>();
+    @SuppressLint("UseSparseArrays")
+    private final Map<Integer, SiteState> sites = new HashMap<>();
+
+    private int polls;
+    private int rateLimited;
+
+    void add(T item, int siteId, long now) {
+        if (!entries.containsKey(item)) {
+            Entry entry = new Entry(siteId);
+            // Spread the first polls a bit, the site spacing does the rest.
+            entry.nextPoll = now + (long) (random.nextDouble() * MIN_INTERVAL);
+            entries.put(item, entry);
+        }
+    }
+
+    void remove(T item) {
+        Entry entry = entries.remove(item);
+        if (entry != null && entry.running) {
+            getSite(entry.siteId).running--;
+        }
+    }
+
+    boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    boolean isRunning(T item) {
+        Entry entry = entries.get(item);
+        return entry != null && entry.running;
+    }
+
+    boolean isRunning() {
+        for (Entry entry : entries.values()) {
+            if (entry.running) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the items that should be polled now, most urgent first, and mark them running. An
+     * item is due when its next poll is before {@code dueBefore}, and it was not polled since
+     * {@code notPolledSince}.
+     */
+    List<T> takeDue(long now, long dueBefore, long notPolledSince) {
+        List<Map.Entry<T, Entry>> due = new ArrayList<>();
+        for (Map.Entry<T, Entry> item : entries.entrySet()) {
+            if (isDue(item.getValue(), dueBefore, notPolledSince)) {
+                due.add(item);
+            }
+        }
+
+        Collections.sort(due, (lhs, rhs) ->
+                Double.compare(rhs.getValue().urgency(now), lhs.getValue().urgency(now)));
+
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < due.size(); i++) {
+            Entry entry = due.get(i).getValue();
+            SiteState site = getSite(entry.siteId);
+            if (site.nextStart() <= now && site.running < MAX_RUNNING_PER_SITE) {
+                site.running++;
+                site.lastStart = now;
+                entry.running = true;
+                entry.lastStart = now;
+                polls++;
+                result.add(due.get(i).getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the time of the next {@link #takeDue(long, long, long)} that returns something,
+     * or {@code -1} if nothing will be due without a poll finishing first.
+     */
+    long getNextWakeup(long now, long dueBefore, long notPolledSince) {
+        long next = -1;
+        for (Entry entry : entries.values()) {
+            SiteState site = getSite(entry.siteId);
+            if (isDue(entry, Long.MAX_VALUE, notPolledSince) &&
+                    site.running < MAX_RUNNING_PER_SITE) {
+                long time = Math.max(Math.max(entry.nextPoll, site.nextStart()), now);
+                if (time <= Math.max(dueBefore, now) && (next < 0 || time < next)) {
+                    next = time;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The thread was loaded, by a poll or by the thread being open.
+     *
+     * @param archiveSoon the thread is past the bump limit.
+     */
+    void loaded(T item, long now, int postCount, int quoteCount, boolean archiveSoon) {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            return;
+        }
+        finish(entry);
+        getSite(entry.siteId).pause = 0;
+
+        if (entry.lastLoad == 0) {
+            entry.interval = FIRST_INTERVAL;
+        } else {
+            int newPosts = Math.max(0, postCount - entry.postCount);
+            long elapsed = Math.max(1, now - entry.lastLoad);
+            // Posts per millisecond, averaged over the last loads.
+            entry.rate = entry.rate * 0.5 + (newPosts / (double) elapsed) * 0.5;
+
+            if (newPosts > 0) {
+                entry.interval = (long) (POSTS_PER_POLL / entry.rate);
+            } else {
+                entry.interval = (long) (entry.interval * BACKOFF);
+            }
+
+            if (quoteCount > entry.quoteCount) {
+                entry.lastQuote = now;
+            }
+        }
+        entry.postCount = postCount;
+        entry.quoteCount = quoteCount;
+        entry.lastLoad = now;
+        entry.archiveSoon = archiveSoon;
+
+        if (entry.lastQuote != 0 && now - entry.lastQuote < QUOTE_ACTIVE_TIME) {
+            entry.interval = Math.min(entry.interval, QUOTED_MAX_INTERVAL);
+        }
+        if (archiveSoon) {
+            entry.interval = Math.min(entry.interval, ARCHIVE_SOON_MAX_INTERVAL);
+        }
+        entry.interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, entry.interval));
+
+        entry.nextPoll = now + jitter(entry.interval);
+    }
+
+    /**
+     * The poll failed.
+     *
+     * @param siteOverloaded the site answered with a 429 or 503, pause polling it.
+     */
+    void failed(T item, long now, boolean siteOverloaded) {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            return;
+        }
+        finish(entry);
+
+        if (siteOverloaded) {
+            rateLimited++;
+            SiteState site = getSite(entry.siteId);
+            site.pause = site.pause == 0 ? MIN_SITE_PAUSE : Math.min(MAX_SITE_PAUSE, site.pause * 2);
+            site.pausedUntil = now + site.pause;
+        }
+
+        entry.nextPoll = now + jitter(Math.max(ERROR_INTERVAL, entry.interval));
+    }
+
+    /**
+     * The item was taken but no poll was started, poll it again on its normal interval.
+     */
+    void skipped(T item, long now) {
+        Entry entry = entries.get(item);
+        if (entry != null) {
+            finish(entry);
+            entry.nextPoll = now + jitter(entry.interval);
+        }
+    }
+
+    /**
+     * @return the time of the next poll of the item, or {@code -1} if it is not scheduled.
+     */
+    long getNextPoll(T item) {
+        Entry entry = entries.get(item);
+        return entry == null ? -1 : entry.nextPoll;
+    }
+
+    String getSummary(long now) {
+        int running = 0;
+        long minInterval = 0;
+        long maxInterval = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.running) {
+                running++;
+            }
+            minInterval = minInterval == 0 ? entry.interval : Math.min(minInterval, entry.interval);
+            maxInterval = Math.max(maxInterval, entry.interval);
+        }
+
+        String summary = "Watched threads: " + entries.size() + ", " + running + " polling\n";
+        summary += "Intervals: " + (minInterval / 1000) + "s to " + (maxInterval / 1000) + "s\n";
+        summary += "Polls: " + polls + ", " + rateLimited + " rate limited\n";
+        for (Map.Entry<Integer, SiteState> item : sites.entrySet()) {
+            SiteState site = item.getValue();
+            if (site.pausedUntil > now) {
+                summary += String.format(Locale.ENGLISH, "Site %d paused for %ds\n",
+                        item.getKey(), (site.pausedUntil - now) / 1000);
+            }
+        }
+        return summary;
+    }
+
+    private boolean isDue(Entry entry, long dueBefore, long notPolledSince) {
+        return !entry.running && entry.nextPoll <= dueBefore &&
+                (entry.lastStart == 0 || entry.lastStart < notPolledSince);
+    }
+
+    private void finish(Entry entry) {
+        if (entry.running) {
+            entry.running = false;
+            getSite(entry.siteId).running--;
+        }
+    }
+
+    private long jitter(long interval) {
+        return (long) (interval * (1.0 - JITTER + random.nextDouble() * JITTER * 2));
+    }
+
+    private SiteState getSite(int siteId) {
+        SiteState site = sites.get(siteId);
+        if (site == null) {
+            site = new SiteState();
+            sites.put(siteId, site);
+        }
+        return site;
+    }
+
+    private static class Entry {
+        private final int siteId;
+
+        private long nextPoll;
+        private long interval = FIRST_INTERVAL;
+        private boolean running;
+        private long lastStart;
+        private long lastLoad;
+
+        private int postCount;
+        private int quoteCount;
+        private double rate;
+        private long lastQuote;
+        private boolean archiveSoon;
+
+        private Entry(int siteId) {
+            this.siteId = siteId;
+        }
+
+        private double urgency(long now) {
+            // How late the poll is compared to the interval, so active threads go first.
+            double urgency = (now - nextPoll + interval) / (double) interval;
+            if (lastQuote != 0 && now - lastQuote < QUOTE_ACTIVE_TIME) {
+                urgency *= 4;
+            } else if (archiveSoon) {
+                urgency *= 2;
+            }
+            return urgency;
+        }
+    }
+
+    private static class SiteState {
+        private int running;
+        private long lastStart = Long.MIN_VALUE / 2;
+        private long pause;
+        private long pausedUntil;
+
+        private long nextStart() {
+            return Math.max(lastStart + MIN_SITE_SPACING, pausedUntil);
+        }
+    }
+}
@@ -17,19 +17,150 @@
  */
 package org.floens.chan.core.model;
 
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.MainThread;
+
 import org.floens.chan.core.model.orm.Loadable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ChanThread {
     public Loadable loadable;
+    /**
+     * The posts of the thread, only change them with {@link #setPosts(List)}.
+     */
     public List<Post> posts;
     public Post op;
     public boolean closed = false;
     public boolean archived = false;
+    /**
+     * Search index of the posts, filled by the loader.
+     */
+    public final PostSearchIndex searchIndex;
+
+    // Post no to the position in posts, for the posts that are indexed.
+    private final SparseIntArray positionByNo = new SparseIntArray();
+    private int indexedCount = 0;
 
-    public ChanThread(Loadable loadable, List<Post> posts) {
+    // Posts that are a saved reply, and the posts that quote one of them.
+    private final SparseBooleanArray savedReplies = new SparseBooleanArray();
+    private final SparseBooleanArray quoteNos = new SparseBooleanArray();
+    private final List<Post> savedReplyQuotes = new ArrayList<>();
+
+    public ChanThread(Loadable loadable, List<Post> posts, PostSearchIndex searchIndex) {
         this.loadable = loadable;
         this.posts = posts;
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Replace the posts of the thread. When the new posts start with the current posts, as they do
+     * when a thread is refreshed, only the posts after them are indexed.
+     */
+    @MainThread
+    public void setPosts(List<Post> newPosts) {
+        if (startsWithPosts(newPosts)) {
+            posts.addAll(newPosts.subList(posts.size(), newPosts.size()));
+        } else {
+            positionByNo.clear();
+            indexedCount = 0;
+            savedReplies.clear();
+            quoteNos.clear();
+            savedReplyQuotes.clear();
+
+            posts.clear();
+            posts.addAll(newPosts);
+        }
+
+        index();
+    }
+
+    /**
+     * @return the post with this no, or {@code null} if it isn't in the thread.
+     */
+    @MainThread
+    public Post findPostByNo(int no) {
+        int position = indexOf(no);
+        return position >= 0 ? posts.get(position) : null;
+    }
+
+    /**
+     * @return the position of the post with this no in {@link #posts}, or -1.
+     */
+    @MainThread
+    public int indexOf(int no) {
+        index();
+        return positionByNo.get(no, -1);
+    }
+
+    /**
+     * @return the posts that quote a saved reply, in the order they were found.
+     */
+    @MainThread
+    public List<Post> getSavedReplyQuotes() {
+        index();
+        return Collections.unmodifiableList(savedReplyQuotes);
+    }
+
+    private boolean startsWithPosts(List<Post> newPosts) {
+        if (posts.size() != indexedCount || newPosts.size() < posts.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < posts.size(); i++) {
+            if (newPosts.get(i) != posts.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void index() {
+        if (indexedCount == posts.size()) {
+            return;
+        }
+
+        int start = indexedCount;
+        for (int i = start; i < posts.size(); i++) {
+            Post post = posts.get(i);
+            positionByNo.put(post.no, i);
+            if (post.isSavedReply) {
+                savedReplies.put(post.no, true);
+            }
+        }
+        indexedCount = posts.size();
+
+        for (int i = start; i < posts.size(); i++) {
+            Post post = posts.get(i);
+            for (int replyTo : post.repliesTo) {
+                if (savedReplies.get(replyTo)) {
+                    addSavedReplyQuote(post);
+                    break;
+                }
+            }
+
+            // Replies from posts before this one, should they quote it before it was loaded.
+            if (post.isSavedReply) {
+                synchronized (post.repliesFrom) {
+                    for (int no : post.repliesFrom) {
+                        int position = positionByNo.get(no, -1);
+                        if (position >= 0 && position < start) {
+                            addSavedReplyQuote(posts.get(position));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addSavedReplyQuote(Post post) {
+        if (!quoteNos.get(post.no)) {
+            quoteNos.put(post.no, true);
+            savedReplyQuotes.add(post);
+        }
     }
 }
@@ -105,6 +105,7 @@ public class Post {
     private int uniqueIps;
     private long lastModified;
     private String title = "";
+    private RenderSnapshot renderSnapshot;
 
     private Post(Builder builder) {
         board = builder.board;
@@ -224,6 +225,20 @@ public class Post {
         this.lastModified = lastModified;
     }
 
+    /**
+     * The snapshot of what the post cells show, made by the parser before the post was given to
+     * the main thread. It can be for another theme or other settings, the cell makes a new one
+     * then.
+     */
+    @MainThread
+    public RenderSnapshot getRenderSnapshot() {
+        return renderSnapshot;
+    }
+
+    public void setRenderSnapshot(RenderSnapshot renderSnapshot) {
+        this.renderSnapshot = renderSnapshot;
+    }
+
     @MainThread
     public String getTitle() {
         return title;
@@ -244,6 +259,12 @@ public class Post {
         return images.isEmpty() ? null : images.get(0);
     }
 
+    /**
+     * What the views show of the post, made by the views. The post only keeps it.
+     */
+    public interface RenderSnapshot {
+    }
+
     public static final class Builder {
         public Board board;
         public int id = -1;
@@ -423,6 +444,15 @@ public class Post {
             return this;
         }
 
+        /**
+         * Remove the linkables and reply ids, so that the comment can be parsed again.
+         */
+        public Builder clearLinkables() {
+            linkables.clear();
+            repliesToIds.clear();
+            return this;
+        }
+
         public Post build() {
             if (board == null || id < 0 || opId < 0 || unixTimestampSeconds < 0 || comment == null) {
                 throw new IllegalArgumentException("Post data not complete");
@@ -0,0 +1,237 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.model;
+
+import android.annotation.SuppressLint;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search index of the posts of a thread or catalog, filled by the loader when the posts are
+ * parsed. A search matches the posts that contain every word of the query in the comment,
+ * subject, name or a filename, ignoring case. Words match anywhere, so the start of a word
+ * matches too.
+ * <p>The lowercase text of each post is kept, with an index from every three characters to the
+ * posts that contain them, so that only those posts have to be checked.
+ */
+@WorkerThread
+public class PostSearchIndex {
+    private static final int GRAM = 3;
+    private static final long USED = 1L << 48;
+
+    // Post no to the doc of the post, a post that changed gets a new doc.
+    @SuppressLint("UseSparseArrays")
+    private final Map<Integer, Integer> docByNo = new HashMap<>();
+    private final List<String> docTexts = new ArrayList<>();
+    private int[] docNos = new int[16];
+
+    // Open addressing map of the trigrams to their list of docs.
+    private long[] gramKeys = new long[1024];
+    private int[] gramLists = new int[1024];
+    private int gramCount = 0;
+    private int[][] lists = new int[64][];
+    private int[] listSizes = new int[64];
+
+    public synchronized void clear() {
+        docByNo.clear();
+        docTexts.clear();
+        gramKeys = new long[1024];
+        gramLists = new int[1024];
+        gramCount = 0;
+        lists = new int[64][];
+        listSizes = new int[64];
+    }
+
+    public synchronized void add(List<Post> posts) {
+        for (int i = 0; i < posts.size(); i++) {
+            Post post = posts.get(i);
+
+            int doc = docTexts.size();
+            String text = getSearchText(post);
+            docTexts.add(text);
+            if (doc == docNos.length) {
+                docNos = Arrays.copyOf(docNos, doc * 2);
+            }
+            docNos[doc] = post.no;
+            docByNo.put(post.no, doc);
+
+            for (int j = 0; j + GRAM <= text.length(); j++) {
+                int list = getList(gramKey(text, j), true);
+                int size = listSizes[list];
+                if (size > 0 && lists[list][size - 1] == doc) {
+                    continue;
+                }
+                if (size == lists[list].length) {
+                    lists[list] = Arrays.copyOf(lists[list], size * 2);
+                }
+                lists[list][size] = doc;
+                listSizes[list] = size + 1;
+            }
+        }
+    }
+
+    /**
+     * @return the no's of the posts that match the query.
+     */
+    public SparseBooleanArray search(String query) {
+        List<Integer> nos = searchNos(query);
+        SparseBooleanArray result = new SparseBooleanArray(nos.size());
+        for (int i = 0; i < nos.size(); i++) {
+            result.put(nos.get(i), true);
+        }
+        return result;
+    }
+
+    synchronized List<Integer> searchNos(String query) {
+        String lowerQuery = query.toLowerCase(Locale.ENGLISH);
+        String[] words = lowerQuery.trim().split("\\s+");
+        if (words.length == 1 && words[0].isEmpty()) {
+            words[0] = lowerQuery;
+        }
+
+        // Only check the posts of the least used trigram of the query.
+        int candidates = -1;
+        for (String word : words) {
+            for (int i = 0; i + GRAM <= word.length(); i++) {
+                int list = getList(gramKey(word, i), false);
+                if (list < 0) {
+                    return new ArrayList<>();
+                }
+                if (candidates < 0 || listSizes[list] < listSizes[candidates]) {
+                    candidates = list;
+                }
+            }
+        }
+
+        List<Integer> result = new ArrayList<>();
+        if (candidates >= 0) {
+            for (int i = 0; i < listSizes[candidates]; i++) {
+                addIfMatches(result, lists[candidates][i], words);
+            }
+        } else {
+            for (int doc = 0; doc < docTexts.size(); doc++) {
+                addIfMatches(result, doc, words);
+            }
+        }
+        return result;
+    }
+
+    private void addIfMatches(List<Integer> result, int doc, String[] words) {
+        int no = docNos[doc];
+        // Skip the old docs of posts that were added again.
+        Integer current = docByNo.get(no);
+        if (current == null || current != doc) {
+            return;
+        }
+
+        String text = docTexts.get(doc);
+        for (String word : words) {
+            if (!text.contains(word)) {
+                return;
+            }
+        }
+        result.add(no);
+    }
+
+    /**
+     * @return the lowercase comment, subject, name and filenames of the post, each on a line.
+     */
+    public static String getSearchText(Post post) {
+        // The fields are on their own line, a word of the query never matches across two.
+        StringBuilder text = new StringBuilder();
+        text.append(post.comment).append('\n');
+        if (post.subject != null) {
+            text.append(post.subject).append('\n');
+        }
+        if (post.name != null) {
+            text.append(post.name).append('\n');
+        }
+        for (PostImage image : post.images) {
+            if (image.filename != null) {
+                text.append(image.filename).append('\n');
+            }
+        }
+        return text.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static long gramKey(String text, int start) {
+        return USED | ((long) text.charAt(start) << 32) |
+                ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private int getList(long key, boolean create) {
+        int mask = gramKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (gramKeys[slot] != 0L) {
+            if (gramKeys[slot] == key) {
+                return gramLists[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (!create) {
+            return -1;
+        }
+
+        int list = gramCount++;
+        if (list == lists.length) {
+            lists = Arrays.copyOf(lists, list * 2);
+            listSizes = Arrays.copyOf(listSizes, list * 2);
+        }
+        lists[list] = new int[2];
+        gramKeys[slot] = key;
+        gramLists[slot] = list;
+
+        if (gramCount * 2 > gramKeys.length) {
+            grow();
+        }
+        return list;
+    }
+
+    private void grow() {
+        long[] oldKeys = gramKeys;
+        int[] oldLists = gramLists;
+        gramKeys = new long[oldKeys.length * 2];
+        gramLists = new int[oldKeys.length * 2];
+
+        int mask = gramKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (gramKeys[slot] != 0L) {
+                    slot = (slot + 1) & mask;
+                }
+                gramKeys[slot] = oldKeys[i];
+                gramLists[slot] = oldLists[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
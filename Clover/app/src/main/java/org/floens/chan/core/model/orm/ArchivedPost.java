@@ -0,0 +1,40 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.model.orm;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A post of a thread that was loaded, kept for the local search. The text of the post is in the
+ * full text search table, with the id of this row as the docid.
+ */
+@DatabaseTable(tableName = "archivedpost")
+public class ArchivedPost {
+    @DatabaseField(generatedId = true)
+    public int id;
+
+    @DatabaseField(canBeNull = false, foreign = true, uniqueCombo = true)
+    public Loadable loadable;
+
+    @DatabaseField(uniqueCombo = true)
+    public int no;
+
+    @DatabaseField
+    public long time;
+}
@@ -18,20 +18,37 @@
 package org.floens.chan.core.net;
 
 import android.graphics.Bitmap;
+import android.os.Build;
 import android.util.LruCache;
 
 import com.android.volley.toolbox.ImageLoader.ImageCache;
 
+/**
+ * Memory cache of the image loader, sized in KB. The cache holds a reference to the bitmaps of
+ * the {@link BitmapPool} it contains, an evicted bitmap is reused once no view shows it anymore.
+ */
 public class BitmapLruImageCache extends LruCache<String, Bitmap> implements ImageCache {
-    public BitmapLruImageCache(int maxSize) {
+    private final BitmapPool bitmapPool;
+
+    public BitmapLruImageCache(int maxSize, BitmapPool bitmapPool) {
         super(maxSize);
+        this.bitmapPool = bitmapPool;
     }
 
     @Override
     protected int sizeOf(String key, Bitmap value) {
+        // A reused bitmap can be larger than the image in it.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return value.getAllocationByteCount() / 1024;
+        }
         return value.getRowBytes() * value.getHeight() / 1024;
     }
 
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        bitmapPool.release(oldValue);
+    }
+
     @Override
     public Bitmap getBitmap(String url) {
         return get(url);
@@ -39,6 +56,7 @@ public class BitmapLruImageCache extends LruCache<String, Bitmap> implements Ima
 
     @Override
     public void putBitmap(String url, Bitmap bitmap) {
+        bitmapPool.acquire(bitmap);
         put(url, bitmap);
     }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+
+import androidx.annotation.AnyThread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Bitmaps of thumbnails that are no longer shown or cached, that the {@link ThumbnailRequest}
+ * decodes new thumbnails into instead of allocating a bitmap for each of them.
+ * <p>The bitmaps decoded for the pool are referenced by the memory cache and by the thumbnail
+ * views showing them, a bitmap is free once the last of them released it. Decoding into a
+ * bitmap of another size needs Android 4.4, on older versions the pool stays empty.
+ */
+@AnyThread
+public class BitmapPool {
+    private static final boolean REUSE_SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    // A free bitmap of up to twice the needed size is used.
+    private static final int MAX_WASTE = 2;
+
+    private final long maxSize;
+
+    // Free bitmaps by config and allocation size, and the order they were freed in.
+    private final TreeMap<Long, List<Bitmap>> free = new TreeMap<>();
+    private final LinkedHashSet<Bitmap> freeOrder = new LinkedHashSet<>();
+    private long size;
+
+    // References to the bitmaps of the pool. Weak, a view that never released its bitmap
+    // doesn't keep it alive.
+    private final Map<Bitmap, Integer> references = new WeakHashMap<>();
+
+    private long reused;
+    private long allocated;
+    private long allocatedBytes;
+    private long decodes;
+    private long decodeNanos;
+
+    public BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return a free bitmap to decode an image of this size into, or {@code null}.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        if (REUSE_SUPPORTED) {
+            Map.Entry<Long, List<Bitmap>> entry = free.ceilingEntry(key(config, needed));
+            if (entry != null && entry.getKey() <= key(config, needed * MAX_WASTE)) {
+                List<Bitmap> bitmaps = entry.getValue();
+                Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+                if (bitmaps.isEmpty()) {
+                    free.remove(entry.getKey());
+                }
+                freeOrder.remove(bitmap);
+                size -= bitmap.getAllocationByteCount();
+                reused++;
+                return bitmap;
+            }
+        }
+
+        allocated++;
+        allocatedBytes += needed;
+        return null;
+    }
+
+    /**
+     * Add a bitmap that was decoded for the pool, without references yet.
+     */
+    public synchronized void decoded(Bitmap bitmap, long nanos) {
+        decodes++;
+        decodeNanos += nanos;
+        if (REUSE_SUPPORTED && bitmap.isMutable() && bitmap.getConfig() != null) {
+            references.put(bitmap, 0);
+        }
+    }
+
+    /**
+     * Put back a bitmap that was taken with {@link #get} but not decoded into.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        addFree(bitmap);
+    }
+
+    /**
+     * Reference the bitmap, does nothing for bitmaps that are not of the pool.
+     */
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer count = references.get(bitmap);
+        if (count != null) {
+            references.put(bitmap, count + 1);
+        }
+    }
+
+    /**
+     * Release a reference, the bitmap is free after the last one.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = references.get(bitmap);
+        if (count != null) {
+            if (count > 1) {
+                references.put(bitmap, count - 1);
+            } else {
+                references.remove(bitmap);
+                addFree(bitmap);
+            }
+        }
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (this) {
+            summary.append(String.format(Locale.ENGLISH,
+                    "Decodes: %d, %d ms average\nReused: %d, allocated: %d, %d KB\nFree: %d, %d KB\n",
+                    decodes, decodes == 0 ? 0 : decodeNanos / decodes / 1000000,
+                    reused, allocated, allocatedBytes / 1024, freeOrder.size(), size / 1024));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            summary.append("GC count: ").append(Debug.getRuntimeStat("art.gc.gc-count"))
+                    .append(", time: ").append(Debug.getRuntimeStat("art.gc.gc-time")).append(" ms\n");
+        }
+        return summary.toString();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void addFree(Bitmap bitmap) {
+        if (!REUSE_SUPPORTED || bitmap.isRecycled() || !freeOrder.add(bitmap)) {
+            return;
+        }
+
+        long key = key(bitmap.getConfig(), bitmap.getAllocationByteCount());
+        List<Bitmap> bitmaps = free.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>();
+            free.put(key, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        size += bitmap.getAllocationByteCount();
+
+        // Drop the bitmaps that were freed the longest ago, the collector takes them.
+        Iterator<Bitmap> iterator = freeOrder.iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Bitmap oldest = iterator.next();
+            iterator.remove();
+
+            long oldestKey = key(oldest.getConfig(), oldest.getAllocationByteCount());
+            List<Bitmap> oldestBitmaps = free.get(oldestKey);
+            oldestBitmaps.remove(oldest);
+            if (oldestBitmaps.isEmpty()) {
+                free.remove(oldestKey);
+            }
+            size -= oldest.getAllocationByteCount();
+        }
+    }
+
+    private static long key(Bitmap.Config config, int bytes) {
+        return ((long) config.ordinal() << 32) | (bytes & 0xffffffffL);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import org.floens.chan.core.settings.ChanSettings;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The http client that all requests of the app go through, so that they share connections, DNS
+ * lookups and TLS sessions. Volley requests use it with {@link OkHttpStack}, clients that need
+ * other timeouts derive them once with {@link OkHttpClient#newBuilder()}, which keeps the pool.
+ * <p>HTTP/2 is used when the server supports it, and responses are gzipped by OkHttp. The proxy
+ * setting is read for every new connection, and the pool is emptied when it changes.
+ */
+public class HttpTransport {
+    private static final int TIMEOUT = 30000;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final ConnectionPool connectionPool =
+            new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+    private final Statistics statistics = new Statistics();
+    private final OkHttpClient client;
+
+    public HttpTransport() {
+        client = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .proxySelector(new SettingsProxySelector())
+                .eventListener(statistics)
+                .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+
+        // The pool can have connections that went through the previous proxy.
+        ChanSettings.proxyEnabled.addCallback((setting, value) -> connectionPool.evictAll());
+        ChanSettings.proxyAddress.addCallback((setting, value) -> connectionPool.evictAll());
+        ChanSettings.proxyPort.addCallback((setting, value) -> connectionPool.evictAll());
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public String getSummary() {
+        return statistics.toString() +
+                "Pool: " + connectionPool.connectionCount() + " connections, " +
+                connectionPool.idleConnectionCount() + " idle\n";
+    }
+
+    private static class SettingsProxySelector extends ProxySelector {
+        @Override
+        public List<Proxy> select(URI uri) {
+            Proxy proxy = ChanSettings.getProxy();
+            return Collections.singletonList(proxy == null ? Proxy.NO_PROXY : proxy);
+        }
+
+        @Override
+        public void connectFailed(URI uri, SocketAddress address, IOException e) {
+        }
+    }
+
+    private static class Statistics extends EventListener {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failedCalls = new AtomicInteger();
+        private final AtomicInteger dnsLookups = new AtomicInteger();
+        private final AtomicInteger tlsHandshakes = new AtomicInteger();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger http2Connections = new AtomicInteger();
+        private final AtomicInteger connectionsAcquired = new AtomicInteger();
+
+        @Override
+        public void callStart(Call call) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            failedCalls.incrementAndGet();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsLookups.incrementAndGet();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsHandshakes.incrementAndGet();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                               Protocol protocol) {
+            connections.incrementAndGet();
+            if (protocol == Protocol.HTTP_2) {
+                http2Connections.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            int acquired = connectionsAcquired.get();
+            int opened = connections.get();
+            // Redirects and retries acquire a connection again within the same call.
+            int reused = Math.max(0, acquired - opened);
+            return String.format(Locale.ENGLISH,
+                    "Calls: %d, %d failed\n" +
+                            "Connections: %d opened, %d HTTP/2, %d reused (%.0f%%)\n" +
+                            "DNS lookups: %d, TLS handshakes: %d\n",
+                    calls.get(), failedCalls.get(),
+                    opened, http2Connections.get(), reused,
+                    acquired == 0 ? 0f : reused * 100f / acquired,
+                    dnsLookups.get(), tlsHandshakes.get());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Runs Volley requests on the shared {@link HttpTransport} client instead of HttpURLConnection.
+ */
+public class OkHttpStack extends BaseHttpStack {
+    private final OkHttpClient client;
+    private final String userAgent;
+
+    // Clients with the timeout of the retry policy of the request, all sharing the pool.
+    private final Map<Integer, OkHttpClient> clientsByTimeout = new ConcurrentHashMap<>();
+
+    public OkHttpStack(OkHttpClient client, String userAgent) {
+        this.client = client;
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(request.getUrl())
+                .header("User-Agent", userAgent);
+
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        setMethod(builder, request);
+
+        Response response = getClient(request.getTimeoutMs()).newCall(builder.build()).execute();
+
+        List<Header> headers = new ArrayList<>();
+        Headers responseHeaders = response.headers();
+        for (int i = 0; i < responseHeaders.size(); i++) {
+            headers.add(new Header(responseHeaders.name(i), responseHeaders.value(i)));
+        }
+
+        int code = response.code();
+        ResponseBody body = response.body();
+        if (body == null || !hasResponseBody(request.getMethod(), code)) {
+            // Volley doesn't read it, release the connection now.
+            if (body != null) {
+                body.close();
+            }
+            return new HttpResponse(code, headers);
+        }
+
+        return new HttpResponse(code, headers, (int) body.contentLength(), body.byteStream());
+    }
+
+    private OkHttpClient getClient(int timeoutMs) {
+        OkHttpClient timeoutClient = clientsByTimeout.get(timeoutMs);
+        if (timeoutClient == null) {
+            timeoutClient = client.newBuilder()
+                    .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .build();
+            clientsByTimeout.put(timeoutMs, timeoutClient);
+        }
+        return timeoutClient;
+    }
+
+    private static void setMethod(okhttp3.Request.Builder builder, Request<?> request)
+            throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                byte[] postBody = request.getBody();
+                if (postBody != null) {
+                    builder.post(createBody(request, postBody));
+                }
+                break;
+            case Request.Method.GET:
+                builder.get();
+                break;
+            case Request.Method.DELETE:
+                builder.delete(createBody(request, request.getBody()));
+                break;
+            case Request.Method.POST:
+                builder.post(createBody(request, request.getBody()));
+                break;
+            case Request.Method.PUT:
+                builder.put(createBody(request, request.getBody()));
+                break;
+            case Request.Method.HEAD:
+                builder.head();
+                break;
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Request.Method.PATCH:
+                builder.patch(createBody(request, request.getBody()));
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    private static RequestBody createBody(Request<?> request, byte[] body) {
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()),
+                body == null ? new byte[0] : body);
+    }
+
+    private static boolean hasResponseBody(int method, int code) {
+        // Same as HurlStack.
+        return method != Request.Method.HEAD &&
+                !(100 <= code && code < 200) &&
+                code != 204 &&
+                code != 304;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Image loader that decodes the thumbnails of the thumbnail views with a
+ * {@link ThumbnailRequest}, into bitmaps of the {@link BitmapPool}. Thumbnail views request
+ * {@link ScaleType#CENTER_CROP}, other requests are decoded by Volley as before.
+ */
+public class PooledImageLoader extends ImageLoader {
+    private final BitmapPool bitmapPool;
+
+    public PooledImageLoader(RequestQueue queue, BitmapLruImageCache imageCache, BitmapPool bitmapPool) {
+        super(queue, imageCache);
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Override
+    protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
+                                               ScaleType scaleType, String cacheKey) {
+        if (scaleType != ScaleType.CENTER_CROP) {
+            return super.makeImageRequest(requestUrl, maxWidth, maxHeight, scaleType, cacheKey);
+        }
+
+        return new ThumbnailRequest(requestUrl, bitmapPool, maxWidth, maxHeight,
+                response -> onGetImageSuccess(cacheKey, response),
+                error -> onGetImageError(cacheKey, error));
+    }
+}
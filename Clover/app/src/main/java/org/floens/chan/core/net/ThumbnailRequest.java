@@ -0,0 +1,175 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.floens.chan.utils.Logger;
+
+/**
+ * Request for a thumbnail, decoded on the Volley threads at the size it is shown at, into a
+ * bitmap of the {@link BitmapPool} when there is one free. The thumbnail is scaled down to fill
+ * the size, keeping the aspect ratio. A size of 0 decodes it as is.
+ * <p>Requests of recycled views are cancelled, and a cancelled request isn't decoded.
+ */
+public class ThumbnailRequest extends Request<Bitmap> {
+    private static final String TAG = "ThumbnailRequest";
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    // Same as the Volley ImageRequest.
+    private static final int TIMEOUT = 1000;
+    private static final int MAX_RETRIES = 2;
+    private static final float BACKOFF_MULTIPLIER = 2f;
+
+    private final Object lock = new Object();
+    private Response.Listener<Bitmap> listener;
+
+    private final BitmapPool bitmapPool;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    public ThumbnailRequest(String url, BitmapPool bitmapPool, int maxWidth, int maxHeight,
+                            Response.Listener<Bitmap> listener,
+                            Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        this.bitmapPool = bitmapPool;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.listener = listener;
+
+        setRetryPolicy(new DefaultRetryPolicy(TIMEOUT, MAX_RETRIES, BACKOFF_MULTIPLIER));
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        synchronized (lock) {
+            listener = null;
+        }
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        if (isCanceled()) {
+            return Response.error(new ParseError(new Exception("Cancelled before decoding")));
+        }
+
+        long start = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            bitmap = decode(response.data);
+        } catch (OutOfMemoryError e) {
+            Logger.e(TAG, "Out of memory decoding " + getUrl());
+            return Response.error(new ParseError(e));
+        }
+
+        if (bitmap == null) {
+            return Response.error(new ParseError(response));
+        }
+
+        bitmapPool.decoded(bitmap, System.nanoTime() - start);
+        return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+    }
+
+    @Override
+    protected void deliverResponse(Bitmap response) {
+        Response.Listener<Bitmap> listener;
+        synchronized (lock) {
+            listener = this.listener;
+        }
+        if (listener != null) {
+            listener.onResponse(response);
+        }
+    }
+
+    private Bitmap decode(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int actualWidth = options.outWidth;
+        int actualHeight = options.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return null;
+        }
+
+        // Fill the size, never scale up.
+        float scale = 1f;
+        if (maxWidth > 0 && maxHeight > 0) {
+            scale = Math.min(1f, Math.max(
+                    (float) maxWidth / actualWidth, (float) maxHeight / actualHeight));
+        }
+        int width = Math.max(1, Math.round(actualWidth * scale));
+        int scaledHeight = Math.max(1, Math.round(actualHeight * scale));
+
+        // Subsample by powers of two, then scale the rest of the way while decoding so that no
+        // second bitmap is needed.
+        int sampleSize = 1;
+        while (actualWidth / (sampleSize * 2) >= width &&
+                actualHeight / (sampleSize * 2) >= scaledHeight) {
+            sampleSize *= 2;
+        }
+        int sampledWidth = actualWidth / sampleSize;
+        int height = Math.max(1, Math.round((float) actualHeight / sampleSize * width / sampledWidth));
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = CONFIG;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        if (sampledWidth != width) {
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = width;
+        }
+
+        Bitmap reuse = bitmapPool.get(width, height, CONFIG);
+        options.inBitmap = reuse;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The decoded size was not the estimated one, decode into a new bitmap.
+            bitmap = null;
+        }
+
+        if (reuse != null && bitmap == null) {
+            bitmapPool.put(reuse);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        if (bitmap != null) {
+            // The density is the scale, set it back to what a plain decode gives.
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+}
@@ -21,6 +21,7 @@ import android.net.ConnectivityManager;
 
 import androidx.viewpager.widget.ViewPager;
 
+import org.floens.chan.core.cache.DownloadPriority;
 import org.floens.chan.core.cache.FileCache;
 import org.floens.chan.core.cache.FileCacheDownloader;
 import org.floens.chan.core.cache.FileCacheListener;
@@ -208,6 +209,8 @@ public class ImageViewerPresenter implements MultiImageView.Callback, ViewPager.
         setTitle(postImage, position);
         callback.scrollToImage(postImage);
 
+        deprioritizePreloads(position);
+
         for (PostImage other : getOther(position)) {
             callback.setImageMode(other, MultiImageView.Mode.LOWRES, false);
         }
@@ -271,7 +274,8 @@ public class ImageViewerPresenter implements MultiImageView.Callback, ViewPager.
                                     preloadingImages.remove(preloadDownload[0]);
                                 }
                             }
-                        }
+                        },
+                        DownloadPriority.PRELOAD
                 );
 
                 if (preloadDownload[0] != null) {
@@ -281,6 +285,19 @@ public class ImageViewerPresenter implements MultiImageView.Callback, ViewPager.
         }
     }
 
+    // Let the preloads of images that the user swiped past wait for the other downloads.
+    private void deprioritizePreloads(int position) {
+        for (FileCacheDownloader preloadingImage : preloadingImages) {
+            String url = preloadingImage.getUrl();
+            boolean current = images.get(position).imageUrl.toString().equals(url);
+            boolean next = position + 1 < images.size() &&
+                    images.get(position + 1).imageUrl.toString().equals(url);
+            if (!current && !next) {
+                fileCache.deprioritize(preloadingImage);
+            }
+        }
+    }
+
     private void cancelPreloadingImages() {
         for (FileCacheDownloader preloadingImage : preloadingImages) {
             preloadingImage.cancel();
@@ -226,8 +226,8 @@ public class ReplyPresenter implements AuthenticationLayoutCallback, ImagePickDe
 
             SavedReply savedReply = SavedReply.fromSiteBoardNoPassword(
                     loadable.site, loadable.board, replyResponse.postNo, replyResponse.password);
-            databaseManager.runTaskAsync(databaseManager.getDatabaseSavedReplyManager()
-                    .saveReply(savedReply));
+            databaseManager.runTaskWriteBehind(savedReply,
+                    databaseManager.getDatabaseSavedReplyManager().saveReply(savedReply));
 
             switchPage(Page.INPUT, false);
             closeAll();
@@ -18,6 +18,7 @@
 package org.floens.chan.core.presenter;
 
 import android.text.TextUtils;
+import android.util.SparseBooleanArray;
 
 import org.floens.chan.Chan;
 import org.floens.chan.R;
@@ -51,10 +52,13 @@ import org.floens.chan.ui.layout.ThreadListLayout;
 import org.floens.chan.ui.view.FloatingMenuItem;
 import org.floens.chan.ui.view.ThumbnailView;
 import org.floens.chan.utils.AndroidUtils;
+import org.floens.chan.utils.BackgroundUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -83,6 +87,10 @@ public class ThreadPresenter implements
     private static final int POST_OPTION_FILTER_TRIPCODE = 14;
     private static final int POST_OPTION_EXTRA = 15;
 
+    // Wait for the user to stop typing before searching.
+    private static final long SEARCH_DELAY = 150;
+    private static final Executor SEARCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private ThreadPresenterCallback threadPresenterCallback;
     private WatchManager watchManager;
     private DatabaseManager databaseManager;
@@ -92,6 +100,10 @@ public class ThreadPresenter implements
     private ChanThreadLoader chanLoader;
     private boolean searchOpen = false;
     private String searchQuery;
+    // Result of the last search that finished, shown until the next one finishes.
+    private SparseBooleanArray searchMatches;
+    private BackgroundUtils.Cancelable searchCall;
+    private final Runnable searchRunnable = this::search;
     private PostsFilter.Order order = PostsFilter.Order.BUMP;
     private boolean historyAdded = false;
 
@@ -141,6 +153,10 @@ public class ThreadPresenter implements
             chanLoader = null;
             loadable = null;
             historyAdded = false;
+            cancelSearch();
+            searchMatches = null;
+            // The list position of the thread.
+            databaseManager.getDatabaseLoadableManager().flushWriteBehind();
 
             threadPresenterCallback.showNewPostsNotification(false, -1);
             threadPresenterCallback.showLoading();
@@ -210,10 +226,11 @@ public class ThreadPresenter implements
     public void onSearchEntered(String entered) {
         if (chanLoader.getThread() != null) {
             searchQuery = entered;
-            showPosts();
             if (TextUtils.isEmpty(entered)) {
+                showPosts();
                 threadPresenterCallback.setSearchStatus(null, true, false);
             } else {
+                startSearch(SEARCH_DELAY);
                 threadPresenterCallback.setSearchStatus(entered, false, false);
             }
         }
@@ -279,12 +296,9 @@ public class ThreadPresenter implements
             List<Post> posts = result.posts;
             int more = 0;
             if (lastLoaded > 0) {
-                for (int i = 0; i < posts.size(); i++) {
-                    Post post = posts.get(i);
-                    if (post.no == lastLoaded) {
-                        more = posts.size() - i - 1;
-                        break;
-                    }
+                int position = result.indexOf(lastLoaded);
+                if (position >= 0) {
+                    more = posts.size() - position - 1;
                 }
             }
             loadable.setLastLoaded(posts.get(posts.size() - 1).no);
@@ -547,7 +561,8 @@ public class ThreadPresenter implements
             case POST_OPTION_SAVE:
                 SavedReply savedReply = SavedReply.fromSiteBoardNoPassword(
                         post.board.site, post.board, post.no, "");
-                databaseManager.runTaskAsync(databaseManager.getDatabaseSavedReplyManager().saveReply(savedReply));
+                databaseManager.runTaskWriteBehind(savedReply,
+                        databaseManager.getDatabaseSavedReplyManager().saveReply(savedReply));
                 break;
             case POST_OPTION_PIN:
                 Loadable pinLoadable = databaseManager.getDatabaseLoadableManager().get(Loadable.forThread(loadable.site, post.board, post.no));
@@ -741,18 +756,59 @@ public class ThreadPresenter implements
 
     private Post findPostById(int id) {
         ChanThread thread = chanLoader.getThread();
-        if (thread != null) {
-            for (Post post : thread.posts) {
-                if (post.no == id) {
-                    return post;
-                }
+        return thread == null ? null : thread.findPostByNo(id);
+    }
+
+    private void showPosts() {
+        if (TextUtils.isEmpty(searchQuery)) {
+            cancelSearch();
+            searchMatches = null;
+        } else {
+            // Search again for the new posts, they are shown when the search is done.
+            startSearch(0);
+            if (searchMatches == null) {
+                return;
             }
         }
-        return null;
+
+        displayPosts();
     }
 
-    private void showPosts() {
-        threadPresenterCallback.showPosts(chanLoader.getThread(), new PostsFilter(order, searchQuery));
+    private void displayPosts() {
+        threadPresenterCallback.showPosts(chanLoader.getThread(), new PostsFilter(order, searchMatches));
+    }
+
+    private void startSearch(long delay) {
+        cancelSearch();
+        if (delay > 0) {
+            AndroidUtils.runOnUiThread(searchRunnable, delay);
+        } else {
+            search();
+        }
+    }
+
+    private void search() {
+        final ChanThread thread = chanLoader.getThread();
+        final String query = searchQuery;
+        if (thread == null || TextUtils.isEmpty(query)) {
+            return;
+        }
+
+        searchCall = BackgroundUtils.runWithExecutor(SEARCH_EXECUTOR,
+                () -> thread.searchIndex.search(query),
+                result -> {
+                    searchCall = null;
+                    searchMatches = result;
+                    displayPosts();
+                });
+    }
+
+    private void cancelSearch() {
+        AndroidUtils.removeUiThreadCallbacks(searchRunnable);
+        if (searchCall != null) {
+            searchCall.cancel();
+            searchCall = null;
+        }
     }
 
     private void addHistory() {
@@ -762,7 +818,8 @@ public class ThreadPresenter implements
             history.loadable = loadable;
             PostImage image = chanLoader.getThread().op.image();
             history.thumbnailUrl = image == null ? "" : image.getThumbnailUrl().toString();
-            databaseManager.runTaskAsync(databaseManager.getDatabaseHistoryManager().addHistory(history));
+            databaseManager.runTaskWriteBehind(history,
+                    databaseManager.getDatabaseHistoryManager().addHistory(history));
         }
     }
 
@@ -18,6 +18,7 @@
 package org.floens.chan.core.repository;
 
 import android.util.Pair;
+import android.util.SparseArray;
 
 import org.floens.chan.core.database.DatabaseBoardManager;
 import org.floens.chan.core.database.DatabaseManager;
@@ -122,13 +123,13 @@ public class BoardRepository implements Observer {
 
     public void updateBoardOrders(List<Board> boards) {
         databaseManager.runTaskAsync(databaseBoardManager.updateOrders(boards),
-                (e) -> updateObservablesAsync());
+                (e) -> updateObservablesAsync(true));
     }
 
     public void setSaved(Board board, boolean saved) {
         board.saved = saved;
         databaseManager.runTaskAsync(databaseBoardManager.updateIncludingUserFields(board),
-                (e) -> updateObservablesAsync());
+                (e) -> updateObservablesAsync(true));
     }
 
     public void setAllSaved(List<Board> boards, boolean saved) {
@@ -136,50 +137,119 @@ public class BoardRepository implements Observer {
             board.saved = saved;
         }
         databaseManager.runTaskAsync(databaseBoardManager.updateIncludingUserFields(boards),
-                (e) -> updateObservablesAsync());
+                (e) -> updateObservablesAsync(true));
     }
 
     private void updateObservablesSync() {
         long start = Time.startTiming();
         updateWith(databaseManager.runTask(
-                databaseBoardManager.getBoardsForAllSitesOrdered(allSites.getAll())));
+                databaseBoardManager.getBoardsForAllSitesOrdered(allSites.getAll())), false);
         Time.endTiming("BoardRepository.updateObservablesSync", start);
     }
 
     private void updateObservablesAsync() {
+        updateObservablesAsync(false);
+    }
+
+    /**
+     * @param userFieldsChanged the user fields were changed on the boards of the observables,
+     *                          the diff can't see that so the observers are always notified.
+     */
+    private void updateObservablesAsync(boolean userFieldsChanged) {
         databaseManager.runTaskAsync(
                 databaseBoardManager.getBoardsForAllSitesOrdered(allSites.getAll()),
-                this::updateWith);
+                databaseData -> updateWith(databaseData, userFieldsChanged));
     }
 
-    private void updateWith(List<Pair<Site, List<Board>>> databaseData) {
+    /**
+     * Update the observables with the boards from the database. The boards and lists of a site
+     * that did not change are kept, and an observable is only notified when one of its sites
+     * changed or when {@code userFieldsChanged}.
+     */
+    private void updateWith(List<Pair<Site, List<Board>>> databaseData, boolean userFieldsChanged) {
         List<SiteBoards> all = new ArrayList<>();
         List<SiteBoards> saved = new ArrayList<>();
         for (Pair<Site, List<Board>> item : databaseData) {
-            all.add(new SiteBoards(item.first, item.second));
+            SiteBoards previousAll = allBoards.getSiteBoards(item.first);
+            SiteBoards siteAll = diff(previousAll, item.first, item.second);
+            all.add(siteAll);
 
             List<Board> savedBoards = new ArrayList<>();
-            for (Board board : item.second) {
+            for (Board board : siteAll.boards) {
                 if (board.saved) savedBoards.add(board);
             }
-            saved.add(new SiteBoards(item.first, savedBoards));
+            SiteBoards previousSaved = this.savedBoards.getSiteBoards(item.first);
+            saved.add(diff(previousSaved, item.first, savedBoards));
         }
 
         allBoards.set(all);
         savedBoards.set(saved);
+        if (userFieldsChanged) {
+            allBoards.markChanged();
+            savedBoards.markChanged();
+        }
 
         allBoards.notifyObservers();
         savedBoards.notifyObservers();
     }
 
+    /**
+     * @return the previous boards of the site if they are the same as the new ones, otherwise
+     * the new boards, with the previous instances of the boards that did not change.
+     */
+    private SiteBoards diff(SiteBoards previous, Site site, List<Board> boards) {
+        if (previous == null) {
+            return new SiteBoards(site, boards);
+        }
+
+        SparseArray<Board> previousById = new SparseArray<>(previous.boards.size());
+        for (int i = 0; i < previous.boards.size(); i++) {
+            Board board = previous.boards.get(i);
+            previousById.put(board.id, board);
+        }
+
+        boolean changed = previous.boards.size() != boards.size();
+        List<Board> result = new ArrayList<>(boards.size());
+        for (int i = 0; i < boards.size(); i++) {
+            Board board = boards.get(i);
+            Board previousBoard = previousById.get(board.id);
+            if (previousBoard != null && previousBoard.saved == board.saved &&
+                    previousBoard.order == board.order && previousBoard.propertiesEqual(board)) {
+                board = previousBoard;
+            }
+            if (!changed && board != previous.boards.get(i)) {
+                changed = true;
+            }
+            result.add(board);
+        }
+
+        return changed ? new SiteBoards(site, result) : previous;
+    }
+
     public class SitesBoards extends Observable {
         private List<SiteBoards> siteBoards = new ArrayList<>();
 
         public void set(List<SiteBoards> siteBoards) {
-            this.siteBoards = siteBoards;
+            if (!siteBoards.equals(this.siteBoards)) {
+                this.siteBoards = siteBoards;
+                setChanged();
+            }
+        }
+
+        private void markChanged() {
             setChanged();
         }
 
+        private SiteBoards getSiteBoards(Site site) {
+            for (int i = 0; i < siteBoards.size(); i++) {
+                SiteBoards item = siteBoards.get(i);
+                if (item.site.id() == site.id()) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
         public List<SiteBoards> get() {
             return siteBoards;
         }
@@ -14,6 +14,7 @@ import org.floens.chan.utils.Logger;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
@@ -29,6 +30,10 @@ public class SiteRepository {
 
     private Sites sitesObservable = new Sites();
 
+    // The models of the sites, so that reading them doesn't wait for the database thread.
+    // Read from several threads, synchronize on it while using it.
+    private final SparseArray<SiteModel> modelsById = new SparseArray<>();
+
     // Shortcut
     private static SiteRepository instance;
 
@@ -47,13 +52,19 @@ public class SiteRepository {
     }
 
     public SiteModel byId(int id) {
-        return databaseManager.runTask(databaseManager.getDatabaseSiteManager()
-                .byId(id));
+        synchronized (modelsById) {
+            return modelsById.get(id);
+        }
     }
 
     public void setId(SiteModel siteModel, int id) {
+        int oldId = siteModel.id;
         databaseManager.runTask(databaseManager.getDatabaseSiteManager()
                 .updateId(siteModel, id));
+        synchronized (modelsById) {
+            modelsById.remove(oldId);
+            modelsById.put(id, siteModel);
+        }
     }
 
     public void updateSiteUserSettingsAsync(SiteModel siteModel, JsonSettings jsonSettings) {
@@ -63,13 +74,22 @@ public class SiteRepository {
     }
 
     public Map<Integer, Integer> getOrdering() {
-        return databaseManager.runTask(databaseManager.getDatabaseSiteManager().getOrdering());
+        Map<Integer, Integer> ordering = new HashMap<>();
+        synchronized (modelsById) {
+            for (int i = 0; i < modelsById.size(); i++) {
+                ordering.put(modelsById.keyAt(i), modelsById.valueAt(i).order);
+            }
+        }
+        return ordering;
     }
 
     public void updateSiteOrderingAsync(List<Site> sites) {
         List<Integer> ids = new ArrayList<>(sites.size());
-        for (Site site : sites) {
-            ids.add(site.id());
+        synchronized (modelsById) {
+            for (Site site : sites) {
+                ids.add(site.id());
+                modelsById.get(site.id()).order = ids.size() - 1;
+            }
         }
 
         databaseManager.runTaskAsync(
@@ -85,6 +105,11 @@ public class SiteRepository {
 
         List<SiteModel> models = databaseManager.runTask(
                 databaseManager.getDatabaseSiteManager().getAll());
+        synchronized (modelsById) {
+            for (SiteModel siteModel : models) {
+                modelsById.put(siteModel.id, siteModel);
+            }
+        }
 
         for (SiteModel siteModel : models) {
             SiteConfigSettingsHolder holder;
@@ -153,6 +178,9 @@ public class SiteRepository {
         siteModel.storeConfig(config);
         siteModel.storeUserSettings(userSettings);
         databaseManager.runTask(databaseManager.getDatabaseSiteManager().add(siteModel));
+        synchronized (modelsById) {
+            modelsById.put(siteModel.id, siteModel);
+        }
 
         return siteModel;
     }
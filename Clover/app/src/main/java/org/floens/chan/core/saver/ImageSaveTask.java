@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 
+import org.floens.chan.core.cache.DownloadPriority;
 import org.floens.chan.core.cache.FileCache;
 import org.floens.chan.core.cache.FileCacheDownloader;
 import org.floens.chan.core.cache.FileCacheListener;
@@ -123,7 +124,8 @@ public class ImageSaveTask extends FileCacheListener implements Runnable {
                 postFinished(success);
             } else {
                 FileCacheDownloader fileCacheDownloader =
-                        fileCache.downloadFile(postImage.imageUrl.toString(), this);
+                        fileCache.downloadFile(postImage.imageUrl.toString(), this,
+                                DownloadPriority.BACKGROUND);
 
                 // If the fileCacheDownloader is null then the destination already existed and onSuccess() has been called.
                 // Wait otherwise for the download to finish to avoid that the next task is immediately executed.
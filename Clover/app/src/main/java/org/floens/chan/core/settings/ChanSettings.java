@@ -103,6 +103,7 @@ public class ChanSettings {
     public static final BooleanSetting videoUseExoplayer;
     public static final BooleanSetting textOnly;
     public static final BooleanSetting videoErrorIgnore;
+    public static final IntegerSetting thumbnailCacheSize;
     public static final OptionsSetting<PostViewMode> boardViewMode;
     public static final IntegerSetting boardGridSpanCount;
     public static final StringSetting boardOrder;
@@ -111,6 +112,7 @@ public class ChanSettings {
     public static final BooleanSetting postPinThread;
 
     public static final BooleanSetting developer;
+    public static final BooleanSetting streamingLoader;
 
     public static final StringSetting saveLocation;
     public static final StringSetting saveLocationTreeUri;
@@ -185,6 +187,7 @@ public class ChanSettings {
         videoUseExoplayer = new BooleanSetting(p, "preference_video_exoplayer", true);
         textOnly = new BooleanSetting(p, "preference_text_only", false);
         videoErrorIgnore = new BooleanSetting(p, "preference_video_error_ignore", false);
+        thumbnailCacheSize = new IntegerSetting(p, "preference_thumbnail_cache_size", 100);
         boardViewMode = new OptionsSetting<>(p, "preference_board_view_mode", PostViewMode.class, PostViewMode.LIST);
         boardGridSpanCount = new IntegerSetting(p, "preference_board_grid_span_count", 0);
         boardOrder = new StringSetting(p, "preference_board_order", PostsFilter.Order.BUMP.name);
@@ -193,6 +196,7 @@ public class ChanSettings {
         postPinThread = new BooleanSetting(p, "preference_pin_on_post", false);
 
         developer = new BooleanSetting(p, "preference_developer", false);
+        streamingLoader = new BooleanSetting(p, "preference_streaming_loader", true);
 
         saveLocation = new StringSetting(p, "preference_image_save_location", "");
         saveLocationTreeUri = new StringSetting(p, "preference_image_save_tree_uri", "");
@@ -35,6 +35,26 @@ public interface SiteEndpoints {
 
     HttpUrl thread(Board board, Loadable loadable);
 
+    /**
+     * Url of a thread endpoint that only returns the op and the last posts of the thread, used for
+     * refreshing threads that are already loaded.
+     *
+     * @return the url, or {@code null} if the site has no such endpoint.
+     */
+    default HttpUrl threadTail(Board board, Loadable loadable) {
+        return null;
+    }
+
+    /**
+     * Url of a small list of all the threads of the board with the time they were last modified,
+     * used to check which watched threads changed without loading them.
+     *
+     * @return the url, or {@code null} if the site has no such endpoint.
+     */
+    default HttpUrl threadIndex(Board board) {
+        return null;
+    }
+
     HttpUrl imageUrl(Post.Builder post, Map<String, String> arg);
 
     HttpUrl thumbnailUrl(Post.Builder post, boolean spoiler, Map<String, String> arg);
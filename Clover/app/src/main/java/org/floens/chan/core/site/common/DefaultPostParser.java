@@ -29,6 +29,7 @@ import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.parser.CommentParser;
 import org.floens.chan.core.site.parser.CommentParserHelper;
 import org.floens.chan.core.site.parser.PostParser;
+import org.floens.chan.ui.cell.PostRenderSnapshot;
 import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
 import org.floens.chan.ui.span.ForegroundColorSpanHashed;
 import org.floens.chan.ui.theme.Theme;
@@ -78,7 +79,11 @@ public class DefaultPostParser implements PostParser {
             builder.comment = "";
         }
 
-        return builder.build();
+        Post post = builder.build();
+        // Binding the post only uses what is made here, on the loader thread.
+        post.setRenderSnapshot(PostRenderSnapshot.create(theme, post,
+                sp(Integer.parseInt(ChanSettings.fontSize.get()) - 4)));
+        return post;
     }
 
     /**
@@ -121,6 +121,12 @@ public class FutabaChanReader implements ChanReader {
             switch (key) {
                 case "no":
                     builder.id(reader.nextInt());
+                    Post known = queue.getSkippableCachedPost(builder.id);
+                    if (known != null) {
+                        // Known post, the rest of the object does not need to be read.
+                        queue.skipPostObject(reader, known);
+                        return;
+                    }
                     break;
                 /*case "now":
                     post.date = reader.nextString();
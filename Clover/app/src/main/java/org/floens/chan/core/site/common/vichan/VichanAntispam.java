@@ -36,6 +36,8 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
+import static org.floens.chan.Chan.injector;
+
 /**
  * Vichan applies garbage looking fields to the post form, to combat bots.
  * Load up the normal html, parse the form, and get these fields for our post.
@@ -46,7 +48,7 @@ public class VichanAntispam {
     private static final String TAG = "Antispam";
     private HttpUrl url;
 
-    private OkHttpClient okHttpClient = new OkHttpClient();
+    private OkHttpClient okHttpClient = injector().instance(OkHttpClient.class);
 
     private List<String> fieldsToIgnore = new ArrayList<>();
 
@@ -102,6 +102,12 @@ public class VichanApi extends CommonSite.CommonApi {
             switch (key) {
                 case "no":
                     builder.id(reader.nextInt());
+                    Post known = queue.getSkippableCachedPost(builder.id);
+                    if (known != null) {
+                        // Known post, the rest of the object does not need to be read.
+                        queue.skipPostObject(reader, known);
+                        return;
+                    }
                     break;
                 case "sub":
                     builder.subject(reader.nextString());
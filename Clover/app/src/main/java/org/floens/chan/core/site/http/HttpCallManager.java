@@ -22,8 +22,6 @@ import org.floens.chan.core.di.UserAgentProvider;
 import org.floens.chan.core.site.Site;
 import org.floens.chan.core.site.SiteRequestModifier;
 
-import java.util.concurrent.TimeUnit;
-
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -35,19 +33,13 @@ import okhttp3.Request;
  */
 @Singleton
 public class HttpCallManager {
-    private static final int TIMEOUT = 30000;
-
     private UserAgentProvider userAgentProvider;
     private OkHttpClient client;
 
     @Inject
-    public HttpCallManager(UserAgentProvider userAgentProvider) {
+    public HttpCallManager(UserAgentProvider userAgentProvider, OkHttpClient client) {
         this.userAgentProvider = userAgentProvider;
-        client = new OkHttpClient.Builder()
-                .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
-                .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
-                .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
-                .build();
+        this.client = client;
     }
 
     public void makeHttpCall(HttpCall httpCall, HttpCall.HttpCallback<? extends HttpCall> callback) {
@@ -20,14 +20,36 @@ package org.floens.chan.core.site.loader;
 
 import com.android.volley.Request;
 
+import org.floens.chan.core.site.parser.ChanReaderStreamRequest;
+
+/**
+ * A running request of a {@link ChanThreadLoader}, either a Volley request or a streaming request.
+ */
 public class ChanLoaderRequest {
     private Request<ChanLoaderResponse> volleyRequest;
+    private ChanReaderStreamRequest streamRequest;
 
     public ChanLoaderRequest(Request<ChanLoaderResponse> volleyRequest) {
         this.volleyRequest = volleyRequest;
     }
 
+    public ChanLoaderRequest(ChanReaderStreamRequest streamRequest) {
+        this.streamRequest = streamRequest;
+    }
+
+    /**
+     * The Volley request, or {@code null} if this is a streaming request.
+     */
     public Request<ChanLoaderResponse> getVolleyRequest() {
         return volleyRequest;
     }
+
+    public void cancel() {
+        if (volleyRequest != null) {
+            volleyRequest.cancel();
+        }
+        if (streamRequest != null) {
+            streamRequest.cancel();
+        }
+    }
 }
@@ -21,8 +21,10 @@ package org.floens.chan.core.site.loader;
 import com.android.volley.Response;
 
 import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostSearchIndex;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.site.parser.ChanReader;
+import org.floens.chan.core.site.parser.ReplyIndex;
 
 import java.util.List;
 
@@ -42,6 +44,26 @@ public class ChanLoaderRequestParams {
      */
     public final List<Post> cached;
 
+    /**
+     * Replies of the cached posts, the new posts are added to it.
+     */
+    public final ReplyIndex replyIndex;
+
+    /**
+     * Search index of the cached posts, the new posts are added to it.
+     */
+    public final PostSearchIndex searchIndex;
+
+    /**
+     * Only request the tail of the thread, merged with the cached posts.
+     */
+    public final boolean tail;
+
+    /**
+     * Validators of the previous response to send with the request, or {@code null}.
+     */
+    public final ChanLoaderValidators validators;
+
     /**
      * Success listener.
      */
@@ -55,12 +77,20 @@ public class ChanLoaderRequestParams {
     public ChanLoaderRequestParams(Loadable loadable,
                                    ChanReader chanReader,
                                    List<Post> cached,
+                                   ReplyIndex replyIndex,
+                                   PostSearchIndex searchIndex,
+                                   boolean tail,
+                                   ChanLoaderValidators validators,
                                    Response.Listener<ChanLoaderResponse> listener,
                                    Response.ErrorListener errorListener) {
 
         this.loadable = loadable;
         this.chanReader = chanReader;
         this.cached = cached;
+        this.replyIndex = replyIndex;
+        this.searchIndex = searchIndex;
+        this.tail = tail;
+        this.validators = validators;
         this.listener = listener;
         this.errorListener = errorListener;
     }
@@ -19,6 +19,7 @@ package org.floens.chan.core.site.loader;
 
 import org.floens.chan.core.model.Post;
 
+import java.util.Collections;
 import java.util.List;
 
 public class ChanLoaderResponse {
@@ -27,8 +28,37 @@ public class ChanLoaderResponse {
     public final Post.Builder op;
     public final List<Post> posts;
 
+    // Set when a tail request did not overlap with the cached posts, a full load is needed.
+    public final boolean needsFullLoad;
+
+    // Set when the server answered with a 304, the loaded thread is still up to date.
+    public final boolean notModified;
+
+    // Validators of this response, to send with the next request. May be null.
+    public final ChanLoaderValidators validators;
+
     public ChanLoaderResponse(Post.Builder op, List<Post> posts) {
+        this(op, posts, null);
+    }
+
+    public ChanLoaderResponse(Post.Builder op, List<Post> posts, ChanLoaderValidators validators) {
+        this(op, posts, validators, false, false);
+    }
+
+    private ChanLoaderResponse(Post.Builder op, List<Post> posts, ChanLoaderValidators validators,
+                               boolean needsFullLoad, boolean notModified) {
         this.op = op;
         this.posts = posts;
+        this.validators = validators;
+        this.needsFullLoad = needsFullLoad;
+        this.notModified = notModified;
+    }
+
+    public static ChanLoaderResponse forFullLoad() {
+        return new ChanLoaderResponse(null, Collections.<Post>emptyList(), null, true, false);
+    }
+
+    public static ChanLoaderResponse forNotModified() {
+        return new ChanLoaderResponse(null, Collections.<Post>emptyList(), null, false, true);
     }
 }
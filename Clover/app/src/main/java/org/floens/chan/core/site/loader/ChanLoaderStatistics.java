@@ -0,0 +1,145 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters of the responses that {@link ChanThreadLoader}s received, shown in the developer settings.
+ */
+public class ChanLoaderStatistics {
+    private static final AtomicInteger fullResponses = new AtomicInteger();
+    private static final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private static final AtomicInteger threadIndexResponses = new AtomicInteger();
+    private static final AtomicInteger threadIndexSkippedLoads = new AtomicInteger();
+
+    private static final LoadTiming bufferedTiming = new LoadTiming();
+    private static final LoadTiming streamingTiming = new LoadTiming();
+
+    private ChanLoaderStatistics() {
+    }
+
+    static void onFullResponse() {
+        fullResponses.incrementAndGet();
+    }
+
+    static void onNotModifiedResponse() {
+        notModifiedResponses.incrementAndGet();
+    }
+
+    static void onThreadIndexResponse() {
+        threadIndexResponses.incrementAndGet();
+    }
+
+    /**
+     * A watched thread was not loaded because the thread index showed it did not change.
+     */
+    public static void onThreadIndexSkippedLoad() {
+        threadIndexSkippedLoads.incrementAndGet();
+    }
+
+    /**
+     * Record the timing of a load that was read and parsed.
+     *
+     * @param streaming     if the json was read while downloading
+     * @param firstPostMs   time from the start of the request until the first post was read
+     * @param readMs        time spent reading the json
+     * @param parseMs       time spent waiting for the parsing after the json was read
+     * @param totalMs       time from the start of the request until all posts were processed
+     * @param peakHeapBytes most heap in use of the samples taken while reading, parsing and
+     *                      processing
+     */
+    public static void onLoadTiming(boolean streaming, long firstPostMs, long readMs, long parseMs,
+                                    long totalMs, long peakHeapBytes) {
+        (streaming ? streamingTiming : bufferedTiming).add(
+                firstPostMs, readMs, parseMs, totalMs, peakHeapBytes);
+    }
+
+    public static String getSummary() {
+        return "Full responses: " + fullResponses.get() + "\n" +
+                "Not modified responses: " + notModifiedResponses.get() + "\n" +
+                "Thread index responses: " + threadIndexResponses.get() + ", " +
+                threadIndexSkippedLoads.get() + " thread loads skipped\n" +
+                "Buffered loads: " + bufferedTiming + "\n" +
+                "Streaming loads: " + streamingTiming + "\n" +
+                "Streaming compared to buffered: " + compare(streamingTiming, bufferedTiming) + "\n";
+    }
+
+    private static String compare(LoadTiming timing, LoadTiming base) {
+        LoadTiming.Averages averages = timing.getAverages();
+        LoadTiming.Averages baseAverages = base.getAverages();
+        if (averages == null || baseAverages == null) {
+            return "needs loads of both";
+        }
+
+        return String.format(Locale.ENGLISH, "first post %+dms, total %+dms, peak heap %+.1fMB",
+                averages.firstPostMs - baseAverages.firstPostMs,
+                averages.totalMs - baseAverages.totalMs,
+                (averages.peakHeapBytes - baseAverages.peakHeapBytes) / (1024f * 1024f));
+    }
+
+    private static class LoadTiming {
+        private int count;
+        private long firstPostMs;
+        private long readMs;
+        private long parseMs;
+        private long totalMs;
+        private long peakHeapBytes;
+
+        synchronized void add(long firstPostMs, long readMs, long parseMs, long totalMs, long peakHeapBytes) {
+            count++;
+            this.firstPostMs += firstPostMs;
+            this.readMs += readMs;
+            this.parseMs += parseMs;
+            this.totalMs += totalMs;
+            this.peakHeapBytes += peakHeapBytes;
+        }
+
+        synchronized Averages getAverages() {
+            if (count == 0) {
+                return null;
+            }
+            return new Averages(firstPostMs / count, totalMs / count, peakHeapBytes / count);
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (count == 0) {
+                return "none";
+            }
+
+            return String.format(Locale.ENGLISH,
+                    "%d, avg first post %dms, read %dms, parse wait %dms, total %dms, peak heap %.1fMB",
+                    count, firstPostMs / count, readMs / count, parseMs / count, totalMs / count,
+                    peakHeapBytes / count / (1024f * 1024f));
+        }
+
+        private static class Averages {
+            private final long firstPostMs;
+            private final long totalMs;
+            private final long peakHeapBytes;
+
+            private Averages(long firstPostMs, long totalMs, long peakHeapBytes) {
+                this.firstPostMs = firstPostMs;
+                this.totalMs = totalMs;
+                this.peakHeapBytes = peakHeapBytes;
+            }
+        }
+    }
+}
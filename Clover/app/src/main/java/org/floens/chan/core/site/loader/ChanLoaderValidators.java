@@ -0,0 +1,66 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import java.util.Map;
+
+/**
+ * The validators of the last response for a loadable. They are sent with the next request so
+ * that the server can answer with a 304 when nothing changed.
+ */
+public class ChanLoaderValidators {
+    /**
+     * Value of the Last-Modified header, or {@code null}.
+     */
+    public final String lastModified;
+
+    /**
+     * Value of the ETag header, or {@code null}.
+     */
+    public final String etag;
+
+    /**
+     * If the response was for the tail endpoint. Validators are only valid for the same endpoint.
+     */
+    public final boolean tail;
+
+    public ChanLoaderValidators(String lastModified, String etag, boolean tail) {
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.tail = tail;
+    }
+
+    /**
+     * Get the validators from the response headers.
+     *
+     * @return the validators, or {@code null} if the response had none.
+     */
+    public static ChanLoaderValidators fromHeaders(Map<String, String> headers, boolean tail) {
+        if (headers == null) {
+            return null;
+        }
+
+        String lastModified = headers.get("Last-Modified");
+        String etag = headers.get("ETag");
+        if (lastModified == null && etag == null) {
+            return null;
+        }
+
+        return new ChanLoaderValidators(lastModified, etag, tail);
+    }
+}
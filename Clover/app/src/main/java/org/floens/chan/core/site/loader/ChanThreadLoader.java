@@ -23,12 +23,17 @@ import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 
+import org.floens.chan.core.di.UserAgentProvider;
 import org.floens.chan.core.exception.ChanLoaderException;
 import org.floens.chan.core.model.ChanThread;
 import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostSearchIndex;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.site.parser.ChanReader;
+import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.parser.ChanReaderRequest;
+import org.floens.chan.core.site.parser.ChanReaderStreamRequest;
+import org.floens.chan.core.site.parser.ReplyIndex;
 import org.floens.chan.ui.helper.PostHelper;
 import org.floens.chan.utils.AndroidUtils;
 import org.floens.chan.utils.Logger;
@@ -43,6 +48,8 @@ import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import okhttp3.OkHttpClient;
+
 import static org.floens.chan.Chan.inject;
 
 /**
@@ -58,14 +65,29 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
 
     private static final int[] WATCH_TIMEOUTS = {10, 15, 20, 30, 60, 90, 120, 180, 240, 300, 600, 1800, 3600};
 
+    // Threads with at least this many posts are refreshed with the tail endpoint, if the site has one.
+    private static final int TAIL_MIN_POSTS = 100;
+
     @Inject
     RequestQueue volleyRequestQueue;
 
+    @Inject
+    OkHttpClient okHttpClient;
+
+    @Inject
+    UserAgentProvider userAgentProvider;
+
     private final List<ChanLoaderCallback> listeners = new ArrayList<>();
     private final Loadable loadable;
+    private final ReplyIndex replyIndex = new ReplyIndex();
+    private final PostSearchIndex searchIndex = new PostSearchIndex();
     private ChanThread thread;
+    // The previous catalog, shown again when a catalog reload is answered with a 304.
+    private ChanThread notModifiedThread;
 
     private ChanLoaderRequest request;
+    private boolean requestIsTail;
+    private ChanLoaderValidators validators;
 
     private int currentTimeout = 0;
     private int lastPostCount;
@@ -105,7 +127,7 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         if (listeners.isEmpty()) {
             clearTimer();
             if (request != null) {
-                request.getVolleyRequest().cancel();
+                request.cancel();
                 request = null;
             }
             return true;
@@ -125,7 +147,7 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         clearTimer();
 
         if (request != null) {
-            request.getVolleyRequest().cancel();
+            request.cancel();
             // request = null;
         }
 
@@ -136,9 +158,13 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         }
 
         currentTimeout = -1;
+        notModifiedThread = loadable.isCatalogMode() ? thread : null;
         thread = null;
+        if (notModifiedThread == null) {
+            validators = null;
+        }
 
-        request = getData();
+        request = getData(false);
     }
 
     /**
@@ -151,7 +177,7 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         clearPendingRunnable();
 
         if (loadable.isThreadMode() && request == null) {
-            request = getData();
+            request = getData(thread != null && thread.posts.size() >= TAIL_MIN_POSTS);
             return true;
         } else {
             return false;
@@ -232,18 +258,36 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         }
     }
 
-    private ChanLoaderRequest getData() {
-        Logger.d(TAG, "Requested " + loadable.boardCode + ", " + loadable.no);
+    private ChanLoaderRequest getData(boolean tail) {
+        Logger.d(TAG, "Requested " + loadable.boardCode + ", " + loadable.no + (tail ? " (tail)" : ""));
 
         List<Post> cached = thread == null ? new ArrayList<Post>() : thread.posts;
 
         ChanReader chanReader = loadable.getSite().chanReader();
 
-        ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(loadable, chanReader, cached, this, this);
-        ChanReaderRequest readerRequest = new ChanReaderRequest(requestParams);
-        request = new ChanLoaderRequest(readerRequest);
+        // Only ask for a 304 when there is a thread to keep showing, and when the validators
+        // are from the same endpoint.
+        ChanLoaderValidators sendValidators = null;
+        boolean hasThread = thread != null || notModifiedThread != null;
+        if (hasThread && validators != null && validators.tail == tail) {
+            sendValidators = validators;
+        }
+
+        requestIsTail = tail;
+        ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(
+                loadable, chanReader, cached, replyIndex, searchIndex, tail, sendValidators, this, this);
+        if (ChanSettings.streamingLoader.get()) {
+            ChanReaderStreamRequest streamRequest = new ChanReaderStreamRequest(
+                    requestParams, userAgentProvider.getUserAgent());
+            request = new ChanLoaderRequest(streamRequest);
 
-        volleyRequestQueue.add(request.getVolleyRequest());
+            streamRequest.execute(okHttpClient);
+        } else {
+            ChanReaderRequest readerRequest = new ChanReaderRequest(requestParams);
+            request = new ChanLoaderRequest(readerRequest);
+
+            volleyRequestQueue.add(request.getVolleyRequest());
+        }
 
         return request;
     }
@@ -252,17 +296,35 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     public void onResponse(ChanLoaderResponse response) {
         request = null;
 
+        if (response.needsFullLoad) {
+            Logger.d(TAG, "Tail did not overlap with the loaded posts, doing a full load");
+            request = getData(false);
+            return;
+        }
+
+        if (response.notModified && thread == null) {
+            thread = notModifiedThread;
+        }
+        notModifiedThread = null;
+
+        if (response.notModified && thread != null) {
+            ChanLoaderStatistics.onNotModifiedResponse();
+            onThreadLoaded(false);
+            return;
+        }
+
+        ChanLoaderStatistics.onFullResponse();
+
         if (response.posts.isEmpty()) {
             onErrorResponse(new VolleyError("Post size is 0"));
             return;
         }
 
         if (thread == null) {
-            thread = new ChanThread(loadable, new ArrayList<Post>());
+            thread = new ChanThread(loadable, new ArrayList<Post>(), searchIndex);
         }
 
-        thread.posts.clear();
-        thread.posts.addAll(response.posts);
+        thread.setPosts(response.posts);
 
         processResponse(response);
 
@@ -274,11 +336,21 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
             post.setTitle(loadable.title);
         }
 
-        lastLoadTime = Time.get();
+        validators = response.validators;
 
         int postCount = thread.posts.size();
-        if (postCount > lastPostCount) {
+        boolean newPosts = postCount > lastPostCount;
+        if (newPosts) {
             lastPostCount = postCount;
+        }
+
+        onThreadLoaded(newPosts);
+    }
+
+    private void onThreadLoaded(boolean newPosts) {
+        lastLoadTime = Time.get();
+
+        if (newPosts) {
             currentTimeout = 0;
         } else {
             currentTimeout = Math.min(currentTimeout + 1, WATCH_TIMEOUTS.length - 1);
@@ -321,12 +393,20 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     public void onErrorResponse(VolleyError error) {
         request = null;
 
+        ChanLoaderException loaderException = new ChanLoaderException(error);
+
+        if (requestIsTail && loaderException.isNotFound()) {
+            // Not all threads have a tail, retry with a full load. Other errors are reported
+            // as usual, a full load would only add to the load of a busy site.
+            Logger.i(TAG, "No tail for the thread, doing a full load", error);
+            request = getData(false);
+            return;
+        }
+
         Logger.i(TAG, "Loading error", error);
 
         clearTimer();
 
-        ChanLoaderException loaderException = new ChanLoaderException(error);
-
         for (ChanLoaderCallback l : listeners) {
             l.onChanLoaderError(loaderException);
         }
@@ -0,0 +1,74 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import android.util.SparseArray;
+
+/**
+ * The threads of a board with the time they were last modified and their reply count, read
+ * from the {@link org.floens.chan.core.site.SiteEndpoints#threadIndex} of the board.
+ */
+public class ThreadIndex {
+    private final SparseArray<Entry> threads = new SparseArray<>();
+    public final long time;
+
+    public ThreadIndex(long time) {
+        this.time = time;
+    }
+
+    void put(int no, long lastModified, int replies) {
+        threads.put(no, new Entry(lastModified, replies));
+    }
+
+    /**
+     * @param lastModified the last modified time of the op when the thread was loaded, or
+     *                     {@code -1} if the site doesn't give it.
+     * @param replies      the reply count of the op when the thread was loaded.
+     * @return {@code true} if the thread changed since it was loaded, also when it is not on
+     * the board anymore or when it can't be told.
+     */
+    public boolean hasChanged(int no, long lastModified, int replies) {
+        Entry entry = threads.get(no);
+        if (entry == null) {
+            // Archived or deleted, a load tells which.
+            return true;
+        }
+
+        if (entry.lastModified > 0 && lastModified > 0) {
+            return entry.lastModified > lastModified;
+        } else if (entry.replies >= 0) {
+            return entry.replies != replies;
+        } else {
+            return true;
+        }
+    }
+
+    public int size() {
+        return threads.size();
+    }
+
+    private static class Entry {
+        private final long lastModified;
+        private final int replies;
+
+        private Entry(long lastModified, int replies) {
+            this.lastModified = lastModified;
+            this.replies = replies;
+        }
+    }
+}
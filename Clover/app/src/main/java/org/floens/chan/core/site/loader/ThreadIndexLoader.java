@@ -0,0 +1,109 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import com.android.volley.RequestQueue;
+
+import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.site.Site;
+import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Loads the {@link ThreadIndex} of boards, at most one request per board at a time. An index
+ * is used again by the callers that want it within the max age.
+ */
+@MainThread
+public class ThreadIndexLoader {
+    private static final String TAG = "ThreadIndexLoader";
+
+    private final RequestQueue requestQueue;
+
+    private final Map<String, ThreadIndex> indexes = new HashMap<>();
+    private final Map<String, List<Callback>> loading = new HashMap<>();
+
+    public ThreadIndexLoader(RequestQueue requestQueue) {
+        this.requestQueue = requestQueue;
+    }
+
+    /**
+     * Get the index of the board, loading it if the last one is older than {@code maxAge}. The
+     * callback can be called before this returns.
+     *
+     * @return {@code false} if the site has no index for the board, the callback is not called.
+     */
+    public boolean get(Site site, Board board, long maxAge, Callback callback) {
+        HttpUrl url = site.endpoints().threadIndex(board);
+        if (url == null) {
+            return false;
+        }
+
+        String key = url.toString();
+        ThreadIndex index = indexes.get(key);
+        if (index != null && Time.get() - index.time <= maxAge) {
+            callback.onThreadIndex(index);
+            return true;
+        }
+
+        List<Callback> callbacks = loading.get(key);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            loading.put(key, callbacks);
+
+            requestQueue.add(new ThreadIndexRequest(key,
+                    response -> {
+                        ChanLoaderStatistics.onThreadIndexResponse();
+                        indexes.put(key, response);
+                        deliver(key, response);
+                    },
+                    error -> {
+                        Logger.i(TAG, "Error loading thread index " + key, error);
+                        indexes.remove(key);
+                        deliver(key, null);
+                    }));
+        }
+        callbacks.add(callback);
+        return true;
+    }
+
+    private void deliver(String key, @Nullable ThreadIndex index) {
+        List<Callback> callbacks = loading.remove(key);
+        if (callbacks != null) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).onThreadIndex(index);
+            }
+        }
+    }
+
+    public interface Callback {
+        /**
+         * @param index the index, or {@code null} if it could not be loaded.
+         */
+        void onThreadIndex(@Nullable ThreadIndex index);
+    }
+}
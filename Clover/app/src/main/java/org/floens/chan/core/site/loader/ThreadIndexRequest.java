@@ -0,0 +1,92 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import android.util.JsonReader;
+
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+
+import org.floens.chan.core.net.JsonReaderRequest;
+import org.floens.chan.utils.Time;
+
+import java.io.IOException;
+
+/**
+ * Reads a threads.json, the pages of a board with the no, last_modified and replies of each
+ * thread.
+ */
+public class ThreadIndexRequest extends JsonReaderRequest<ThreadIndex> {
+    public ThreadIndexRequest(String url, Listener<ThreadIndex> listener, ErrorListener errorListener) {
+        super(url, listener, errorListener);
+    }
+
+    @Override
+    public ThreadIndex readJson(JsonReader reader) throws Exception {
+        ThreadIndex index = new ThreadIndex(Time.get());
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("threads")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readThread(reader, index);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+
+        return index;
+    }
+
+    private void readThread(JsonReader reader, ThreadIndex index) throws IOException {
+        int no = -1;
+        long lastModified = -1;
+        int replies = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "no":
+                    no = reader.nextInt();
+                    break;
+                case "last_modified":
+                    lastModified = reader.nextLong();
+                    break;
+                case "replies":
+                    replies = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (no >= 0) {
+            index.put(no, lastModified, replies);
+        }
+    }
+}
@@ -19,25 +19,46 @@ package org.floens.chan.core.site.parser;
 
 
 import android.annotation.SuppressLint;
+import android.util.JsonReader;
 
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.utils.Time;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChanReaderProcessingQueue {
+    // Posts read between samples of the used heap.
+    private static final int HEAP_SAMPLE_INTERVAL = 32;
+
     @SuppressLint("UseSparseArrays")
     private Map<Integer, Post> cachedByNo = new HashMap<>();
+    private List<Post> cached;
     private Loadable loadable;
 
     private List<Post> toReuse = new ArrayList<>();
     private List<Post.Builder> toParse = new ArrayList<>();
     private Post.Builder op;
 
+    // Lowest no of the non-op posts that were read, used to merge tail responses.
+    private int lowestReplyNo = Integer.MAX_VALUE;
+
+    // When the first post was read and the most heap used while reading, for the loader statistics.
+    private long firstPostTime;
+    private int readCount;
+    private long peakUsedHeap;
+
+    private ParseListener parseListener;
+    private AtomicBoolean canceled;
+
     public ChanReaderProcessingQueue(List<Post> toReuse, Loadable loadable) {
+        this.cached = toReuse;
         this.loadable = loadable;
 
         for (int i = 0; i < toReuse.size(); i++) {
@@ -50,12 +71,74 @@ public class ChanReaderProcessingQueue {
         return cachedByNo.get(no);
     }
 
+    /**
+     * Get the cached post for the given no if the rest of the post object does not need to be read.
+     * The op of a thread is never skipped, its counters are read again on every load.
+     *
+     * @param no the post no, read from the post object
+     * @return the cached post, or {@code null} if the post object should be read fully.
+     */
+    public Post getSkippableCachedPost(int no) {
+        if (loadable.isThreadMode() && no == loadable.no) {
+            return null;
+        }
+        return cachedByNo.get(no);
+    }
+
+    /**
+     * Skip the remaining values of the post object the reader is in, including the end of the
+     * object, and reuse the cached post.
+     *
+     * @param reader the reader, positioned inside the post object
+     * @param cached the post from {@link #getSkippableCachedPost(int)}
+     */
+    public void skipPostObject(JsonReader reader, Post cached) throws IOException {
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+
+        addForReuse(cached);
+    }
+
     public void addForReuse(Post post) {
+        onPostRead();
+        if (!post.isOP) {
+            lowestReplyNo = Math.min(lowestReplyNo, post.no);
+        }
         toReuse.add(post);
     }
 
     public void addForParse(Post.Builder postBuilder) {
+        onPostRead();
+        if (!postBuilder.op) {
+            lowestReplyNo = Math.min(lowestReplyNo, postBuilder.id);
+        }
         toParse.add(postBuilder);
+
+        if (parseListener != null) {
+            parseListener.onAddForParse(postBuilder);
+        }
+    }
+
+    private void onPostRead() {
+        // Stop reading between posts, a canceled request can still be reading the response.
+        if (canceled != null && canceled.get()) {
+            throw new CancellationException();
+        }
+        if (firstPostTime == 0L) {
+            firstPostTime = Time.startTiming();
+        }
+        // The posts are parsed while reading, this also samples the heap used by the parsing.
+        if (readCount++ % HEAP_SAMPLE_INTERVAL == 0) {
+            sampleUsedHeap();
+        }
+    }
+
+    void sampleUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        peakUsedHeap = Math.max(peakUsedHeap, runtime.totalMemory() - runtime.freeMemory());
     }
 
     public void setOp(Post.Builder op) {
@@ -66,6 +149,36 @@ public class ChanReaderProcessingQueue {
         return loadable;
     }
 
+    /**
+     * Merge a tail response with the cached posts. The tail only contains the op and the last
+     * posts of the thread, the cached posts older than the tail are reused as-is.
+     *
+     * @return {@code false} if the tail does not overlap with the cached posts and posts may
+     * have been missed, a full load is needed in that case.
+     */
+    boolean mergeTail() {
+        int highestCachedNo = -1;
+        for (int i = 0; i < cached.size(); i++) {
+            Post post = cached.get(i);
+            if (!post.isOP) {
+                highestCachedNo = Math.max(highestCachedNo, post.no);
+            }
+        }
+
+        if (highestCachedNo < lowestReplyNo) {
+            return false;
+        }
+
+        for (int i = 0; i < cached.size(); i++) {
+            Post post = cached.get(i);
+            if (!post.isOP && post.no < lowestReplyNo) {
+                toReuse.add(post);
+            }
+        }
+
+        return true;
+    }
+
     List<Post> getToReuse() {
         return toReuse;
     }
@@ -74,7 +187,30 @@ public class ChanReaderProcessingQueue {
         return toParse;
     }
 
+    void setParseListener(ParseListener parseListener) {
+        this.parseListener = parseListener;
+    }
+
+    void setCanceled(AtomicBoolean canceled) {
+        this.canceled = canceled;
+    }
+
     Post.Builder getOp() {
         return op;
     }
+
+    long getFirstPostTime() {
+        return firstPostTime;
+    }
+
+    long getPeakUsedHeap() {
+        return peakUsedHeap;
+    }
+
+    interface ParseListener {
+        /**
+         * Called on the reading thread for each post that was added for parsing.
+         */
+        void onAddForParse(Post.Builder postBuilder);
+    }
 }
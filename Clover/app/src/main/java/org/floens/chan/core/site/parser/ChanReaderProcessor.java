@@ -0,0 +1,359 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import android.util.JsonReader;
+
+import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.database.DatabaseSavedReplyManager;
+import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.FilterMatcher;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostSearchIndex;
+import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.loader.ChanLoaderRequestParams;
+import org.floens.chan.core.site.loader.ChanLoaderResponse;
+import org.floens.chan.core.site.loader.ChanLoaderStatistics;
+import org.floens.chan.core.site.loader.ChanLoaderValidators;
+import org.floens.chan.utils.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+import okhttp3.HttpUrl;
+
+import static org.floens.chan.Chan.inject;
+
+/**
+ * Process a typical imageboard json response.<br>
+ * This class is highly multithreaded, take good care to not access models that are to be only
+ * changed on the main thread.
+ * <p>Used by both {@link ChanReaderRequest} and {@link ChanReaderStreamRequest}, which only differ
+ * in how the json gets to the reader.
+ */
+public class ChanReaderProcessor {
+    private static final String TAG = "ChanReaderProcessor";
+
+    private static final int THREAD_COUNT;
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+        EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @Inject
+    DatabaseManager databaseManager;
+
+    @Inject
+    FilterEngine filterEngine;
+
+    private final boolean streaming;
+    // Log the time each step takes, for developers.
+    private final boolean logTiming;
+
+    private Loadable loadable;
+    private List<Post> cached;
+    private boolean tail;
+    private ChanLoaderValidators validators;
+    private ChanReader reader;
+    private ReplyIndex replyIndex;
+    private PostSearchIndex searchIndex;
+    private DatabaseSavedReplyManager databaseSavedReplyManager;
+
+    private FilterMatcher filterMatcher;
+    private long startLoad;
+
+    // Set from the main thread, read checks it before each post and before changing the indexes.
+    private final AtomicBoolean canceled = new AtomicBoolean();
+
+    public ChanReaderProcessor(ChanLoaderRequestParams request, boolean streaming) {
+        inject(this);
+
+        this.streaming = streaming;
+        logTiming = ChanSettings.developer.get();
+
+        // Copy the loadable and cached list. The cached array may changed/cleared by other threads.
+        loadable = request.loadable.copy();
+        cached = new ArrayList<>(request.cached);
+        tail = request.tail && getTailUrl(loadable) != null;
+        validators = request.validators;
+        reader = request.chanReader;
+        replyIndex = request.replyIndex;
+        searchIndex = request.searchIndex;
+
+        filterMatcher = filterEngine.getFilterMatcher(loadable.board);
+
+        startLoad = Time.startTiming();
+
+        databaseSavedReplyManager = databaseManager.getDatabaseSavedReplyManager();
+    }
+
+    private static HttpUrl getTailUrl(Loadable loadable) {
+        return loadable.site.endpoints().threadTail(loadable.board, loadable);
+    }
+
+    public static HttpUrl getChanUrl(ChanLoaderRequestParams request) {
+        Loadable loadable = request.loadable;
+        HttpUrl url;
+
+        if (loadable.site == null) {
+            throw new NullPointerException("Loadable.site == null");
+        }
+
+        if (loadable.board == null) {
+            throw new NullPointerException("Loadable.board == null");
+        }
+
+        if (loadable.isThreadMode()) {
+            url = request.tail ? getTailUrl(loadable) : null;
+            if (url == null) {
+                url = loadable.site.endpoints().thread(loadable.board, loadable);
+            }
+        } else if (loadable.isCatalogMode()) {
+            url = loadable.site.endpoints().catalog(loadable.board);
+        } else {
+            throw new IllegalArgumentException("Unknown mode");
+        }
+        return url;
+    }
+
+    public boolean hasValidators() {
+        return validators != null;
+    }
+
+    /**
+     * Headers to make the request conditional, empty if there were no validators.
+     */
+    public Map<String, String> getValidatorHeaders() {
+        Map<String, String> headers = new HashMap<>(2);
+        if (validators != null) {
+            if (validators.lastModified != null) {
+                headers.put("If-Modified-Since", validators.lastModified);
+            }
+            if (validators.etag != null) {
+                headers.put("If-None-Match", validators.etag);
+            }
+        }
+        return headers;
+    }
+
+    public ChanLoaderValidators getResponseValidators(Map<String, String> headers) {
+        return ChanLoaderValidators.fromHeaders(headers, tail);
+    }
+
+    /**
+     * Stop reading, {@link #read} throws a {@link CancellationException} at the next post and the
+     * reply and search indexes of the loader are not changed.
+     */
+    public void cancel() {
+        canceled.set(true);
+    }
+
+    private void throwIfCanceled() {
+        if (canceled.get()) {
+            throw new CancellationException();
+        }
+    }
+
+    public ChanLoaderResponse read(JsonReader reader, ChanLoaderValidators responseValidators)
+            throws Exception {
+        long readStart = Time.startTiming();
+        if (logTiming) {
+            Time.endTiming("Network", startLoad);
+        }
+
+        ChanReaderProcessingQueue processing = new ChanReaderProcessingQueue(cached, loadable);
+
+        // Posts are parsed on the executor while the rest is still being read.
+        PostParsePipeline pipeline = new PostParsePipeline(EXECUTOR,
+                filterMatcher,
+                databaseSavedReplyManager,
+                this.reader,
+                cached);
+        processing.setParseListener(pipeline);
+        processing.setCanceled(canceled);
+
+        try {
+            if (loadable.isThreadMode()) {
+                this.reader.loadThread(reader, processing);
+            } else if (loadable.isCatalogMode()) {
+                this.reader.loadCatalog(reader, processing);
+            } else {
+                throw new IllegalArgumentException("Unknown mode");
+            }
+        } catch (Exception e) {
+            pipeline.cancel();
+            throw e;
+        }
+
+        long readEnd = Time.startTiming();
+        if (logTiming) {
+            Time.endTiming("Load json", readStart);
+        }
+
+        processing.sampleUsedHeap();
+
+        if (canceled.get()) {
+            pipeline.cancel();
+            throw new CancellationException();
+        }
+
+        if (tail && !processing.mergeTail()) {
+            pipeline.cancel();
+            return ChanLoaderResponse.forFullLoad();
+        }
+
+        List<Post> list = pipeline.finish(processing.getToReuse());
+        processing.sampleUsedHeap();
+
+        long parseEnd = Time.startTiming();
+        if (logTiming) {
+            Time.endTiming("Parse " + pipeline.getParseCount() + " posts with " + THREAD_COUNT +
+                    " threads, " + pipeline.getReparseCount() + " parsed again", readEnd);
+        }
+
+        ChanLoaderResponse response = processPosts(processing.getOp(), list, responseValidators);
+
+        long end = Time.startTiming();
+        if (logTiming) {
+            Time.endTiming("Process posts", parseEnd);
+        }
+        processing.sampleUsedHeap();
+
+        long firstPostTime = processing.getFirstPostTime();
+        if (firstPostTime != 0L) {
+            ChanLoaderStatistics.onLoadTiming(streaming,
+                    toMs(firstPostTime - startLoad),
+                    toMs(readEnd - readStart),
+                    toMs(parseEnd - readEnd),
+                    toMs(end - startLoad),
+                    processing.getPeakUsedHeap());
+        }
+
+        return response;
+    }
+
+    private static int[] getSortedNos(List<Post> posts) {
+        int[] nos = new int[posts.size()];
+        for (int i = 0; i < nos.length; i++) {
+            nos[i] = posts.get(i).no;
+        }
+        Arrays.sort(nos);
+        return nos;
+    }
+
+    private long toMs(long nanos) {
+        return nanos / 1_000_000L;
+    }
+
+    private ChanLoaderResponse processPosts(Post.Builder op, List<Post> allPost,
+                                           ChanLoaderValidators responseValidators) throws Exception {
+        ChanLoaderResponse response = new ChanLoaderResponse(
+                op, new ArrayList<Post>(allPost.size()), responseValidators);
+
+        List<Post> cachedPosts = new ArrayList<>();
+        List<Post> newPosts = new ArrayList<>();
+        if (cached.size() > 0) {
+            long deleteCheck = Time.startTiming();
+            // Add all posts that were parsed before
+            cachedPosts.addAll(cached);
+
+            int[] cachedNos = getSortedNos(cachedPosts);
+            int[] serverNos = getSortedNos(allPost);
+
+            // If there's a cached post but it's not in the list received from the server, mark it as deleted
+            if (loadable.isThreadMode()) {
+                for (int i = 0; i < cachedPosts.size(); i++) {
+                    Post cachedPost = cachedPosts.get(i);
+                    cachedPost.deleted.set(Arrays.binarySearch(serverNos, cachedPost.no) < 0);
+                }
+            }
+            if (logTiming) {
+                Time.endTiming("Delete check", deleteCheck);
+            }
+            long newCheck = Time.startTiming();
+
+            // If there's a post in the list from the server, that's not in the cached list, add it.
+            for (int i = 0; i < allPost.size(); i++) {
+                Post serverPost = allPost.get(i);
+                if (Arrays.binarySearch(cachedNos, serverPost.no) < 0) {
+                    newPosts.add(serverPost);
+                }
+            }
+            if (logTiming) {
+                Time.endTiming("New check", newCheck);
+            }
+        } else {
+            newPosts.addAll(allPost);
+        }
+
+        List<Post> allPosts = new ArrayList<>(cachedPosts.size() + newPosts.size());
+        allPosts.addAll(cachedPosts);
+        allPosts.addAll(newPosts);
+
+        // The indexes are shared with the loader, a canceled load must leave them as they are.
+        throwIfCanceled();
+
+        long indexSearch = Time.startTiming();
+        if (cachedPosts.isEmpty()) {
+            searchIndex.clear();
+        }
+        searchIndex.add(newPosts);
+        if (logTiming) {
+            Time.endTiming("Index search", indexSearch);
+        }
+
+        // Keep the new posts for the local search, like the history.
+        if (loadable.isThreadMode() && loadable.id != 0 && !newPosts.isEmpty() &&
+                ChanSettings.historyEnabled.get()) {
+            databaseManager.runTaskAsync(databaseManager.getDatabaseArchiveManager()
+                    .archivePosts(loadable, newPosts));
+        }
+
+        if (loadable.isThreadMode()) {
+            long mapReplies = Time.startTiming();
+            boolean incremental;
+            synchronized (replyIndex) {
+                incremental = replyIndex.isIndexOf(cachedPosts);
+                if (incremental) {
+                    replyIndex.add(newPosts);
+                } else {
+                    replyIndex.rebuild(allPosts);
+                }
+            }
+            if (logTiming) {
+                Time.endTiming("Map replies" + (incremental ? "" : " (rebuild)"), mapReplies);
+            }
+        }
+
+        response.posts.addAll(allPosts);
+
+        return response;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import android.util.JsonReader;
+
+import androidx.annotation.MainThread;
+
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.floens.chan.core.site.loader.ChanLoaderRequestParams;
+import org.floens.chan.core.site.loader.ChanLoaderResponse;
+import org.floens.chan.core.site.loader.ChanLoaderValidators;
+import org.floens.chan.utils.AndroidUtils;
+import org.floens.chan.utils.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Loads a typical imageboard json response with OkHttp. Unlike {@link ChanReaderRequest} the json
+ * is read straight from the response body while it is being downloaded, so reading starts with
+ * the first bytes and the body is never buffered as a whole.
+ * <p>The listeners of the {@link ChanLoaderRequestParams} are called on the main thread.
+ */
+public class ChanReaderStreamRequest implements Callback {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ChanLoaderRequestParams params;
+    private final ChanReaderProcessor processor;
+    private final Request request;
+
+    private Call call;
+    private volatile boolean canceled = false;
+
+    public ChanReaderStreamRequest(ChanLoaderRequestParams params, String userAgent) {
+        this.params = params;
+        processor = new ChanReaderProcessor(params, true);
+
+        Request.Builder builder = new Request.Builder()
+                .url(ChanReaderProcessor.getChanUrl(params))
+                .header("User-Agent", userAgent);
+        for (Map.Entry<String, String> header : processor.getValidatorHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        request = builder.build();
+    }
+
+    @MainThread
+    public void execute(OkHttpClient client) {
+        call = client.newCall(request);
+        call.enqueue(this);
+    }
+
+    @MainThread
+    public void cancel() {
+        canceled = true;
+        processor.cancel();
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        if (e instanceof SocketTimeoutException) {
+            deliverError(new TimeoutError());
+        } else {
+            deliverError(new NetworkError(e));
+        }
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        ResponseBody body = response.body();
+        JsonReader reader = null;
+        try {
+            if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed, skip the parsing completely.
+                deliverResponse(ChanLoaderResponse.forNotModified());
+                return;
+            }
+
+            if (!response.isSuccessful() || body == null) {
+                NetworkResponse networkResponse = new NetworkResponse(response.code(), null,
+                        toMap(response.headers()), false);
+                deliverError(new ServerError(networkResponse));
+                return;
+            }
+
+            ChanLoaderValidators responseValidators =
+                    processor.getResponseValidators(toMap(response.headers()));
+
+            reader = new JsonReader(new InputStreamReader(body.byteStream(), UTF8));
+            ChanLoaderResponse read = processor.read(reader, responseValidators);
+            if (read == null) {
+                deliverError(new VolleyError("Unknown error"));
+            } else {
+                deliverResponse(read);
+            }
+        } catch (IOException | CancellationException e) {
+            // Also thrown when the call or the processor was canceled while reading, not delivered then.
+            deliverError(new NetworkError(e));
+        } catch (Exception e) {
+            deliverError(new VolleyError(e));
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(body);
+        }
+    }
+
+    private void deliverResponse(ChanLoaderResponse response) {
+        AndroidUtils.runOnUiThread(() -> {
+            if (!canceled) {
+                params.listener.onResponse(response);
+            }
+        });
+    }
+
+    private void deliverError(VolleyError error) {
+        AndroidUtils.runOnUiThread(() -> {
+            if (!canceled) {
+                params.errorListener.onErrorResponse(error);
+            }
+        });
+    }
+
+    private static Map<String, String> toMap(Headers headers) {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.size(); i++) {
+            map.put(headers.name(i), headers.value(i));
+        }
+        return map;
+    }
+}
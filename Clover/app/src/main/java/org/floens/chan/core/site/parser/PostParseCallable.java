@@ -19,36 +19,82 @@ package org.floens.chan.core.site.parser;
 
 import org.floens.chan.core.database.DatabaseSavedReplyManager;
 import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.FilterMatcher;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.orm.Filter;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
 // Called concurrently to parse the post html and the filters on it
-// belong to ChanReaderRequest
+// belong to ChanReaderProcessor
 class PostParseCallable implements Callable<Post> {
     private static final String TAG = "PostParseCallable";
 
-    private FilterEngine filterEngine;
-    private List<Filter> filters;
+    private FilterMatcher filterMatcher;
     private DatabaseSavedReplyManager savedReplyManager;
     private Post.Builder post;
     private ChanReader reader;
-    private final Set<Integer> internalIds;
+    private Set<Integer> internalIds;
 
-    public PostParseCallable(FilterEngine filterEngine,
-                             List<Filter> filters,
+    // The answers given to isInternal, checked against the final ids with needsReparse.
+    private final Map<Integer, Boolean> internalAnswers = new HashMap<>();
+
+    // The unparsed values, the parser replaces them on the builder.
+    private final String rawName;
+    private final String rawSubject;
+    private final CharSequence rawComment;
+
+    public PostParseCallable(FilterMatcher filterMatcher,
                              DatabaseSavedReplyManager savedReplyManager,
                              Post.Builder post,
                              ChanReader reader, Set<Integer> internalIds) {
-        this.filterEngine = filterEngine;
-        this.filters = filters;
+        this.filterMatcher = filterMatcher;
         this.savedReplyManager = savedReplyManager;
         this.post = post;
         this.reader = reader;
         this.internalIds = internalIds;
+
+        rawName = post.name;
+        rawSubject = post.subject;
+        rawComment = post.comment;
+    }
+
+    public int getPostNo() {
+        return post.id;
+    }
+
+    /**
+     * Check if the quotes were resolved the same as they would be with the final ids of the thread.
+     * Only valid after the parse completed.
+     *
+     * @param finalIds all ids of the thread
+     * @return {@code true} if the post needs to be parsed again with {@link #reparse(Set)}.
+     */
+    public boolean needsReparse(Set<Integer> finalIds) {
+        for (Map.Entry<Integer, Boolean> answer : internalAnswers.entrySet()) {
+            if (finalIds.contains(answer.getKey()) != answer.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse the post again, from the unparsed values, with the final ids of the thread.
+     */
+    public Post reparse(Set<Integer> finalIds) throws Exception {
+        post.name = rawName;
+        post.subject = rawSubject;
+        post.comment = rawComment;
+        post.clearLinkables();
+
+        internalIds = finalIds;
+        internalAnswers.clear();
+
+        return call();
     }
 
     @Override
@@ -66,28 +112,28 @@ class PostParseCallable implements Callable<Post> {
 
             @Override
             public boolean isInternal(int postNo) {
-                return internalIds.contains(postNo);
+                boolean internal = internalIds.contains(postNo);
+                internalAnswers.put(postNo, internal);
+                return internal;
             }
         });
     }
 
     private void processPostFilter(Post.Builder post) {
-        int filterSize = filters.size();
-        for (int i = 0; i < filterSize; i++) {
-            Filter filter = filters.get(i);
-            if (filterEngine.matches(filter, post)) {
-                FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(filter.action);
-                switch (action) {
-                    case COLOR:
-                        post.filter(filter.color, false, false);
-                        break;
-                    case HIDE:
-                        post.filter(0, true, false);
-                        break;
-                    case REMOVE:
-                        post.filter(0, false, true);
-                        break;
-                }
+        // Only the last matching filter has effect
+        Filter filter = filterMatcher.match(post);
+        if (filter != null) {
+            FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(filter.action);
+            switch (action) {
+                case COLOR:
+                    post.filter(filter.color, false, false);
+                    break;
+                case HIDE:
+                    post.filter(0, true, false);
+                    break;
+                case REMOVE:
+                    post.filter(0, false, true);
+                    break;
             }
         }
     }
@@ -0,0 +1,146 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import org.floens.chan.core.database.DatabaseSavedReplyManager;
+import org.floens.chan.core.manager.FilterMatcher;
+import org.floens.chan.core.model.Post;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses posts on the executor as soon as the reader adds them, instead of waiting until the whole
+ * response was read.
+ * <p>Quotes are resolved against the ids known at the time the post is parsed: the cached posts
+ * and the posts read so far. Once everything was read the answers are checked against the final
+ * ids of the thread, and the few posts that were resolved differently are parsed again.
+ */
+class PostParsePipeline implements ChanReaderProcessingQueue.ParseListener {
+    private final ExecutorService executor;
+    private final FilterMatcher filterMatcher;
+    private final DatabaseSavedReplyManager savedReplyManager;
+    private final ChanReader reader;
+
+    // Written by the reading thread, read by the parse threads.
+    private final Set<Integer> readIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    // Reading thread only.
+    private final List<PostParseCallable> tasks = new ArrayList<>();
+    private final List<Future<Post>> futures = new ArrayList<>();
+
+    private int reparseCount = 0;
+
+    PostParsePipeline(ExecutorService executor,
+                      FilterMatcher filterMatcher,
+                      DatabaseSavedReplyManager savedReplyManager,
+                      ChanReader reader,
+                      List<Post> cached) {
+        this.executor = executor;
+        this.filterMatcher = filterMatcher;
+        this.savedReplyManager = savedReplyManager;
+        this.reader = reader;
+
+        for (int i = 0; i < cached.size(); i++) {
+            readIds.add(cached.get(i).no);
+        }
+    }
+
+    @Override
+    public void onAddForParse(Post.Builder postBuilder) {
+        readIds.add(postBuilder.id);
+
+        PostParseCallable task = new PostParseCallable(filterMatcher,
+                savedReplyManager,
+                postBuilder,
+                reader,
+                readIds);
+        tasks.add(task);
+        futures.add(executor.submit(task));
+    }
+
+    /**
+     * Wait for all parse tasks, and parse the posts again that resolved quotes differently than
+     * they would with the final ids.
+     *
+     * @param reused the reused posts, that are also part of the thread
+     * @return the reused posts followed by the parsed posts, in the order they were read
+     */
+    List<Post> finish(List<Post> reused) throws InterruptedException, ExecutionException {
+        // A list of all ids in the thread. Used for checking if a quote if for the current
+        // thread or externally.
+        Set<Integer> internalIds = new HashSet<>(reused.size() + tasks.size());
+        for (int i = 0; i < reused.size(); i++) {
+            internalIds.add(reused.get(i).no);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            internalIds.add(tasks.get(i).getPostNo());
+        }
+        // Do not modify internalIds after this point.
+        internalIds = Collections.unmodifiableSet(internalIds);
+
+        List<Post> total = new ArrayList<>(reused.size() + tasks.size());
+        total.addAll(reused);
+
+        for (int i = 0; i < futures.size(); i++) {
+            Post parsedPost = futures.get(i).get();
+
+            PostParseCallable task = tasks.get(i);
+            if (task.needsReparse(internalIds)) {
+                reparseCount++;
+                try {
+                    parsedPost = task.reparse(internalIds);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+            }
+
+            if (parsedPost != null) {
+                total.add(parsedPost);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Cancel the tasks that did not start yet, when the parsed posts are not going to be used.
+     */
+    void cancel() {
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).cancel(false);
+        }
+    }
+
+    int getParseCount() {
+        return tasks.size();
+    }
+
+    int getReparseCount() {
+        return reparseCount;
+    }
+}
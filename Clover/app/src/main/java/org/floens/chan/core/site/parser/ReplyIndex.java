@@ -0,0 +1,144 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import android.annotation.SuppressLint;
+
+import org.floens.chan.core.model.Post;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The replies between the posts of a thread, kept by the thread loader between loads so that
+ * only the new posts of a refresh have to be added. The {@link Post#repliesFrom} list of a post
+ * is only changed when it got new replies.
+ * <p>Synchronize on the index while using it, a cancelled request may still be processing.
+ */
+public class ReplyIndex {
+    @SuppressLint("UseSparseArrays")
+    private final Map<Integer, Post> posts = new HashMap<>();
+
+    // The no's of the posts that replied to a post, also for posts that are not in the thread.
+    @SuppressLint("UseSparseArrays")
+    private final Map<Integer, Replies> replies = new HashMap<>();
+
+    /**
+     * @return {@code true} if exactly these posts were added to the index.
+     */
+    public boolean isIndexOf(List<Post> cached) {
+        if (posts.size() != cached.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < cached.size(); i++) {
+            Post post = cached.get(i);
+            if (posts.get(post.no) != post) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the new posts of the thread, and their no to the replies of the posts they reply to.
+     */
+    public void add(List<Post> newPosts) {
+        add(newPosts, false);
+    }
+
+    /**
+     * Index these posts again, and set the replies of all of them.
+     */
+    public void rebuild(List<Post> allPosts) {
+        posts.clear();
+        replies.clear();
+        add(allPosts, true);
+    }
+
+    private void add(List<Post> newPosts, boolean rebuild) {
+        for (int i = 0; i < newPosts.size(); i++) {
+            Post post = newPosts.get(i);
+            posts.put(post.no, post);
+        }
+
+        // The posts that got new replies.
+        Set<Integer> changed = new HashSet<>();
+        for (int i = 0; i < newPosts.size(); i++) {
+            Post source = newPosts.get(i);
+
+            for (int replyTo : source.repliesTo) {
+                Replies value = replies.get(replyTo);
+                if (value == null) {
+                    value = new Replies();
+                    replies.put(replyTo, value);
+                }
+                value.add(source.no);
+                changed.add(replyTo);
+            }
+        }
+
+        if (!rebuild) {
+            for (int no : changed) {
+                // Sometimes a post replies to a ghost, a post that doesn't exist.
+                Post subject = posts.get(no);
+                if (subject != null) {
+                    update(subject, false);
+                }
+            }
+        }
+
+        // New posts can already have replies, from posts that replied before they were loaded.
+        for (int i = 0; i < newPosts.size(); i++) {
+            update(newPosts.get(i), rebuild);
+        }
+    }
+
+    private void update(Post subject, boolean rebuild) {
+        Replies value = replies.get(subject.no);
+
+        synchronized (subject.repliesFrom) {
+            if (rebuild) {
+                subject.repliesFrom.clear();
+            }
+
+            // The list has the first replies of the index already, add the ones after.
+            if (value != null) {
+                for (int i = subject.repliesFrom.size(); i < value.size; i++) {
+                    subject.repliesFrom.add(value.nos[i]);
+                }
+            }
+        }
+    }
+
+    private static class Replies {
+        private int[] nos = new int[2];
+        private int size;
+
+        private void add(int no) {
+            if (size == nos.length) {
+                nos = Arrays.copyOf(nos, size * 2);
+            }
+            nos[size++] = no;
+        }
+    }
+}
@@ -124,6 +124,12 @@ public class DvachApi extends CommonSite.CommonApi {
                 case "num":
                     String num = reader.nextString();
                     builder.id(Integer.parseInt(num));
+                    Post known = queue.getSkippableCachedPost(builder.id);
+                    if (known != null) {
+                        // Known post, the rest of the object does not need to be read.
+                        queue.skipPostObject(reader, known);
+                        return;
+                    }
                     break;
                 case "files":
                     reader.beginArray();
@@ -17,6 +17,8 @@
  */
 package org.floens.chan.ui.adapter;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.view.LayoutInflater;
@@ -30,16 +32,30 @@ import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.ui.cell.PostCellInterface;
 import org.floens.chan.ui.cell.ThreadStatusCell;
+import org.floens.chan.utils.BackgroundUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+/**
+ * The posts of a thread or catalog. A new list of posts is compared to the shown list on a
+ * background thread, and only the posts that were added, removed, moved or changed are updated.
+ * Changing the highlighted or selected posts only updates the background of their cells.
+ */
 public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private static final int TYPE_POST = 0;
     private static final int TYPE_STATUS = 1;
     private static final int TYPE_POST_STUB = 2;
     private static final int TYPE_LAST_SEEN = 3;
 
+    // A post that is shown again with the same post object, that changed.
+    private static final Object PAYLOAD_CHANGED = new Object();
+    private static final Object PAYLOAD_HIGHLIGHT = new Object();
+
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private final PostAdapterCallback postAdapterCallback;
     private final PostCellInterface.PostCellCallback postCellCallback;
     private RecyclerView recyclerView;
@@ -47,6 +63,9 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private final ThreadStatusCell.Callback statusCellCallback;
     private final List<Post> sourceList = new ArrayList<>();
     private final List<Post> displayList = new ArrayList<>();
+    // The content version of the posts of the display list, when they were shown.
+    private long[] displayVersions = new long[0];
+    private BackgroundUtils.Cancelable diffCall;
     private String error = null;
     private Post highlightedPost;
     private String highlightedPostId;
@@ -98,6 +117,27 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !(holder instanceof PostViewHolder)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        PostViewHolder postViewHolder = (PostViewHolder) holder;
+        Post post = displayList.get(getPostPosition(position));
+        if (postViewHolder.postView.getPost() != post) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        postViewHolder.postView.setHighlighted(isHighlighted(post), post.no == selectedPost);
+        if (payloads.contains(PAYLOAD_CHANGED)) {
+            postViewHolder.postView.postChanged();
+        }
+    }
+
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
         int itemViewType = getItemViewType(position);
@@ -106,13 +146,11 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
             case TYPE_POST_STUB:
                 PostViewHolder postViewHolder = (PostViewHolder) holder;
                 Post post = displayList.get(getPostPosition(position));
-                boolean highlight = post == highlightedPost || post.id.equals(highlightedPostId) || post.no == highlightedPostNo ||
-                        post.tripcode.equals(highlightedPostTripcode);
                 postViewHolder.postView.setPost(null,
                         post,
                         postCellCallback,
                         true,
-                        highlight,
+                        isHighlighted(post),
                         post.no == selectedPost,
                         -1,
                         true,
@@ -167,39 +205,59 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         } else if (itemViewType == TYPE_LAST_SEEN) {
             return -2;
         } else {
-            Post post = displayList.get(getPostPosition(position));
-            int repliesFromSize;
-            synchronized (post.repliesFrom) {
-                repliesFromSize = post.repliesFrom.size();
-            }
-            return ((long) repliesFromSize << 32L) + (long) post.no + (compact ? 1L : 0L);
+            return ((compact ? 1L : 0L) << 32L) + displayList.get(getPostPosition(position)).no;
         }
     }
 
-    public void setThread(ChanThread thread, PostsFilter filter) {
+    /**
+     * Show the posts of the thread. Unless it is the initial show, the list is updated with the
+     * changes once they are calculated.
+     */
+    public void setThread(ChanThread thread, PostsFilter filter, boolean initial) {
+        boolean wasBound = bound;
         bound = true;
         showError(null);
 
         sourceList.clear();
         sourceList.addAll(thread.posts);
 
-        displayList.clear();
-        displayList.addAll(filter.apply(sourceList));
+        List<Post> posts = filter.apply(sourceList);
+        long[] versions = new long[posts.size()];
+        for (int i = 0; i < posts.size(); i++) {
+            versions[i] = getContentVersion(posts.get(i));
+        }
 
-        lastSeenIndicatorPosition = -1;
+        int lastSeen = -1;
         if (thread.loadable.lastViewed >= 0) {
             // Do not process the last post, the indicator does not have to appear at the bottom
-            for (int i = 0, displayListSize = displayList.size() - 1; i < displayListSize; i++) {
-                Post post = displayList.get(i);
-                if (post.no == thread.loadable.lastViewed) {
-                    lastSeenIndicatorPosition = i + 1;
+            for (int i = 0, postsSize = posts.size() - 1; i < postsSize; i++) {
+                if (posts.get(i).no == thread.loadable.lastViewed) {
+                    lastSeen = i + 1;
                     break;
                 }
             }
         }
 
-        // Update all, recyclerview will figure out all the animations
-        notifyDataSetChanged();
+        cancelDiff();
+        Items newItems = new Items(posts, versions, lastSeen);
+        if (initial || !wasBound || displayList.isEmpty()) {
+            // Nothing to animate, show it right away.
+            setItems(newItems);
+            notifyDataSetChanged();
+        } else {
+            Items oldItems = new Items(new ArrayList<>(displayList), displayVersions,
+                    lastSeenIndicatorPosition);
+            diffCall = BackgroundUtils.runWithExecutor(DIFF_EXECUTOR,
+                    () -> DiffUtil.calculateDiff(new ItemsDiff(oldItems, newItems)),
+                    result -> {
+                        diffCall = null;
+                        setItems(newItems);
+                        result.dispatchUpdatesTo(this);
+                        if (showStatusView()) {
+                            notifyItemChanged(getItemCount() - 1);
+                        }
+                    });
+        }
     }
 
     public List<Post> getDisplayList() {
@@ -207,6 +265,7 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     public void cleanup() {
+        cancelDiff();
         highlightedPost = null;
         highlightedPostId = null;
         highlightedPostNo = -1;
@@ -215,6 +274,10 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         lastSeenIndicatorPosition = -1;
         error = null;
         bound = false;
+
+        displayList.clear();
+        displayVersions = new long[0];
+        notifyDataSetChanged();
     }
 
     public void showError(String error) {
@@ -233,40 +296,45 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     public void highlightPost(Post post) {
+        int[] before = getHighlightStates();
         highlightedPost = post;
         highlightedPostId = null;
         highlightedPostNo = -1;
         highlightedPostTripcode = null;
-        notifyDataSetChanged();
+        notifyHighlightChanged(before);
     }
 
     public void highlightPostId(String id) {
+        int[] before = getHighlightStates();
         highlightedPost = null;
         highlightedPostId = id;
         highlightedPostNo = -1;
         highlightedPostTripcode = null;
-        notifyDataSetChanged();
+        notifyHighlightChanged(before);
     }
 
     public void highlightPostTripcode(String tripcode) {
+        int[] before = getHighlightStates();
         highlightedPost = null;
         highlightedPostId = null;
         highlightedPostNo = -1;
         highlightedPostTripcode = tripcode;
-        notifyDataSetChanged();
+        notifyHighlightChanged(before);
     }
 
     public void highlightPostNo(int no) {
+        int[] before = getHighlightStates();
         highlightedPost = null;
         highlightedPostId = null;
         highlightedPostNo = no;
         highlightedPostTripcode = null;
-        notifyDataSetChanged();
+        notifyHighlightChanged(before);
     }
 
     public void selectPost(int no) {
+        int[] before = getHighlightStates();
         selectedPost = no;
-        notifyDataSetChanged();
+        notifyHighlightChanged(before);
     }
 
     public void setPostViewMode(ChanSettings.PostViewMode postViewMode) {
@@ -280,6 +348,16 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         }
     }
 
+    /**
+     * @return the post at the adapter position, or {@code null} if it isn't shown in a post cell.
+     */
+    public Post getPost(int position) {
+        if (position < 0 || position >= getItemCount() || getItemViewType(position) != TYPE_POST) {
+            return null;
+        }
+        return displayList.get(getPostPosition(position));
+    }
+
     public int getPostPosition(int position) {
         int postPosition = position;
         if (lastSeenIndicatorPosition >= 0 && position > lastSeenIndicatorPosition) {
@@ -296,6 +374,69 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         return postPosition;
     }
 
+    private boolean isHighlighted(Post post) {
+        return post == highlightedPost || post.id.equals(highlightedPostId) ||
+                post.no == highlightedPostNo || post.tripcode.equals(highlightedPostTripcode);
+    }
+
+    private int[] getHighlightStates() {
+        int[] states = new int[displayList.size()];
+        for (int i = 0; i < states.length; i++) {
+            Post post = displayList.get(i);
+            states[i] = (isHighlighted(post) ? 1 : 0) | (post.no == selectedPost ? 2 : 0);
+        }
+        return states;
+    }
+
+    /**
+     * Update the cells of the posts that got or lost the highlight or selection, without
+     * binding them again.
+     */
+    private void notifyHighlightChanged(int[] before) {
+        int[] after = getHighlightStates();
+        for (int i = 0; i < after.length; i++) {
+            if (before[i] != after[i]) {
+                notifyItemChanged(getScrollPosition(i), PAYLOAD_HIGHLIGHT);
+            }
+        }
+    }
+
+    private void setItems(Items items) {
+        displayList.clear();
+        displayList.addAll(items.posts);
+        displayVersions = items.versions;
+        lastSeenIndicatorPosition = items.lastSeen;
+    }
+
+    private void cancelDiff() {
+        if (diffCall != null) {
+            diffCall.cancel();
+            diffCall = null;
+        }
+    }
+
+    /**
+     * What is shown of the post that can change without the post being replaced by a new post
+     * object. The filter and the text of a post are final, a post with other text or filters is
+     * a new object.
+     */
+    private static long getContentVersion(Post post) {
+        int repliesFromSize;
+        synchronized (post.repliesFrom) {
+            repliesFromSize = post.repliesFrom.size();
+        }
+
+        // Each part is masked to its bits, a difference of exactly the range is missed.
+        return (repliesFromSize & 0xffffL) |
+                ((post.getReplies() & 0xffffL) << 16) |
+                ((post.getImagesCount() & 0xfffL) << 32) |
+                ((post.getUniqueIps() & 0xfffL) << 44) |
+                (post.deleted.get() ? 1L << 56 : 0L) |
+                (post.isSticky() ? 1L << 57 : 0L) |
+                (post.isClosed() ? 1L << 58 : 0L) |
+                (post.isArchived() ? 1L << 59 : 0L);
+    }
+
     private boolean showStatusView() {
         Loadable loadable = postAdapterCallback.getLoadable();
         // the loadable can be null while this adapter is used between cleanup and the removal
@@ -303,6 +444,84 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         return loadable != null && loadable.isThreadMode();
     }
 
+    /**
+     * The posts with the last seen indicator, the items of the adapter before the status cell.
+     */
+    private static class Items {
+        private final List<Post> posts;
+        private final long[] versions;
+        private final int lastSeen;
+
+        private Items(List<Post> posts, long[] versions, int lastSeen) {
+            this.posts = posts;
+            this.versions = versions;
+            this.lastSeen = lastSeen;
+        }
+
+        private int size() {
+            return posts.size() + (lastSeen >= 0 ? 1 : 0);
+        }
+
+        /**
+         * @return the index of the post at the item position, or -1 for the last seen indicator.
+         */
+        private int postIndex(int position) {
+            if (position == lastSeen) {
+                return -1;
+            }
+            return lastSeen >= 0 && position > lastSeen ? position - 1 : position;
+        }
+    }
+
+    private static class ItemsDiff extends DiffUtil.Callback {
+        private final Items oldItems;
+        private final Items newItems;
+
+        private ItemsDiff(Items oldItems, Items newItems) {
+            this.oldItems = oldItems;
+            this.newItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            int oldIndex = oldItems.postIndex(oldItemPosition);
+            int newIndex = newItems.postIndex(newItemPosition);
+            if (oldIndex < 0 || newIndex < 0) {
+                return oldIndex == newIndex;
+            }
+            return oldItems.posts.get(oldIndex).no == newItems.posts.get(newIndex).no;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            int oldIndex = oldItems.postIndex(oldItemPosition);
+            int newIndex = newItems.postIndex(newItemPosition);
+            if (oldIndex < 0 || newIndex < 0) {
+                return true;
+            }
+            return oldItems.posts.get(oldIndex) == newItems.posts.get(newIndex) &&
+                    oldItems.versions[oldIndex] == newItems.versions[newIndex];
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            int oldIndex = oldItems.postIndex(oldItemPosition);
+            int newIndex = newItems.postIndex(newItemPosition);
+            // A new post object is bound like any other post.
+            return oldItems.posts.get(oldIndex) == newItems.posts.get(newIndex) ? PAYLOAD_CHANGED : null;
+        }
+    }
+
     public static class PostViewHolder extends RecyclerView.ViewHolder {
         private PostCellInterface postView;
 
@@ -0,0 +1,201 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.ui.adapter;
+
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.MainThread;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.ui.cell.PostCellInterface;
+import org.floens.chan.ui.cell.PostStubCell;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.floens.chan.Chan.injector;
+import static org.floens.chan.utils.AndroidUtils.dp;
+
+/**
+ * Loads the thumbnails and builds the text layouts of the posts that are about to be scrolled
+ * into view, so that binding their cells doesn't have to wait for them. The faster the list is
+ * scrolled, the more posts ahead are prefetched. When the loader delivers new posts, the ones
+ * around the visible posts are prefetched right away.
+ * <p>What a cell needs is asked from a cell that is on screen, with
+ * {@link PostCellInterface#prefetch}, so the sizes and paints match the cells that will show
+ * the posts.
+ */
+@MainThread
+public class PostPrefetcher {
+    private static final int MIN_AHEAD = 3;
+    private static final int MAX_AHEAD = 12;
+
+    private final ImageLoader imageLoader;
+    private final int pixelsPerPost = dp(32);
+
+    // Thumbnails still loading, by url.
+    private final Map<String, ImageLoader.ImageContainer> thumbnails = new HashMap<>();
+
+    private int direction;
+    // The last position prefetched in the direction of the scroll.
+    private int prefetchedUntil = -1;
+
+    public PostPrefetcher() {
+        imageLoader = injector().instance(ImageLoader.class);
+    }
+
+    /**
+     * Prefetch the posts after the visible ones, in the direction of the scroll.
+     *
+     * @param first     the first visible adapter position
+     * @param last      the last visible adapter position
+     * @param dy        the distance scrolled
+     * @param spanCount the posts on a row
+     */
+    public void onScrolled(RecyclerView recyclerView, PostAdapter adapter,
+                           int first, int last, int dy, int spanCount) {
+        if (dy == 0 || first < 0 || last < 0) {
+            return;
+        }
+
+        int newDirection = dy > 0 ? 1 : -1;
+        if (newDirection != direction) {
+            // The posts that were loading are behind now.
+            cancel();
+            direction = newDirection;
+        }
+
+        PostCellInterface cell = findCell(recyclerView);
+        if (cell == null) {
+            return;
+        }
+
+        int ahead = Math.min(MAX_AHEAD, MIN_AHEAD + Math.abs(dy) / pixelsPerPost) * spanCount;
+        if (direction > 0) {
+            int from = Math.max(last + 1, prefetchedUntil + 1);
+            int to = Math.min(last + ahead, adapter.getItemCount() - 1);
+            for (int position = from; position <= to; position++) {
+                prefetch(cell, adapter, position);
+            }
+            prefetchedUntil = Math.max(prefetchedUntil, to);
+        } else {
+            int from = prefetchedUntil < 0 ? first - 1 : Math.min(first - 1, prefetchedUntil - 1);
+            int to = Math.max(first - ahead, 0);
+            for (int position = from; position >= to; position--) {
+                prefetch(cell, adapter, position);
+            }
+            prefetchedUntil = prefetchedUntil < 0 ? to : Math.min(prefetchedUntil, to);
+        }
+    }
+
+    /**
+     * Prefetch the posts around the visible ones, after posts were added or changed. Nothing is
+     * prefetched when there are no cells on screen yet.
+     *
+     * @param first     the first visible adapter position
+     * @param last      the last visible adapter position
+     * @param spanCount the posts on a row
+     */
+    public void onPostsChanged(RecyclerView recyclerView, PostAdapter adapter,
+                               int first, int last, int spanCount) {
+        if (first < 0 || last < 0) {
+            return;
+        }
+
+        PostCellInterface cell = findCell(recyclerView);
+        if (cell == null) {
+            return;
+        }
+
+        int to = Math.min(last + MAX_AHEAD * spanCount, adapter.getItemCount() - 1);
+        for (int position = last + 1; position <= to; position++) {
+            prefetch(cell, adapter, position);
+        }
+        to = Math.max(first - MIN_AHEAD * spanCount, 0);
+        for (int position = first - 1; position >= to; position--) {
+            prefetch(cell, adapter, position);
+        }
+    }
+
+    /**
+     * Load a thumbnail into the memory cache, at the size a thumbnail view requests it.
+     */
+    public void loadThumbnail(String url, int width, int height) {
+        if (width <= 0 || height <= 0 || thumbnails.containsKey(url)) {
+            return;
+        }
+
+        ImageLoader.ImageContainer container = imageLoader.get(url, new ImageLoader.ImageListener() {
+            @Override
+            public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+                if (response.getBitmap() != null) {
+                    thumbnails.remove(url);
+                }
+            }
+
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                thumbnails.remove(url);
+            }
+        }, width, height, ImageView.ScaleType.CENTER_CROP);
+
+        // Null when it was cached already.
+        if (container.getBitmap() == null) {
+            thumbnails.put(url, container);
+        }
+    }
+
+    /**
+     * Cancel the thumbnails that are loading, and start over with the next scroll.
+     */
+    public void cancel() {
+        List<ImageLoader.ImageContainer> containers = new ArrayList<>(thumbnails.values());
+        thumbnails.clear();
+        for (ImageLoader.ImageContainer container : containers) {
+            container.cancelRequest();
+        }
+        direction = 0;
+        prefetchedUntil = -1;
+    }
+
+    private void prefetch(PostCellInterface cell, PostAdapter adapter, int position) {
+        Post post = adapter.getPost(position);
+        if (post != null) {
+            cell.prefetch(post, this);
+        }
+    }
+
+    private PostCellInterface findCell(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            View child = recyclerView.getChildAt(i);
+            // A stub cell has nothing to prefetch.
+            if (child instanceof PostCellInterface && !(child instanceof PostStubCell) &&
+                    child.getWidth() > 0 && ((PostCellInterface) child).getPost() != null) {
+                return (PostCellInterface) child;
+            }
+        }
+        return null;
+    }
+}
@@ -17,18 +17,16 @@
  */
 package org.floens.chan.ui.adapter;
 
-import android.text.TextUtils;
+import android.util.SparseBooleanArray;
 
 import org.floens.chan.core.database.DatabaseManager;
 import org.floens.chan.core.model.Post;
-import org.floens.chan.core.model.PostImage;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 
 import javax.inject.Inject;
 
@@ -54,11 +52,16 @@ public class PostsFilter {
     DatabaseManager databaseManager;
 
     private Order order;
-    private String query;
+    private SparseBooleanArray searchMatches;
 
-    public PostsFilter(Order order, String query) {
+    /**
+     * @param searchMatches no's of the posts that matched the search, from the
+     *                      {@link org.floens.chan.core.model.PostSearchIndex}, or {@code null}
+     *                      when not searching.
+     */
+    public PostsFilter(Order order, SparseBooleanArray searchMatches) {
         this.order = order;
-        this.query = query;
+        this.searchMatches = searchMatches;
         inject(this);
     }
 
@@ -93,29 +96,10 @@ public class PostsFilter {
         }
 
         // Process search
-        if (!TextUtils.isEmpty(query)) {
-            String lowerQuery = query.toLowerCase(Locale.ENGLISH);
-
-            boolean add;
+        if (searchMatches != null) {
             Iterator<Post> i = posts.iterator();
             while (i.hasNext()) {
-                Post item = i.next();
-                add = false;
-                if (item.comment.toString().toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (item.subject.toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (item.name.toLowerCase(Locale.ENGLISH).contains(lowerQuery)) {
-                    add = true;
-                } else if (!item.images.isEmpty()) {
-                    for (PostImage image : item.images) {
-                        if (image.filename != null && image.filename.toLowerCase(Locale.ENGLISH)
-                                .contains(lowerQuery)) {
-                            add = true;
-                        }
-                    }
-                }
-                if (!add) {
+                if (!searchMatches.get(i.next().no)) {
                     i.remove();
                 }
             }
@@ -48,6 +48,8 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
+import static org.floens.chan.Chan.injector;
+
 /**
  * It directly loads the captcha2 fallback url into a webview, and on each requests it executes
  * some javascript that will tell the callback if the token is there.
@@ -59,7 +61,7 @@ public class CaptchaNojsLayoutV1 extends WebView implements AuthenticationLayout
     private String baseUrl;
     private String siteKey;
 
-    private OkHttpClient okHttpClient = new OkHttpClient();
+    private OkHttpClient okHttpClient = injector().instance(OkHttpClient.class);
 
     private String webviewUserAgent;
 
@@ -33,6 +33,7 @@ import org.floens.chan.R;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.adapter.PostPrefetcher;
 import org.floens.chan.ui.layout.FixedRatioLinearLayout;
 import org.floens.chan.ui.text.FastTextView;
 import org.floens.chan.ui.theme.Theme;
@@ -49,8 +50,6 @@ import static org.floens.chan.utils.AndroidUtils.dp;
 import static org.floens.chan.utils.AndroidUtils.setRoundItemBackground;
 
 public class CardPostCell extends CardView implements PostCellInterface, View.OnClickListener {
-    private static final int COMMENT_MAX_LENGTH = 200;
-
     private boolean bound;
     private Theme theme;
     private Post post;
@@ -182,6 +181,19 @@ public class CardPostCell extends CardView implements PostCellInterface, View.On
         }
     }
 
+    @Override
+    public void postChanged() {
+        if (post != null && bound) {
+            unbindPost(post);
+            bindPost(theme, post);
+        }
+    }
+
+    @Override
+    public void setHighlighted(boolean highlighted, boolean selected) {
+        // Not shown.
+    }
+
     public Post getPost() {
         return post;
     }
@@ -190,6 +202,16 @@ public class CardPostCell extends CardView implements PostCellInterface, View.On
         return thumbnailView;
     }
 
+    @Override
+    public void prefetch(Post post, PostPrefetcher prefetcher) {
+        if (post.image() != null && !ChanSettings.textOnly.get()) {
+            prefetcher.loadThumbnail(post.image().getThumbnailUrl().toString(),
+                    thumbnailView.getWidth(), thumbnailView.getHeight());
+        }
+
+        comment.prefetch(PostRenderSnapshot.getAny(post, ThemeHelper.theme()).cardComment);
+    }
+
     @Override
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public boolean hasOverlappingRendering() {
@@ -222,21 +244,18 @@ public class CardPostCell extends CardView implements PostCellInterface, View.On
             title.setText(null);
         }
 
-        CharSequence commentText;
-        if (post.comment.length() > COMMENT_MAX_LENGTH) {
-            commentText = post.comment.subSequence(0, COMMENT_MAX_LENGTH);
-        } else {
-            commentText = post.comment;
-        }
-
-        comment.setText(commentText);
+        PostRenderSnapshot snapshot = PostRenderSnapshot.getAny(post, theme);
+        comment.setText(snapshot.cardComment);
         comment.setTextColor(theme.textPrimary);
 
-        replies.setText(getResources().getString(R.string.card_stats, post.getReplies(), post.getImagesCount()));
+        replies.setText(snapshot.getCardStats(getResources(), post.getReplies(), post.getImagesCount()));
     }
 
     private void unbindPost(Post post) {
         bound = false;
+
+        // Cancels the thumbnail if it is still loading, and frees its bitmap for reuse.
+        thumbnailView.setPostImage(null, 0, 0);
     }
 
     private void setCompact(boolean compact) {
@@ -33,15 +33,10 @@ import androidx.annotation.NonNull;
 
 import android.text.Layout;
 import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.Spanned;
-import android.text.TextPaint;
-import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.text.method.LinkMovementMethod;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.ClickableSpan;
-import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
 import android.view.ActionMode;
 import android.view.Menu;
@@ -62,9 +57,7 @@ import org.floens.chan.core.model.PostHttpIcon;
 import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.model.PostLinkable;
 import org.floens.chan.core.settings.ChanSettings;
-import org.floens.chan.ui.helper.PostHelper;
-import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
-import org.floens.chan.ui.span.ForegroundColorSpanHashed;
+import org.floens.chan.ui.adapter.PostPrefetcher;
 import org.floens.chan.ui.text.FastTextView;
 import org.floens.chan.ui.text.FastTextViewMovementMethod;
 import org.floens.chan.ui.theme.Theme;
@@ -76,7 +69,6 @@ import org.floens.chan.ui.view.ThumbnailView;
 import org.floens.chan.utils.AndroidUtils;
 import org.floens.chan.utils.Time;
 
-import java.text.BreakIterator;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -87,13 +79,11 @@ import static org.floens.chan.Chan.injector;
 import static org.floens.chan.utils.AndroidUtils.ROBOTO_CONDENSED_REGULAR;
 import static org.floens.chan.utils.AndroidUtils.dp;
 import static org.floens.chan.utils.AndroidUtils.enableHighEndAnimations;
-import static org.floens.chan.utils.AndroidUtils.getString;
 import static org.floens.chan.utils.AndroidUtils.setRoundItemBackground;
 import static org.floens.chan.utils.AndroidUtils.sp;
 
 public class PostCell extends LinearLayout implements PostCellInterface {
     private static final String TAG = "PostCell";
-    private static final int COMMENT_MAX_LENGTH_BOARD = 350;
 
     private List<PostImageThumbnailView> thumbnailViews = new ArrayList<>(1);
 
@@ -301,6 +291,25 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         bindPost(theme, post);
     }
 
+    @Override
+    public void postChanged() {
+        if (post != null && bound) {
+            unbindPost(post);
+            bindPost(theme, post);
+        }
+    }
+
+    @Override
+    public void setHighlighted(boolean highlighted, boolean selected) {
+        if (this.highlighted != highlighted || this.selected != selected) {
+            this.highlighted = highlighted;
+            this.selected = selected;
+            if (post != null && bound) {
+                bindBackground(theme, post);
+            }
+        }
+    }
+
     public Post getPost() {
         return post;
     }
@@ -315,6 +324,22 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         return null;
     }
 
+    @Override
+    public void prefetch(Post post, PostPrefetcher prefetcher) {
+        int size = getResources().getDimensionPixelSize(R.dimen.cell_post_thumbnail_size);
+        boolean showThumbnails = !post.images.isEmpty() && !ChanSettings.textOnly.get();
+        if (showThumbnails) {
+            for (PostImage image : post.images) {
+                prefetcher.loadThumbnail(image.getThumbnailUrl().toString(), size, size);
+            }
+        }
+
+        // The title is to the right of the thumbnails.
+        int titleWidth = relativeLayoutContainer.getWidth() - (showThumbnails ? size + paddingPx : 0);
+        PostRenderSnapshot snapshot = PostRenderSnapshot.get(post, theme, detailsSizePx);
+        title.prefetch(snapshot.getTitle(Time.get()), titleWidth);
+    }
+
     @Override
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public boolean hasOverlappingRendering() {
@@ -335,17 +360,7 @@ public class PostCell extends LinearLayout implements PostCellInterface {
             replies.setBackgroundResource(0);
         }
 
-        if (highlighted) {
-            setBackgroundColor(theme.highlightedColor);
-        } else if (post.isSavedReply) {
-            setBackgroundColor(theme.savedReplyColor);
-        } else if (selected) {
-            setBackgroundColor(theme.selectedColor);
-        } else if (threadMode) {
-            setBackgroundResource(0);
-        } else {
-            setBackgroundResource(R.drawable.item_background);
-        }
+        bindBackground(theme, post);
 
         if (post.filterHighlightedColor != 0) {
             filterMatchColor.setVisibility(View.VISIBLE);
@@ -356,69 +371,8 @@ public class PostCell extends LinearLayout implements PostCellInterface {
 
         buildThumbnails();
 
-        List<CharSequence> titleParts = new ArrayList<>(5);
-
-        if (post.subjectSpan != null) {
-            titleParts.add(post.subjectSpan);
-            titleParts.add("\n");
-        }
-
-        titleParts.add(post.nameTripcodeIdCapcodeSpan);
-
-        CharSequence time;
-        if (ChanSettings.postFullDate.get()) {
-            time = PostHelper.getLocalDate(post);
-        } else {
-            // Disabled for performance reasons
-            // Force the relative date to use the english locale, and restore the previous one.
-            /*Configuration c = Resources.getSystem().getConfiguration();
-            Locale previousLocale = c.locale;
-            c.locale = Locale.ENGLISH;
-            Resources.getSystem().updateConfiguration(c, null);
-            time = DateUtils.getRelativeTimeSpanString(post.time * 1000L, Time.get(), DateUtils.SECOND_IN_MILLIS, 0);
-            c.locale = previousLocale;
-            Resources.getSystem().updateConfiguration(c, null);*/
-            time = DateUtils.getRelativeTimeSpanString(post.time * 1000L, Time.get(), DateUtils.SECOND_IN_MILLIS, 0);
-        }
-
-        String noText = "#" + post.no;
-        SpannableString date = new SpannableString(noText + " " + time);
-        date.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, date.length(), 0);
-        date.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, date.length(), 0);
-
-        boolean noClickable = ChanSettings.tapNoReply.get();
-        if (noClickable) {
-            date.setSpan(new NoClickableSpan(), 0, noText.length(), 0);
-        }
-
-        titleParts.add(date);
-
-        if (!post.images.isEmpty()) {
-            for (int i = 0; i < post.images.size(); i++) {
-                PostImage image = post.images.get(i);
-
-                boolean postFileName = ChanSettings.postFilename.get();
-                if (postFileName) {
-                    String filename = image.spoiler ? getString(R.string.image_spoiler_filename) : image.filename + "." + image.extension;
-                    SpannableString fileInfo = new SpannableString("\n" + filename);
-                    fileInfo.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, fileInfo.length(), 0);
-                    fileInfo.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, fileInfo.length(), 0);
-                    fileInfo.setSpan(new UnderlineSpan(), 0, fileInfo.length(), 0);
-                    titleParts.add(fileInfo);
-                }
-
-                if (ChanSettings.postFileInfo.get()) {
-                    SpannableString fileInfo = new SpannableString((postFileName ? " " : "\n") + image.extension.toUpperCase() + " " +
-                            AndroidUtils.getReadableFileSize(image.size) + " " +
-                            image.imageWidth + "x" + image.imageHeight);
-                    fileInfo.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, fileInfo.length(), 0);
-                    fileInfo.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, fileInfo.length(), 0);
-                    titleParts.add(fileInfo);
-                }
-            }
-        }
-
-        title.setText(TextUtils.concat(titleParts.toArray(new CharSequence[titleParts.size()])));
+        PostRenderSnapshot snapshot = PostRenderSnapshot.get(post, theme, detailsSizePx);
+        title.setText(snapshot.getTitle(Time.get()));
 
         icons.edit();
         icons.set(PostIcons.STICKY, post.isSticky());
@@ -433,12 +387,7 @@ public class PostCell extends LinearLayout implements PostCellInterface {
 
         icons.apply();
 
-        CharSequence commentText;
-        if (!threadMode && post.comment.length() > COMMENT_MAX_LENGTH_BOARD) {
-            commentText = truncatePostComment(post, COMMENT_MAX_LENGTH_BOARD);
-        } else {
-            commentText = post.comment;
-        }
+        CharSequence commentText = threadMode ? post.comment : snapshot.getBoardComment();
 
         comment.setVisibility(isEmpty(commentText) && post.images == null ? GONE : VISIBLE);
 
@@ -494,7 +443,7 @@ public class PostCell extends LinearLayout implements PostCellInterface {
             // And this sets clickable to appropriate values again.
             comment.setOnClickListener(selfClicked);
 
-            if (noClickable) {
+            if (ChanSettings.tapNoReply.get()) {
                 title.setMovementMethod(titleMovementMethod);
             }
         } else {
@@ -521,13 +470,8 @@ public class PostCell extends LinearLayout implements PostCellInterface {
             replies.setVisibility(View.VISIBLE);
 
             int replyCount = threadMode ? repliesFromSize : post.getReplies();
-            String text = getResources().getQuantityString(R.plurals.reply, replyCount, replyCount);
-
-            if (!threadMode && post.getImagesCount() > 0) {
-                text += ", " + getResources().getQuantityString(R.plurals.image, post.getImagesCount(), post.getImagesCount());
-            }
-
-            replies.setText(text);
+            int imageCount = threadMode ? 0 : post.getImagesCount();
+            replies.setText(snapshot.getRepliesText(getResources(), replyCount, imageCount));
             comment.setPadding(comment.getPaddingLeft(), comment.getPaddingTop(), comment.getPaddingRight(), 0);
             replies.setPadding(replies.getPaddingLeft(), paddingPx, replies.getPaddingRight(), replies.getPaddingBottom());
         } else {
@@ -541,6 +485,7 @@ public class PostCell extends LinearLayout implements PostCellInterface {
 
     private void buildThumbnails() {
         for (PostImageThumbnailView thumbnailView : thumbnailViews) {
+            thumbnailView.setPostImage(null, 0, 0);
             relativeLayoutContainer.removeView(thumbnailView);
         }
         thumbnailViews.clear();
@@ -586,11 +531,30 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         }
     }
 
+    private void bindBackground(Theme theme, Post post) {
+        if (highlighted) {
+            setBackgroundColor(theme.highlightedColor);
+        } else if (post.isSavedReply) {
+            setBackgroundColor(theme.savedReplyColor);
+        } else if (selected) {
+            setBackgroundColor(theme.selectedColor);
+        } else if (threadMode) {
+            setBackgroundResource(0);
+        } else {
+            setBackgroundResource(R.drawable.item_background);
+        }
+    }
+
     private void unbindPost(Post post) {
         bound = false;
 
         icons.cancelRequests();
 
+        // Cancels the thumbnails that are still loading, and frees their bitmaps for reuse.
+        for (PostImageThumbnailView thumbnailView : thumbnailViews) {
+            thumbnailView.setPostImage(null, 0, 0);
+        }
+
         setPostLinkableListener(post, false);
     }
 
@@ -611,15 +575,6 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         }
     }
 
-    private CharSequence truncatePostComment(Post post, int maxCommentLength) {
-        BreakIterator bi = BreakIterator.getWordInstance();
-        bi.setText(post.comment.toString());
-        int precedingBoundary = bi.following(maxCommentLength);
-        // Fallback to old method in case the comment does not have any spaces/individual words
-        CharSequence commentText = precedingBoundary > 0 ? post.comment.subSequence(0, precedingBoundary) : post.comment.subSequence(0, maxCommentLength);
-        return TextUtils.concat(commentText, "\u2026"); // append ellipsis
-    }
-
     private static BackgroundColorSpan BACKGROUND_SPAN = new BackgroundColorSpan(0x6633B5E5);
 
     /**
@@ -723,7 +678,11 @@ public class PostCell extends LinearLayout implements PostCellInterface {
                 ClickableSpan[] link = buffer.getSpans(off, off, ClickableSpan.class);
 
                 if (link.length != 0) {
-                    link[0].onClick(widget);
+                    if (link[0] instanceof PostRenderSnapshot.NoClickableSpan) {
+                        callback.onPostNoClicked(post);
+                    } else {
+                        link[0].onClick(widget);
+                    }
                     return true;
                 }
             }
@@ -732,18 +691,6 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         }
     }
 
-    private class NoClickableSpan extends ClickableSpan {
-        @Override
-        public void onClick(View widget) {
-            callback.onPostNoClicked(post);
-        }
-
-        @Override
-        public void updateDrawState(TextPaint ds) {
-            ds.setUnderlineText(false);
-        }
-    }
-
     private static Bitmap stickyIcon;
     private static Bitmap closedIcon;
     private static Bitmap trashIcon;
@@ -22,6 +22,7 @@ import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.model.PostLinkable;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.adapter.PostPrefetcher;
 import org.floens.chan.ui.theme.Theme;
 import org.floens.chan.ui.view.FloatingMenuItem;
 import org.floens.chan.ui.view.ThumbnailView;
@@ -40,10 +41,26 @@ public interface PostCellInterface {
                  ChanSettings.PostViewMode postViewMode,
                  boolean compact);
 
+    /**
+     * Bind the post that is shown again, it changed without being replaced, for example because
+     * it got new replies.
+     */
+    void postChanged();
+
+    /**
+     * Only update if the post that is shown is highlighted or selected.
+     */
+    void setHighlighted(boolean highlighted, boolean selected);
+
     Post getPost();
 
     ThumbnailView getThumbnailView(PostImage postImage);
 
+    /**
+     * Start loading what this cell would need to show the post, with the sizes of this cell.
+     */
+    void prefetch(Post post, PostPrefetcher prefetcher);
+
     interface PostCellCallback {
         Loadable getLoadable();
 
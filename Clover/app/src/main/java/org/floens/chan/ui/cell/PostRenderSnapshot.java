@@ -0,0 +1,311 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.ui.cell;
+
+import android.content.res.Resources;
+import android.text.SpannableString;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.style.ClickableSpan;
+import android.text.style.UnderlineSpan;
+import android.view.View;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+
+import org.floens.chan.R;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.helper.PostHelper;
+import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
+import org.floens.chan.ui.span.ForegroundColorSpanHashed;
+import org.floens.chan.ui.theme.Theme;
+import org.floens.chan.utils.AndroidUtils;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.floens.chan.utils.AndroidUtils.getString;
+import static org.floens.chan.utils.AndroidUtils.sp;
+
+/**
+ * What the post cells show of a post, made before the post is bound so that binding a cell
+ * while scrolling makes no spans: the title with the subject, name, date and file info, the
+ * comment shortened for the catalog and the text of the replies.
+ * <p>The parser makes it on the loader thread for the theme, text size and post settings of
+ * that moment, a cell makes a new one when they changed. The date, the replies text and the
+ * shortened board comment are made when a cell first needs them, the date and replies text again
+ * only when their text changes.
+ */
+public class PostRenderSnapshot implements Post.RenderSnapshot {
+    static final int COMMENT_MAX_LENGTH_BOARD = 350;
+    static final int COMMENT_MAX_LENGTH_CARD = 200;
+
+    private static final int FULL_DATE = 1;
+    private static final int FILENAME = 1 << 1;
+    private static final int FILE_INFO = 1 << 2;
+    private static final int NO_CLICKABLE = 1 << 3;
+
+    private final Theme theme;
+    private final int detailsSizePx;
+    private final int flags;
+    private final int no;
+    private final long time;
+
+    private final CharSequence beforeDate;
+    private final CharSequence afterDate;
+    private final CharSequence comment;
+    public final CharSequence cardComment;
+
+    // Main thread only.
+    private CharSequence boardComment;
+    private CharSequence title;
+    private long titleValidUntil;
+    private String repliesText;
+    private int repliesTextReplies;
+    private int repliesTextImages;
+    private String cardStats;
+    private int cardStatsReplies;
+    private int cardStatsImages;
+
+    PostRenderSnapshot(Theme theme, int detailsSizePx, int flags, int no, long time,
+                       CharSequence beforeDate, CharSequence afterDate,
+                       CharSequence comment, CharSequence cardComment) {
+        this.theme = theme;
+        this.detailsSizePx = detailsSizePx;
+        this.flags = flags;
+        this.no = no;
+        this.time = time;
+        this.beforeDate = beforeDate;
+        this.afterDate = afterDate;
+        this.comment = comment;
+        this.cardComment = cardComment;
+    }
+
+    /**
+     * Make the snapshot of the post for the theme, the size of the details text and the current
+     * post settings.
+     */
+    @AnyThread
+    public static PostRenderSnapshot create(Theme theme, Post post, int detailsSizePx) {
+        int flags = currentFlags();
+
+        CharSequence beforeDate = post.subjectSpan != null ?
+                TextUtils.concat(post.subjectSpan, "\n", post.nameTripcodeIdCapcodeSpan) :
+                post.nameTripcodeIdCapcodeSpan;
+
+        List<CharSequence> fileParts = new ArrayList<>(post.images.size() * 2);
+        for (PostImage image : post.images) {
+            boolean postFileName = (flags & FILENAME) != 0;
+            if (postFileName) {
+                String filename = image.spoiler ? getString(R.string.image_spoiler_filename) : image.filename + "." + image.extension;
+                SpannableString fileInfo = new SpannableString("\n" + filename);
+                fileInfo.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, fileInfo.length(), 0);
+                fileInfo.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, fileInfo.length(), 0);
+                fileInfo.setSpan(new UnderlineSpan(), 0, fileInfo.length(), 0);
+                fileParts.add(fileInfo);
+            }
+
+            if ((flags & FILE_INFO) != 0) {
+                SpannableString fileInfo = new SpannableString((postFileName ? " " : "\n") + image.extension.toUpperCase() + " " +
+                        AndroidUtils.getReadableFileSize(image.size) + " " +
+                        image.imageWidth + "x" + image.imageHeight);
+                fileInfo.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, fileInfo.length(), 0);
+                fileInfo.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, fileInfo.length(), 0);
+                fileParts.add(fileInfo);
+            }
+        }
+        CharSequence afterDate = TextUtils.concat(fileParts.toArray(new CharSequence[fileParts.size()]));
+
+        CharSequence cardComment = post.comment.length() > COMMENT_MAX_LENGTH_CARD ?
+                post.comment.subSequence(0, COMMENT_MAX_LENGTH_CARD) : post.comment;
+
+        return new PostRenderSnapshot(theme, detailsSizePx, flags, post.no, post.time * 1000L,
+                beforeDate, afterDate, post.comment, cardComment);
+    }
+
+    /**
+     * @return the snapshot of the post for the theme and size, made again if the post has none
+     * for them or the post settings changed.
+     */
+    @MainThread
+    static PostRenderSnapshot get(Post post, Theme theme, int detailsSizePx) {
+        PostRenderSnapshot snapshot = (PostRenderSnapshot) post.getRenderSnapshot();
+        if (snapshot == null || !snapshot.isFor(theme, detailsSizePx, currentFlags())) {
+            snapshot = create(theme, post, detailsSizePx);
+            post.setRenderSnapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a snapshot of the post, for the parts that are the same for every theme and setting.
+     */
+    @MainThread
+    static PostRenderSnapshot getAny(Post post, Theme theme) {
+        PostRenderSnapshot snapshot = (PostRenderSnapshot) post.getRenderSnapshot();
+        if (snapshot == null) {
+            snapshot = create(theme, post, sp(Integer.parseInt(ChanSettings.fontSize.get()) - 4));
+            post.setRenderSnapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+    static int currentFlags() {
+        return (ChanSettings.postFullDate.get() ? FULL_DATE : 0) |
+                (ChanSettings.postFilename.get() ? FILENAME : 0) |
+                (ChanSettings.postFileInfo.get() ? FILE_INFO : 0) |
+                (ChanSettings.tapNoReply.get() ? NO_CLICKABLE : 0);
+    }
+
+    boolean isFor(Theme theme, int detailsSizePx, int flags) {
+        return this.theme == theme && this.detailsSizePx == detailsSizePx && this.flags == flags;
+    }
+
+    /**
+     * @return the comment shortened for the board view, the thread view shows all of it.
+     */
+    @MainThread
+    public CharSequence getBoardComment() {
+        if (boardComment == null) {
+            boardComment = comment.length() > COMMENT_MAX_LENGTH_BOARD ?
+                    truncateComment(comment, COMMENT_MAX_LENGTH_BOARD) : comment;
+        }
+        return boardComment;
+    }
+
+    /**
+     * @return the title, with the date at the time.
+     */
+    @MainThread
+    public CharSequence getTitle(long now) {
+        if (title == null || now >= titleValidUntil) {
+            title = buildTitle(now);
+            titleValidUntil = (flags & FULL_DATE) != 0 ? Long.MAX_VALUE : getRelativeDateValidUntil(time, now);
+        }
+        return title;
+    }
+
+    /**
+     * @param imageCount the images to add to the text, 0 to only show the replies.
+     */
+    @MainThread
+    public String getRepliesText(Resources resources, int replyCount, int imageCount) {
+        if (repliesText == null || repliesTextReplies != replyCount || repliesTextImages != imageCount) {
+            repliesText = buildRepliesText(resources, replyCount, imageCount);
+            repliesTextReplies = replyCount;
+            repliesTextImages = imageCount;
+        }
+        return repliesText;
+    }
+
+    @MainThread
+    public String getCardStats(Resources resources, int replyCount, int imageCount) {
+        if (cardStats == null || cardStatsReplies != replyCount || cardStatsImages != imageCount) {
+            cardStats = buildCardStats(resources, replyCount, imageCount);
+            cardStatsReplies = replyCount;
+            cardStatsImages = imageCount;
+        }
+        return cardStats;
+    }
+
+    CharSequence buildTitle(long now) {
+        CharSequence date;
+        if ((flags & FULL_DATE) != 0) {
+            date = PostHelper.getLocalDate(time / 1000L);
+        } else {
+            date = DateUtils.getRelativeTimeSpanString(time, now, DateUtils.SECOND_IN_MILLIS, 0);
+        }
+
+        String noText = "#" + no;
+        SpannableString details = new SpannableString(noText + " " + date);
+        details.setSpan(new ForegroundColorSpanHashed(theme.detailsColor), 0, details.length(), 0);
+        details.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, details.length(), 0);
+        if ((flags & NO_CLICKABLE) != 0) {
+            details.setSpan(new NoClickableSpan(), 0, noText.length(), 0);
+        }
+
+        return TextUtils.concat(beforeDate, details, afterDate);
+    }
+
+    String buildRepliesText(Resources resources, int replyCount, int imageCount) {
+        String text = resources.getQuantityString(R.plurals.reply, replyCount, replyCount);
+        if (imageCount > 0) {
+            text += ", " + resources.getQuantityString(R.plurals.image, imageCount, imageCount);
+        }
+        return text;
+    }
+
+    String buildCardStats(Resources resources, int replyCount, int imageCount) {
+        return resources.getString(R.string.card_stats, replyCount, imageCount);
+    }
+
+    /**
+     * @return until when the relative date of the time, with a resolution of seconds, has the
+     * same text as at now.
+     */
+    static long getRelativeDateValidUntil(long time, long now) {
+        long age = now - time;
+        if (age < 0) {
+            return now + DateUtils.SECOND_IN_MILLIS;
+        }
+
+        long step;
+        if (age < DateUtils.MINUTE_IN_MILLIS) {
+            step = DateUtils.SECOND_IN_MILLIS;
+        } else if (age < DateUtils.HOUR_IN_MILLIS) {
+            step = DateUtils.MINUTE_IN_MILLIS;
+        } else if (age < DateUtils.DAY_IN_MILLIS) {
+            step = DateUtils.HOUR_IN_MILLIS;
+        } else {
+            // Days are counted in calendar days, after a week it is the date.
+            long local = now + TimeZone.getDefault().getOffset(now);
+            long nextMidnight = now - local % DateUtils.DAY_IN_MILLIS + DateUtils.DAY_IN_MILLIS;
+            return age < DateUtils.WEEK_IN_MILLIS ?
+                    Math.min(nextMidnight, time + DateUtils.WEEK_IN_MILLIS) : nextMidnight;
+        }
+        return now + step - age % step;
+    }
+
+    private static CharSequence truncateComment(CharSequence comment, int maxCommentLength) {
+        BreakIterator bi = BreakIterator.getWordInstance();
+        bi.setText(comment.toString());
+        int precedingBoundary = bi.following(maxCommentLength);
+        // Fallback to old method in case the comment does not have any spaces/individual words
+        CharSequence commentText = precedingBoundary > 0 ? comment.subSequence(0, precedingBoundary) : comment.subSequence(0, maxCommentLength);
+        return TextUtils.concat(commentText, "\u2026"); // append ellipsis
+    }
+
+    /**
+     * The post no in the title, the cell that shows the title handles the click.
+     */
+    static class NoClickableSpan extends ClickableSpan {
+        @Override
+        public void onClick(View widget) {
+        }
+
+        @Override
+        public void updateDrawState(TextPaint ds) {
+            ds.setUnderlineText(false);
+        }
+    }
+}
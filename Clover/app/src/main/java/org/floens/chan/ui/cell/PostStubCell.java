@@ -31,6 +31,7 @@ import org.floens.chan.R;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.adapter.PostPrefetcher;
 import org.floens.chan.ui.theme.Theme;
 import org.floens.chan.ui.theme.ThemeHelper;
 import org.floens.chan.ui.view.FloatingMenu;
@@ -171,6 +172,19 @@ public class PostStubCell extends RelativeLayout implements PostCellInterface, V
         bindPost(theme, post);
     }
 
+    @Override
+    public void postChanged() {
+        if (post != null && bound) {
+            unbindPost(post);
+            bindPost(theme, post);
+        }
+    }
+
+    @Override
+    public void setHighlighted(boolean highlighted, boolean selected) {
+        // Not shown.
+    }
+
     public Post getPost() {
         return post;
     }
@@ -179,6 +193,10 @@ public class PostStubCell extends RelativeLayout implements PostCellInterface, V
         return null;
     }
 
+    @Override
+    public void prefetch(Post post, PostPrefetcher prefetcher) {
+    }
+
     @Override
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public boolean hasOverlappingRendering() {
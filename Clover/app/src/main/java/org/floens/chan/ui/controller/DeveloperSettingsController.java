@@ -26,7 +26,13 @@ import android.widget.TextView;
 
 import org.floens.chan.R;
 import org.floens.chan.controller.Controller;
+import org.floens.chan.core.cache.ThumbnailCache;
 import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.manager.WatchManager;
+import org.floens.chan.core.net.BitmapPool;
+import org.floens.chan.core.net.HttpTransport;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.loader.ChanLoaderStatistics;
 
 import javax.inject.Inject;
 
@@ -40,6 +46,18 @@ public class DeveloperSettingsController extends Controller {
     @Inject
     DatabaseManager databaseManager;
 
+    @Inject
+    ThumbnailCache thumbnailCache;
+
+    @Inject
+    BitmapPool bitmapPool;
+
+    @Inject
+    WatchManager watchManager;
+
+    @Inject
+    HttpTransport httpTransport;
+
     public DeveloperSettingsController(Context context) {
         super(context);
     }
@@ -78,11 +96,22 @@ public class DeveloperSettingsController extends Controller {
 
         wrapper.addView(crashButton);
 
+        Button streamingLoaderButton = new Button(context);
+        streamingLoaderButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ChanSettings.streamingLoader.set(!ChanSettings.streamingLoader.get());
+                setStreamingLoaderText(streamingLoaderButton);
+            }
+        });
+        setStreamingLoaderText(streamingLoaderButton);
+        wrapper.addView(streamingLoaderButton);
+
         summaryText = new TextView(context);
         summaryText.setPadding(0, dp(25), 0, 0);
         wrapper.addView(summaryText);
 
-        setDbSummary();
+        setSummary();
 
         Button resetDbButton = new Button(context);
         resetDbButton.setOnClickListener(new View.OnClickListener() {
@@ -101,10 +130,24 @@ public class DeveloperSettingsController extends Controller {
         view.setBackgroundColor(getAttrColor(context, R.attr.backcolor));
     }
 
-    private void setDbSummary() {
-        String dbSummary = "";
-        dbSummary += "Database summary:\n";
-        dbSummary += databaseManager.getSummary();
-        summaryText.setText(dbSummary);
+    private void setStreamingLoaderText(Button button) {
+        button.setText("Streaming loader: " + (ChanSettings.streamingLoader.get() ? "enabled" : "disabled"));
+    }
+
+    private void setSummary() {
+        String summary = "";
+        summary += "Database summary:\n";
+        summary += databaseManager.getSummary();
+        summary += "\nHttp summary:\n";
+        summary += httpTransport.getSummary();
+        summary += "\nLoader summary:\n";
+        summary += ChanLoaderStatistics.getSummary();
+        summary += "\nThumbnail cache summary:\n";
+        summary += thumbnailCache.getSummary();
+        summary += "\nBitmap pool summary:\n";
+        summary += bitmapPool.getSummary();
+        summary += "\nWatch summary:\n";
+        summary += watchManager.getSummary();
+        summaryText.setText(summary);
     }
 }
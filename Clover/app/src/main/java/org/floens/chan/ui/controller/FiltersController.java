@@ -163,8 +163,8 @@ public class FiltersController extends Controller implements
     private void setFilters(List<Filter> filters, boolean enabled) {
         for (Filter filter : filters) {
             filter.enabled = enabled;
-            filterEngine.createOrUpdateFilter(filter);
         }
+        filterEngine.createOrUpdateFilters(filters);
         adapter.load();
     }
 
@@ -181,7 +181,7 @@ public class FiltersController extends Controller implements
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         filterEngine.createOrUpdateFilter(filterLayout.getFilter());
-                        if (filterEngine.getEnabledFilters().isEmpty()) {
+                        if (filterEngine.getSnapshot().getFilters().isEmpty()) {
                             enable.setImageResource(R.drawable.ic_done_white_24dp);
                         } else {
                             enable.setImageResource(R.drawable.ic_clear_white_24dp);
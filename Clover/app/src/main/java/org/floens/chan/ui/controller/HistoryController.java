@@ -34,6 +34,7 @@ import android.widget.TextView;
 
 import org.floens.chan.R;
 import org.floens.chan.controller.Controller;
+import org.floens.chan.core.database.DatabaseArchiveManager;
 import org.floens.chan.core.database.DatabaseHistoryManager;
 import org.floens.chan.core.database.DatabaseManager;
 import org.floens.chan.core.database.DatabaseSavedReplyManager;
@@ -48,8 +49,10 @@ import org.floens.chan.ui.view.CrossfadeView;
 import org.floens.chan.ui.view.ThumbnailView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -69,6 +72,7 @@ public class HistoryController extends Controller implements
     BoardManager boardManager;
 
     private DatabaseHistoryManager databaseHistoryManager;
+    private DatabaseArchiveManager databaseArchiveManager;
     private DatabaseSavedReplyManager databaseSavedReplyManager;
 
     private CrossfadeView crossfade;
@@ -85,6 +89,7 @@ public class HistoryController extends Controller implements
         inject(this);
 
         databaseHistoryManager = databaseManager.getDatabaseHistoryManager();
+        databaseArchiveManager = databaseManager.getDatabaseArchiveManager();
         databaseSavedReplyManager = databaseManager.getDatabaseSavedReplyManager();
 
         // Navigation
@@ -127,6 +132,7 @@ public class HistoryController extends Controller implements
                 .setNegativeButton(R.string.cancel, null)
                 .setPositiveButton(R.string.history_clear_confirm_button, (dialog, which) -> {
                     databaseManager.runTaskAsync(databaseHistoryManager.clearHistory());
+                    databaseManager.runTaskAsync(databaseArchiveManager.clearArchive());
                     adapter.load();
                 })
                 .show();
@@ -173,6 +179,8 @@ public class HistoryController extends Controller implements
         private List<History> sourceList = new ArrayList<>();
         private List<History> displayList = new ArrayList<>();
         private String searchQuery;
+        // Loadables with a post that matches the search, from the archive of loaded threads.
+        private Set<Integer> archiveMatches = Collections.emptySet();
 
         private boolean resultPending = false;
 
@@ -207,7 +215,17 @@ public class HistoryController extends Controller implements
 
         public void search(String query) {
             this.searchQuery = query;
+            archiveMatches = Collections.emptySet();
             filter();
+
+            if (!TextUtils.isEmpty(query)) {
+                databaseManager.runTaskAsync(databaseArchiveManager.searchThreads(query), result -> {
+                    if (query.equals(searchQuery)) {
+                        archiveMatches = result;
+                        filter();
+                    }
+                });
+            }
         }
 
         private void load() {
@@ -231,7 +249,8 @@ public class HistoryController extends Controller implements
             if (!TextUtils.isEmpty(searchQuery)) {
                 String query = searchQuery.toLowerCase(Locale.ENGLISH);
                 for (History history : sourceList) {
-                    if (history.loadable.title.toLowerCase(Locale.ENGLISH).contains(query)) {
+                    if (history.loadable.title.toLowerCase(Locale.ENGLISH).contains(query) ||
+                            archiveMatches.contains(history.loadable.id)) {
                         displayList.add(history);
                     }
                 }
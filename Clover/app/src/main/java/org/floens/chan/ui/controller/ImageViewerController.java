@@ -47,6 +47,7 @@ import com.davemorrissey.labs.subscaleview.ImageViewState;
 import org.floens.chan.R;
 import org.floens.chan.controller.Controller;
 import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.net.BitmapPool;
 import org.floens.chan.core.presenter.ImageViewerPresenter;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.ImageSearch;
@@ -89,9 +90,14 @@ public class ImageViewerController extends Controller implements ImageViewerPres
     @Inject
     ImageLoader imageLoader;
 
+    @Inject
+    BitmapPool bitmapPool;
+
     private int statusBarColorPrevious;
     private AnimatorSet startAnimation;
     private AnimatorSet endAnimation;
+    // The bitmap of the thumbnail the transition is from, referenced in the pool while it's used.
+    private Bitmap transitionBitmap;
 
     private ImageViewerCallback imageViewerCallback;
     private GoPostCallback goPostCallback;
@@ -214,6 +220,7 @@ public class ImageViewerController extends Controller implements ImageViewerPres
         super.onDestroy();
 
         getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        releaseTransitionBitmap();
     }
 
     @Override
@@ -237,6 +244,9 @@ public class ImageViewerController extends Controller implements ImageViewerPres
 
     public void setPreviewVisibility(boolean visible) {
         previewImage.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+        if (!visible) {
+            releaseTransitionBitmap();
+        }
     }
 
     public void setPagerVisiblity(boolean visible) {
@@ -483,6 +493,7 @@ public class ImageViewerController extends Controller implements ImageViewerPres
 
     private void previewOutAnimationEnded(PostImage postImage) {
         setBackgroundAlpha(0f);
+        releaseTransitionBitmap();
 
         imageViewerCallback.onPreviewDestroy(this, postImage);
         navigationController.stopPresenting(false);
@@ -502,10 +513,23 @@ public class ImageViewerController extends Controller implements ImageViewerPres
         startView.getLocationInWindow(loc);
         Point windowLocation = new Point(loc[0], loc[1]);
         Point size = new Point(startView.getWidth(), startView.getHeight());
+
+        // The cell can be recycled during the transition, keep the pool from reusing the bitmap.
+        bitmapPool.acquire(bitmap);
+        releaseTransitionBitmap();
+        transitionBitmap = bitmap;
+
         previewImage.setSourceImageView(windowLocation, size, bitmap, startView.getRounding());
         return true;
     }
 
+    private void releaseTransitionBitmap() {
+        if (transitionBitmap != null) {
+            bitmapPool.release(transitionBitmap);
+            transitionBitmap = null;
+        }
+    }
+
     private void setBackgroundAlpha(float alpha) {
         navigationController.view.setBackgroundColor(Color.argb((int) (alpha * TRANSITION_FINAL_ALPHA * 255f), 0, 0, 0));
 
@@ -176,6 +176,8 @@ public class MediaSettingsController extends SettingsController implements
                     R.string.setting_video_auto_loop,
                     R.string.setting_video_auto_loop_description));
 
+            setupThumbnailCacheSizeSetting(loading);
+
             groups.add(loading);
         }
     }
@@ -214,6 +216,17 @@ public class MediaSettingsController extends SettingsController implements
         updateVideoLoadModes();
     }
 
+    private void setupThumbnailCacheSizeSetting(SettingsGroup loading) {
+        List<ListSettingView.Item> sizes = new ArrayList<>();
+        for (int size : new int[]{50, 100, 250, 500}) {
+            sizes.add(new ListSettingView.Item<>(
+                    context.getString(R.string.setting_thumbnail_cache_size_item, size), size));
+        }
+        requiresRestart.add(loading.add(new ListSettingView<>(this,
+                ChanSettings.thumbnailCacheSize,
+                R.string.setting_thumbnail_cache_size, sizes)));
+    }
+
     private void updateVideoLoadModes() {
         ChanSettings.MediaAutoLoadMode currentImageLoadMode = ChanSettings.imageAutoLoadNetwork.get();
         ChanSettings.MediaAutoLoadMode[] modes = ChanSettings.MediaAutoLoadMode.values();
@@ -93,7 +93,11 @@ public class PostHelper {
     private static Date tmpDate = new Date();
 
     public static String getLocalDate(Post post) {
-        tmpDate.setTime(post.time * 1000L);
+        return getLocalDate(post.time);
+    }
+
+    public static String getLocalDate(long time) {
+        tmpDate.setTime(time * 1000L);
         return dateFormat.format(tmpDate);
     }
 }
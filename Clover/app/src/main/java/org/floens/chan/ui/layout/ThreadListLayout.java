@@ -30,6 +30,7 @@ import android.util.AttributeSet;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewPropertyAnimator;
+import android.view.ViewTreeObserver;
 import android.view.animation.DecelerateInterpolator;
 import android.widget.FrameLayout;
 import android.widget.TextView;
@@ -47,6 +48,7 @@ import org.floens.chan.core.presenter.ReplyPresenter;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.sites.chan4.Chan4;
 import org.floens.chan.ui.adapter.PostAdapter;
+import org.floens.chan.ui.adapter.PostPrefetcher;
 import org.floens.chan.ui.adapter.PostsFilter;
 import org.floens.chan.ui.cell.PostCell;
 import org.floens.chan.ui.cell.PostCellInterface;
@@ -79,6 +81,7 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
     private RecyclerView.LayoutManager layoutManager;
     private FastScroller fastScroller;
     private PostAdapter postAdapter;
+    private PostPrefetcher postPrefetcher;
     private ChanThread showingThread;
     private ThreadListLayoutPresenterCallback callback;
     private ThreadListLayoutCallback threadListLayoutCallback;
@@ -94,10 +97,33 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
     private RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
         @Override
         public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-            onRecyclerViewScrolled();
+            onRecyclerViewScrolled(dy);
         }
     };
 
+    // Prefetches the posts around the visible ones when the posts changed, once per change.
+    private RecyclerView.AdapterDataObserver postsObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            schedulePrefetch();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            schedulePrefetch();
+        }
+    };
+    private Runnable prefetchRunnable = this::prefetchAroundVisible;
+    private ViewTreeObserver.OnGlobalLayoutListener prefetchAfterLayout = new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            recyclerView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+            waitingForLayout = false;
+            prefetchAroundVisible();
+        }
+    };
+    private boolean waitingForLayout = false;
+
     public ThreadListLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
     }
@@ -125,8 +151,10 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
         this.threadListLayoutCallback = threadListLayoutCallback;
 
         postAdapter = new PostAdapter(recyclerView, postAdapterCallback, postCellCallback, statusCellCallback);
+        postPrefetcher = new PostPrefetcher();
         recyclerView.setAdapter(postAdapter);
         recyclerView.addOnScrollListener(scrollListener);
+        postAdapter.registerAdapterDataObserver(postsObserver);
 
         setFastScroll(false);
 
@@ -137,7 +165,7 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
                 searchStatus.getPaddingRight(), searchStatus.getPaddingBottom());
     }
 
-    private void onRecyclerViewScrolled() {
+    private void onRecyclerViewScrolled(int dy) {
         // onScrolled can be called after cleanup()
         if (showingThread != null) {
             int[] indexTop = getIndexAndTop();
@@ -153,7 +181,34 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
                 // while in a layout pass. Postpone to the next frame.
                 mainHandler.post(() -> ThreadListLayout.this.callback.onListScrolledToBottom());
             }
+
+            postPrefetcher.onScrolled(recyclerView, postAdapter, getTopAdapterPosition(), last, dy,
+                    postViewMode == ChanSettings.PostViewMode.CARD ? spanCount : 1);
+        }
+    }
+
+    private void schedulePrefetch() {
+        mainHandler.removeCallbacks(prefetchRunnable);
+        mainHandler.post(prefetchRunnable);
+    }
+
+    private void prefetchAroundVisible() {
+        if (showingThread == null) {
+            return;
         }
+
+        // Wait for the cells of the new posts.
+        if (recyclerView.isLayoutRequested()) {
+            if (!waitingForLayout) {
+                waitingForLayout = true;
+                recyclerView.getViewTreeObserver().addOnGlobalLayoutListener(prefetchAfterLayout);
+            }
+            return;
+        }
+
+        postPrefetcher.onPostsChanged(recyclerView, postAdapter, getTopAdapterPosition(),
+                getCompleteBottomAdapterPosition(),
+                postViewMode == ChanSettings.PostViewMode.CARD ? spanCount : 1);
     }
 
     @Override
@@ -234,6 +289,8 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
 
     public void showPosts(ChanThread thread, PostsFilter filter, boolean initial) {
         showingThread = thread;
+        // The positions changed.
+        postPrefetcher.cancel();
         if (initial) {
             reply.bindLoadable(showingThread.loadable);
 
@@ -258,7 +315,7 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
 
         setFastScroll(true);
 
-        postAdapter.setThread(thread, filter);
+        postAdapter.setThread(thread, filter, initial);
     }
 
     public boolean onBack() {
@@ -436,6 +493,8 @@ public class ThreadListLayout extends FrameLayout implements ReplyLayout.ReplyLa
         openReply(false);
         openSearch(false);
         showingThread = null;
+        mainHandler.removeCallbacks(prefetchRunnable);
+        postPrefetcher.cancel();
         lastPostCount = 0;
         noParty();
     }
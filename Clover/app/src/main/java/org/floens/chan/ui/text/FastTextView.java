@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.os.Process;
 import android.text.Layout;
 import android.text.Spanned;
 import android.text.StaticLayout;
@@ -31,18 +32,47 @@ import android.util.LruCache;
 import android.view.MotionEvent;
 import android.view.View;
 
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+
 import org.floens.chan.R;
 import org.floens.chan.utils.Logger;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.floens.chan.utils.AndroidUtils.runOnUiThread;
 import static org.floens.chan.utils.AndroidUtils.sp;
 
 /**
  * A simple implementation of a TextView that caches the used StaticLayouts for performance.<br>
  * This view was made for {@link org.floens.chan.ui.cell.PostCell} and {@link org.floens.chan.ui.cell.CardPostCell} and may have untested behaviour with other layouts.
+ * <p>The layouts are cached by text, paint and width, so the layouts of other widths stay cached
+ * after a rotation or a switch to the compact cards. The cache is limited by the estimated
+ * memory of the layouts instead of their count.
  */
 public class FastTextView extends View {
     private static final String TAG = "FastTextView";
-    private static LruCache<FastTextViewItem, StaticLayout> textCache = new LruCache<>(250);
+    private static final int CACHE_SIZE = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, 8 * 1024 * 1024);
+    private static final LruCache<FastTextViewItem, StaticLayout> textCache = new LruCache<FastTextViewItem, StaticLayout>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(FastTextViewItem key, StaticLayout value) {
+            // The line info of the layout and the text, which is often a copy made for the view.
+            return 256 + value.getLineCount() * 64 + key.text.length() * 2;
+        }
+    };
+    private static final Executor PREFETCH_EXECUTOR = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "FastTextView prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The layouts that are queued or being built, main thread only.
+    private static final Set<FastTextViewItem> prefetching = new HashSet<>();
 
     private TextPaint paint;
     private boolean singleLine;
@@ -124,6 +154,41 @@ public class FastTextView extends View {
         return layout;
     }
 
+    /**
+     * Build the layout of the text in the background, for a view with the same paint and width as
+     * this one. A view that shows the text later gets it from the layout cache.
+     */
+    @MainThread
+    public void prefetch(CharSequence text) {
+        prefetch(text, width);
+    }
+
+    /**
+     * Build the layout of the text in the background, for a view with the same paint as this one
+     * that is {@code viewWidth} wide.
+     */
+    @MainThread
+    public void prefetch(CharSequence text, int viewWidth) {
+        int layoutWidth = viewWidth - getPaddingLeft() - getPaddingRight();
+        if (TextUtils.isEmpty(text) || layoutWidth <= 0) {
+            return;
+        }
+
+        TextPaint prefetchPaint = new TextPaint(paint);
+        FastTextViewItem item = new FastTextViewItem(text, prefetchPaint, layoutWidth);
+        if (textCache.get(item) == null && prefetching.add(item)) {
+            PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    if (textCache.get(item) == null) {
+                        textCache.put(item, getStaticLayout(text, prefetchPaint, layoutWidth));
+                    }
+                } finally {
+                    runOnUiThread(() -> prefetching.remove(item));
+                }
+            });
+        }
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         boolean handled = false;
@@ -220,7 +285,7 @@ public class FastTextView extends View {
                     StaticLayout cached = textCache.get(item);
                     if (cached == null) {
 //                        Logger.test("staticlayout cache miss: text = %s", text);
-                        cached = getStaticLayout(layoutWidth);
+                        cached = getStaticLayout(text, paint, layoutWidth);
                         textCache.put(item, cached);
                     }
                     /* else {
@@ -239,7 +304,8 @@ public class FastTextView extends View {
         update = false;
     }
 
-    private StaticLayout getStaticLayout(int layoutWidth) {
+    @AnyThread
+    private static StaticLayout getStaticLayout(CharSequence text, TextPaint paint, int layoutWidth) {
 //        Logger.test("new staticlayout width=%d", layoutWidth);
         return new StaticLayout(text, paint, layoutWidth, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
     }
@@ -267,16 +333,47 @@ public class FastTextView extends View {
             if (color != that.color) return false;
             if (Float.compare(that.textSize, textSize) != 0) return false;
             if (layoutWidth != that.layoutWidth) return false;
-            return text.equals(that.text);
+            return text.equals(that.text) || equalSpanned(text, that.text);
         }
 
         @Override
         public int hashCode() {
-            int result = text.hashCode();
+            // By the characters, a truncated comment is a new text each time it is bound.
+            int result = 0;
+            for (int i = 0; i < text.length(); i++) {
+                result = 31 * result + text.charAt(i);
+            }
             result = 31 * result + color;
             result = 31 * result + (textSize != +0.0f ? Float.floatToIntBits(textSize) : 0);
             result = 31 * result + layoutWidth;
             return result;
         }
+
+        /**
+         * Equal characters with the same spans at the same places, older versions of Android
+         * don't compare spanned texts by their contents.
+         */
+        private static boolean equalSpanned(CharSequence a, CharSequence b) {
+            if (!(a instanceof Spanned) || !(b instanceof Spanned) || !TextUtils.equals(a, b)) {
+                return false;
+            }
+
+            Spanned spannedA = (Spanned) a;
+            Spanned spannedB = (Spanned) b;
+            Object[] spansA = spannedA.getSpans(0, spannedA.length(), Object.class);
+            Object[] spansB = spannedB.getSpans(0, spannedB.length(), Object.class);
+            if (spansA.length != spansB.length) {
+                return false;
+            }
+            for (int i = 0; i < spansA.length; i++) {
+                if (spansA[i] != spansB[i] ||
+                        spannedA.getSpanStart(spansA[i]) != spannedB.getSpanStart(spansB[i]) ||
+                        spannedA.getSpanEnd(spansA[i]) != spannedB.getSpanEnd(spansB[i]) ||
+                        spannedA.getSpanFlags(spansA[i]) != spannedB.getSpanFlags(spansB[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
@@ -25,7 +25,9 @@ import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.View;
@@ -48,15 +50,19 @@ import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.audio.AudioListener;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.ui.PlayerView;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.VideoListener;
 
 import org.floens.chan.R;
 import org.floens.chan.core.cache.FileCache;
+import org.floens.chan.core.cache.FileCacheDataSource;
 import org.floens.chan.core.cache.FileCacheDownloader;
 import org.floens.chan.core.cache.FileCacheListener;
 import org.floens.chan.core.cache.FileCacheProvider;
@@ -85,6 +91,8 @@ public class MultiImageView extends FrameLayout implements View.OnClickListener,
     private static final String TAG = "MultiImageView";
     //for checkstyle to not be dumb about local final vars
     private static final int BACKGROUND_COLOR = Color.argb(255, 211, 217, 241);
+    // Start playing a video that is still downloading once this much is downloaded.
+    private static final long PROGRESSIVE_START_SIZE = 256 * 1024;
 
     @Inject
     FileCache fileCache;
@@ -112,6 +120,8 @@ public class MultiImageView extends FrameLayout implements View.OnClickListener,
     private boolean videoError = false;
     private MediaPlayer mediaPlayer;
     private SimpleExoPlayer exoPlayer;
+    // When setVideo was called, to log the time until the first frame.
+    private long videoLoadStart;
 
     private boolean backgroundToggle;
 
@@ -411,16 +421,26 @@ public class MultiImageView extends FrameLayout implements View.OnClickListener,
             return;
         }
 
+        videoLoadStart = SystemClock.elapsedRealtime();
         callback.showProgress(this, true);
         videoRequest = fileCache.downloadFile(videoUrl, new FileCacheListener() {
+            private boolean progressive = false;
+
             @Override
             public void onProgress(long downloaded, long total) {
                 callback.onProgress(MultiImageView.this, downloaded, total);
+
+                if (!progressive && downloaded >= PROGRESSIVE_START_SIZE && videoRequest != null &&
+                        !ChanSettings.videoOpenExternal.get() && ChanSettings.videoUseExoplayer.get() &&
+                        (!hasContent || mode == Mode.MOVIE)) {
+                    progressive = true;
+                    setVideoProgressive(videoRequest);
+                }
             }
 
             @Override
             public void onSuccess(File file) {
-                if (!hasContent || mode == Mode.MOVIE) {
+                if (!progressive && (!hasContent || mode == Mode.MOVIE)) {
                     setVideoFile(file);
                 }
             }
@@ -460,24 +480,12 @@ public class MultiImageView extends FrameLayout implements View.OnClickListener,
 
             onModeLoaded(Mode.MOVIE, videoView);
         } else if (ChanSettings.videoUseExoplayer.get()) {
-            exoVideoView = new PlayerView(getContext());
-            exoPlayer = ExoPlayerFactory.newSimpleInstance(getContext());
-            exoVideoView.setPlayer(exoPlayer);
             DataSource.Factory dataSourceFactory = new DefaultDataSourceFactory(getContext(),
                     Util.getUserAgent(getContext(), userAgent.getUserAgent()));
             MediaSource videoSource = new ExtractorMediaSource.Factory(dataSourceFactory)
-                    .createMediaSource(android.net.Uri.fromFile(file));
-
-            exoPlayer.setRepeatMode(ChanSettings.videoAutoLoop.get() ?
-                    Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
-
-            exoPlayer.prepare(videoSource);
-            exoPlayer.addAudioListener(this);
+                    .createMediaSource(Uri.fromFile(file));
 
-            addView(exoVideoView);
-            exoPlayer.setPlayWhenReady(true);
-            onModeLoaded(Mode.MOVIE, exoVideoView);
-            callback.onVideoLoaded(this);
+            setExoPlayerSource(videoSource, false);
         } else {
             Context proxyContext = new NoMusicServiceCommandContext(getContext());
 
@@ -519,6 +527,50 @@ public class MultiImageView extends FrameLayout implements View.OnClickListener,
         }
     }
 
+    /**
+     * Play the video while it is downloading, reading the file of the downloader as far as it
+     * is written.
+     */
+    private void setVideoProgressive(FileCacheDownloader downloader) {
+        // The cues of a webm are usually at the end of the file, don't wait for the whole file
+        // to read them. The video can't be seeked until it is played again from the cache.
+        DefaultExtractorsFactory extractorsFactory = new DefaultExtractorsFactory()
+                .setMatroskaExtractorFlags(MatroskaExtractor.FLAG_DISABLE_SEEK_FOR_CUES);
+        MediaSource videoSource = new ExtractorMediaSource.Factory(FileCacheDataSource.factory(downloader))
+                .setExtractorsFactory(extractorsFactory)
+                .createMediaSource(Uri.parse(downloader.getUrl()));
+
+        setExoPlayerSource(videoSource, true);
+    }
+
+    private void setExoPlayerSource(MediaSource videoSource, boolean progressive) {
+        exoVideoView = new PlayerView(getContext());
+        exoPlayer = ExoPlayerFactory.newSimpleInstance(getContext());
+        exoVideoView.setPlayer(exoPlayer);
+
+        exoPlayer.setRepeatMode(ChanSettings.videoAutoLoop.get() ?
+                Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
+
+        exoPlayer.prepare(videoSource);
+        exoPlayer.addAudioListener(this);
+        exoPlayer.addVideoListener(new VideoListener() {
+            @Override
+            public void onRenderedFirstFrame() {
+                // Also called when it loops.
+                if (videoLoadStart != 0) {
+                    Logger.d(TAG, "First frame after " + (SystemClock.elapsedRealtime() - videoLoadStart) +
+                            "ms" + (progressive ? ", playing while downloading" : ""));
+                    videoLoadStart = 0;
+                }
+            }
+        });
+
+        addView(exoVideoView);
+        exoPlayer.setPlayWhenReady(true);
+        onModeLoaded(Mode.MOVIE, exoVideoView);
+        callback.onVideoLoaded(this);
+    }
+
     @Override
     public void onAudioSessionId(int audioSessionId) {
         if (exoPlayer.getAudioFormat() == null) {
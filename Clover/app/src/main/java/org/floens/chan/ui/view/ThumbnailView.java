@@ -35,6 +35,7 @@ import android.os.Build;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
+import android.widget.ImageView;
 
 import com.android.volley.AuthFailureError;
 import com.android.volley.NetworkError;
@@ -44,6 +45,7 @@ import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
 
 import org.floens.chan.R;
+import org.floens.chan.core.net.BitmapPool;
 
 import static org.floens.chan.Chan.injector;
 import static org.floens.chan.utils.AndroidUtils.getString;
@@ -119,7 +121,9 @@ public class ThumbnailView extends View implements ImageLoader.ImageListener {
         }
 
         if (!TextUtils.isEmpty(url)) {
-            container = injector().instance(ImageLoader.class).get(url, this, width, height);
+            // Center crop decodes into pooled bitmaps, see PooledImageLoader.
+            container = injector().instance(ImageLoader.class)
+                    .get(url, this, width, height, ImageView.ScaleType.CENTER_CROP);
         }
     }
 
@@ -360,6 +364,15 @@ public class ThumbnailView extends View implements ImageLoader.ImageListener {
         bitmapShader = null;
         bitmapPaint.setShader(null);
 
+        // Referenced while shown, so that the pool doesn't decode into it.
+        BitmapPool bitmapPool = injector().instance(BitmapPool.class);
+        if (bitmap != null) {
+            bitmapPool.acquire(bitmap);
+        }
+        if (this.bitmap != null) {
+            bitmapPool.release(this.bitmap);
+        }
+
         this.bitmap = bitmap;
         if (bitmap != null) {
             calculate = true;
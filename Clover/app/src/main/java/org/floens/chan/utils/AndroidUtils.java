@@ -264,6 +264,10 @@ public class AndroidUtils {
         mainHandler.postDelayed(runnable, delay);
     }
 
+    public static void removeUiThreadCallbacks(Runnable runnable) {
+        mainHandler.removeCallbacks(runnable);
+    }
+
     public static void requestKeyboardFocus(Dialog dialog, final View view) {
         view.requestFocus();
         dialog.setOnShowListener(new DialogInterface.OnShowListener() {
@@ -0,0 +1,115 @@
+package org.floens.chan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() {
+        File directory = folder.getRoot();
+        CacheJournal journal = new CacheJournal(directory);
+        assertFalse(journal.read(newIndex()));
+
+        journal.rewrite(newIndex());
+        journal.added("a", 10);
+        journal.added("b", 20);
+        journal.added("c", 30);
+        journal.used("a");
+        journal.removed("b");
+        journal.close();
+
+        LinkedHashMap<String, Long> index = newIndex();
+        assertTrue(new CacheJournal(directory).read(index));
+        // Least recently used first.
+        assertEquals(Arrays.asList("c", "a"), new ArrayList<>(index.keySet()));
+        assertEquals(30L, (long) index.get("c"));
+        assertEquals(10L, (long) index.get("a"));
+    }
+
+    @Test
+    public void testIncompleteLine() throws IOException {
+        File directory = folder.getRoot();
+        // The app was killed while writing the last line.
+        write(new File(directory, "journal"), "clover-cache-journal 1\nA a 10\nA b 20\nA c");
+
+        CacheJournal journal = new CacheJournal(directory);
+        LinkedHashMap<String, Long> index = newIndex();
+        assertTrue(journal.read(index));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(index.keySet()));
+
+        // Lines appended after the incomplete line would be lost, it is rewritten first.
+        assertTrue(journal.needsRewrite(index.size()));
+        journal.rewrite(index);
+        assertFalse(journal.needsRewrite(index.size()));
+        journal.added("d", 40);
+        journal.close();
+
+        index = newIndex();
+        assertTrue(new CacheJournal(directory).read(index));
+        assertEquals(Arrays.asList("a", "b", "d"), new ArrayList<>(index.keySet()));
+    }
+
+    @Test
+    public void testInvalidJournal() throws IOException {
+        File directory = folder.getRoot();
+        write(new File(directory, "journal"), "clover-cache-journal 0\nA a 10\n");
+        assertFalse(new CacheJournal(directory).read(newIndex()));
+
+        write(new File(directory, "journal"), "clover-cache-journal 1\nA a ten\n");
+        assertFalse(new CacheJournal(directory).read(newIndex()));
+    }
+
+    @Test
+    public void testRewriteThreshold() {
+        File directory = folder.getRoot();
+        CacheJournal journal = new CacheJournal(directory);
+        journal.rewrite(newIndex());
+
+        LinkedHashMap<String, Long> index = newIndex();
+        index.put("kept", 1L);
+        journal.added("kept", 1);
+        for (int i = 0; i < 1000; i++) {
+            journal.added("file" + i, 1);
+            journal.removed("file" + i);
+        }
+        assertTrue(journal.needsRewrite(index.size()));
+        // More lines are allowed when there are more files.
+        assertFalse(journal.needsRewrite(1001));
+
+        journal.rewrite(index);
+        assertFalse(journal.needsRewrite(index.size()));
+        journal.close();
+
+        LinkedHashMap<String, Long> read = newIndex();
+        assertTrue(new CacheJournal(directory).read(read));
+        assertEquals(index, read);
+    }
+
+    private LinkedHashMap<String, Long> newIndex() {
+        // Same as the index of the CacheHandler.
+        return new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private void write(File file, String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(text);
+        writer.close();
+    }
+}
@@ -0,0 +1,220 @@
+package org.floens.chan.core.manager;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Filter;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class FilterMatcherTest {
+    private static final String[] WORDS = {
+            "anime", "Manga", "thread", "general", "op", "kek", "spoiler", "bump", "sage",
+            "cat", "cats", "catalog", "c++", "a.b", "(meta)", "under_score", "x-y", "k"
+    };
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testWords() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(filter(FilterType.COMMENT, "cat dog"));
+
+        FilterMatcher matcher = new FilterMatcher(filters);
+        assertSame(filters.get(0), matcher.match(post("my CAT is here")));
+        assertSame(filters.get(0), matcher.match(post("<b>dog</b>")));
+        assertNull(matcher.match(post("catalog")));
+        assertNull(matcher.match(post("under_cat")));
+    }
+
+    @Test
+    public void testSentence() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(filter(FilterType.COMMENT, "\"cat dog\""));
+
+        FilterMatcher matcher = new FilterMatcher(filters);
+        assertSame(filters.get(0), matcher.match(post("acat dogs")));
+        assertNull(matcher.match(post("cat  dog")));
+    }
+
+    @Test
+    public void testLastMatchWins() {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(filter(FilterType.COMMENT, "/c.t/"));
+        filters.add(filter(FilterType.COMMENT, "cat"));
+        filters.add(filter(FilterType.NAME, "Anonymous"));
+        filters.add(filter(FilterType.COMMENT, "do*"));
+
+        FilterMatcher matcher = new FilterMatcher(filters);
+        assertSame(filters.get(3), matcher.match(post("cat dog").name("Anonymous")));
+        assertSame(filters.get(2), matcher.match(post("cot").name("Anonymous")));
+        assertSame(filters.get(1), matcher.match(post("cat")));
+        assertSame(filters.get(0), matcher.match(post("c-t")));
+    }
+
+    /**
+     * Many filters against many posts, the same filters match as when matching the filters one
+     * by one.
+     */
+    @Test
+    public void testSameAsPatterns() {
+        int matches = 0;
+        for (int round = 0; round < 20; round++) {
+            List<Filter> filters = randomFilters(50 + random.nextInt(250));
+            List<Pattern> patterns = compile(filters);
+            FilterMatcher matcher = new FilterMatcher(filters);
+
+            for (int i = 0; i < 500; i++) {
+                Post.Builder post = randomPost(5 + random.nextInt(100));
+                Filter expected = matchPatterns(filters, patterns, post);
+                assertSame(post.comment.toString(), expected, matcher.match(post));
+                if (expected != null) {
+                    matches++;
+                }
+            }
+        }
+        assertTrue(matches > 0);
+    }
+
+    /**
+     * Not an assertion, compares the time of the matcher to matching the filters one by one,
+     * for many filters on long comments.
+     */
+    @Test
+    @Ignore("Benchmark")
+    public void benchmarkManyFiltersLongComments() {
+        List<Filter> filters = randomFilters(500);
+        List<Post.Builder> posts = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            posts.add(randomPost(2000));
+        }
+
+        // Same as the pattern cache of FilterEngine.
+        List<Pattern> patterns = compile(filters);
+
+        long patternTime = Long.MAX_VALUE;
+        long matcherTime = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (Post.Builder post : posts) {
+                matchPatterns(filters, patterns, post);
+            }
+            patternTime = Math.min(patternTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            FilterMatcher matcher = new FilterMatcher(filters);
+            for (Post.Builder post : posts) {
+                matcher.match(post);
+            }
+            matcherTime = Math.min(matcherTime, System.nanoTime() - start);
+        }
+
+        System.out.println("Matching " + posts.size() + " posts of 2000 words against " + filters.size() + " filters: " +
+                "patterns " + (patternTime / 1000000) + "ms, matcher " + (matcherTime / 1000000) + "ms");
+    }
+
+    private List<Pattern> compile(List<Filter> filters) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (Filter filter : filters) {
+            patterns.add(FilterMatcher.compile(filter.pattern));
+        }
+        return patterns;
+    }
+
+    // How the filters were matched before, filter by filter.
+    private Filter matchPatterns(List<Filter> filters, List<Pattern> patterns, Post.Builder post) {
+        Filter result = null;
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            Pattern pattern = patterns.get(i);
+            if ((filter.hasFilter(FilterType.TRIPCODE) && post.tripcode.equals(filter.pattern)) ||
+                    (filter.hasFilter(FilterType.NAME) && post.name.equals(filter.pattern)) ||
+                    (filter.hasFilter(FilterType.COMMENT) && pattern != null && pattern.matcher(post.comment.toString()).find()) ||
+                    (filter.hasFilter(FilterType.ID) && post.posterId.equals(filter.pattern)) ||
+                    (filter.hasFilter(FilterType.SUBJECT) && pattern != null && pattern.matcher(post.subject).find())) {
+                result = filter;
+            }
+        }
+        return result;
+    }
+
+    private List<Filter> randomFilters(int count) {
+        List<Filter> filters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String pattern;
+            switch (random.nextInt(6)) {
+                case 0:
+                    pattern = "/" + randomWord() + "\\s+" + randomWord() + "/i";
+                    break;
+                case 1:
+                    pattern = "\"" + randomWord() + " " + randomWord() + "\"";
+                    break;
+                case 2:
+                    pattern = randomWord().substring(0, 1) + "*";
+                    break;
+                case 3:
+                    pattern = randomWord() + (random.nextBoolean() ? "  " : " ") + randomWord();
+                    break;
+                default:
+                    pattern = randomWord() + random.nextInt(50);
+                    break;
+            }
+
+            int type = random.nextBoolean() ? FilterType.COMMENT.flag : FilterType.SUBJECT.flag;
+            if (random.nextInt(5) == 0) {
+                type |= FilterType.NAME.flag | FilterType.TRIPCODE.flag | FilterType.ID.flag;
+            }
+
+            Filter filter = new Filter();
+            filter.type = type;
+            filter.pattern = pattern;
+            filters.add(filter);
+        }
+        return filters;
+    }
+
+    private Post.Builder randomPost(int words) {
+        StringBuilder comment = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = randomWord();
+            if (random.nextInt(10) == 0) {
+                word += random.nextInt(50);
+            }
+            if (random.nextInt(20) == 0) {
+                word = "<br>" + word;
+            }
+            comment.append(word).append(random.nextInt(8) == 0 ? ", " : " ");
+        }
+
+        Post.Builder post = post(comment.toString());
+        post.subject = randomWord() + " " + randomWord() + random.nextInt(50);
+        post.name = random.nextBoolean() ? "Anonymous" : randomWord() + random.nextInt(50);
+        return post;
+    }
+
+    private String randomWord() {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        return random.nextInt(4) == 0 ? word.toUpperCase() : word;
+    }
+
+    private Filter filter(FilterType type, String pattern) {
+        Filter filter = new Filter();
+        filter.type = type.flag;
+        filter.pattern = pattern;
+        return filter;
+    }
+
+    private Post.Builder post(String comment) {
+        Post.Builder post = new Post.Builder();
+        post.comment = comment;
+        return post;
+    }
+}
@@ -0,0 +1,146 @@
+package org.floens.chan.core.manager;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WatchSchedulerTest {
+    private static final long START = 1000000;
+
+    @Test
+    public void testSiteLimits() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        for (int i = 0; i < 5; i++) {
+            scheduler.add("a" + i, 1, START);
+        }
+        scheduler.add("b", 2, START);
+
+        long now = START + WatchScheduler.MIN_INTERVAL;
+        // One request per site at a time, spaced out.
+        assertEquals(2, take(scheduler, now).size());
+        assertEquals(0, take(scheduler, now + 1).size());
+
+        now += WatchScheduler.MIN_SITE_SPACING;
+        List<String> second = take(scheduler, now);
+        assertEquals(1, second.size());
+        assertTrue(second.get(0).startsWith("a"));
+
+        // Site 1 has the maximum running.
+        now += WatchScheduler.MIN_SITE_SPACING;
+        assertEquals(0, take(scheduler, now).size());
+        assertEquals(-1, scheduler.getNextWakeup(now, Long.MAX_VALUE, Long.MAX_VALUE));
+
+        scheduler.loaded(second.get(0), now, 10, 0, false);
+        assertEquals(1, take(scheduler, now).size());
+    }
+
+    @Test
+    public void testBackoff() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        scheduler.add("a", 1, START);
+
+        long now = START;
+        scheduler.loaded("a", now, 10, 0, false);
+        long interval = scheduler.getNextPoll("a") - now;
+        assertNear(WatchScheduler.FIRST_INTERVAL, interval);
+
+        for (int i = 0; i < 3; i++) {
+            now = scheduler.getNextPoll("a");
+            scheduler.loaded("a", now, 10, 0, false);
+            long next = scheduler.getNextPoll("a") - now;
+            assertTrue(next > interval);
+            interval = next;
+        }
+
+        for (int i = 0; i < 30; i++) {
+            now = scheduler.getNextPoll("a");
+            scheduler.loaded("a", now, 10, 0, false);
+        }
+        assertTrue(scheduler.getNextPoll("a") - now <= WatchScheduler.MAX_INTERVAL * 1.1);
+    }
+
+    @Test
+    public void testActiveThreadPolledSooner() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        scheduler.add("active", 1, START);
+        scheduler.add("quiet", 1, START);
+
+        long now = START;
+        scheduler.loaded("active", now, 10, 0, false);
+        scheduler.loaded("quiet", now, 10, 0, false);
+
+        now += 60 * 1000;
+        // A post every 6 seconds.
+        scheduler.loaded("active", now, 20, 0, false);
+        scheduler.loaded("quiet", now, 11, 0, false);
+
+        long active = scheduler.getNextPoll("active") - now;
+        long quiet = scheduler.getNextPoll("quiet") - now;
+        assertTrue(active < quiet);
+        assertTrue(active >= WatchScheduler.MIN_INTERVAL * 0.9);
+    }
+
+    @Test
+    public void testQuotedAndArchiveSoon() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        scheduler.add("quoted", 1, START);
+        scheduler.add("archive", 1, START);
+
+        long now = START;
+        scheduler.loaded("quoted", now, 10, 0, false);
+        scheduler.loaded("archive", now, 10, 0, false);
+        for (int i = 0; i < 10; i++) {
+            now += 60 * 60 * 1000;
+            scheduler.loaded("quoted", now, 10, 0, false);
+            scheduler.loaded("archive", now, 10, 0, false);
+        }
+
+        now += 60 * 60 * 1000;
+        scheduler.loaded("quoted", now, 11, 1, false);
+        scheduler.loaded("archive", now, 10, 0, true);
+        assertTrue(scheduler.getNextPoll("quoted") - now <= WatchScheduler.QUOTED_MAX_INTERVAL * 1.1);
+        assertTrue(scheduler.getNextPoll("archive") - now <= WatchScheduler.ARCHIVE_SOON_MAX_INTERVAL * 1.1);
+    }
+
+    @Test
+    public void testOverloadedSitePaused() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        scheduler.add("a", 1, START);
+        scheduler.add("b", 1, START);
+
+        long now = START + WatchScheduler.MIN_INTERVAL;
+        List<String> first = take(scheduler, now);
+        assertEquals(1, first.size());
+        scheduler.failed(first.get(0), now, true);
+
+        assertEquals(0, take(scheduler, now + WatchScheduler.MIN_SITE_PAUSE - 1).size());
+        assertEquals(now + WatchScheduler.MIN_SITE_PAUSE,
+                scheduler.getNextWakeup(now, Long.MAX_VALUE, Long.MAX_VALUE));
+        assertEquals(1, take(scheduler, now + WatchScheduler.MIN_SITE_PAUSE).size());
+    }
+
+    @Test
+    public void testBackgroundPollsOnce() {
+        WatchScheduler<String> scheduler = new WatchScheduler<>();
+        scheduler.add("a", 1, START);
+
+        long now = START;
+        long dueBefore = now + 5 * 60 * 1000;
+        assertEquals(1, scheduler.takeDue(now, dueBefore, now).size());
+        scheduler.loaded("a", now + 100, 10, 0, false);
+        assertEquals(0, scheduler.takeDue(now + 200, dueBefore, now).size());
+        assertEquals(-1, scheduler.getNextWakeup(now + 200, dueBefore, now));
+    }
+
+    private List<String> take(WatchScheduler<String> scheduler, long now) {
+        return scheduler.takeDue(now, now, Long.MAX_VALUE);
+    }
+
+    private void assertNear(long expected, long actual) {
+        assertTrue(actual + " is not near " + expected,
+                Math.abs(expected - actual) <= expected * 0.1 + 1);
+    }
+}
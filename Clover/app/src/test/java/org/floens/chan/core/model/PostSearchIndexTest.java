@@ -0,0 +1,84 @@
+package org.floens.chan.core.model;
+
+import org.floens.chan.core.model.orm.Board;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PostSearchIndexTest {
+    @Test
+    public void testTrigramMatch() {
+        PostSearchIndex index = new PostSearchIndex();
+        index.add(Arrays.asList(
+                post(1, "The catalog is slow"),
+                post(2, "cats and dogs"),
+                post(3, "Nothing here")));
+
+        assertEquals(Arrays.asList(1, 2), sorted(index.searchNos("CAT")));
+        assertEquals(Collections.singletonList(1), sorted(index.searchNos("catalog slow")));
+        // Every word has to match, a word never matches across two fields.
+        assertEquals(Collections.singletonList(2), sorted(index.searchNos("dogs cats")));
+    }
+
+    @Test
+    public void testNoMatch() {
+        PostSearchIndex index = new PostSearchIndex();
+        index.add(Arrays.asList(post(1, "cats and dogs"), post(2, "birds")));
+
+        // A trigram that no post has.
+        assertTrue(index.searchNos("xyz").isEmpty());
+        // Trigrams that posts have, but no post with all words.
+        assertTrue(index.searchNos("cats birds").isEmpty());
+
+        index.clear();
+        assertTrue(index.searchNos("cats").isEmpty());
+    }
+
+    @Test
+    public void testShortQuery() {
+        PostSearchIndex index = new PostSearchIndex();
+        index.add(Arrays.asList(post(1, "a b"), post(2, "ab"), post(3, "c")));
+
+        // Shorter than a trigram, all posts are checked.
+        assertEquals(Arrays.asList(1, 2), sorted(index.searchNos("a")));
+        assertEquals(Collections.singletonList(2), sorted(index.searchNos("ab")));
+        // Only spaces are searched as they are.
+        assertEquals(Collections.singletonList(1), sorted(index.searchNos(" ")));
+    }
+
+    @Test
+    public void testAddAgain() {
+        PostSearchIndex index = new PostSearchIndex();
+        index.add(Collections.singletonList(post(1, "first comment")));
+        index.add(Collections.singletonList(post(1, "edited comment")));
+
+        assertTrue(index.searchNos("first").isEmpty());
+        assertEquals(Collections.singletonList(1), index.searchNos("edited"));
+        assertEquals(Collections.singletonList(1), index.searchNos("comment"));
+    }
+
+    private List<Integer> sorted(List<Integer> nos) {
+        List<Integer> sorted = new ArrayList<>(nos);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Post post(int no, String comment) {
+        Board board = new Board();
+        board.code = "g";
+        return new Post.Builder()
+                .board(board)
+                .id(no)
+                .opId(1)
+                .setUnixTimestampSeconds(0)
+                .comment(comment)
+                .build();
+    }
+}
@@ -0,0 +1,78 @@
+package org.floens.chan.core.site.parser;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Board;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplyIndexTest {
+    @Test
+    public void testAdd() {
+        Post op = post(1);
+        Post first = post(2, 1);
+        Post second = post(3, 1, 2);
+        List<Post> posts = new ArrayList<>(Arrays.asList(op, first, second));
+
+        ReplyIndex index = new ReplyIndex();
+        index.add(posts);
+        assertTrue(index.isIndexOf(posts));
+        assertEquals(Arrays.asList(2, 3), op.repliesFrom);
+        assertEquals(Collections.singletonList(3), first.repliesFrom);
+        assertTrue(second.repliesFrom.isEmpty());
+
+        // A refresh only adds the new posts, a reply to a post that doesn't exist is kept.
+        Post third = post(4, 1, 99);
+        index.add(Collections.singletonList(third));
+        posts.add(third);
+        assertTrue(index.isIndexOf(posts));
+        assertEquals(Arrays.asList(2, 3, 4), op.repliesFrom);
+        assertEquals(Collections.singletonList(3), first.repliesFrom);
+
+        // The post that was replied to before it was loaded gets the replies when it is added.
+        Post ghost = post(99);
+        index.add(Collections.singletonList(ghost));
+        assertEquals(Collections.singletonList(4), ghost.repliesFrom);
+    }
+
+    @Test
+    public void testRemove() {
+        Post op = post(1);
+        Post first = post(2, 1);
+        Post second = post(3, 1, 2);
+
+        ReplyIndex index = new ReplyIndex();
+        index.add(Arrays.asList(op, first, second));
+
+        // The second post was deleted, the thread is indexed again without it.
+        List<Post> remaining = Arrays.asList(op, first);
+        assertFalse(index.isIndexOf(remaining));
+        index.rebuild(remaining);
+        assertTrue(index.isIndexOf(remaining));
+        assertEquals(Collections.singletonList(2), op.repliesFrom);
+        assertTrue(first.repliesFrom.isEmpty());
+    }
+
+    @SuppressWarnings("deprecation")
+    private Post post(int no, int... replyTo) {
+        Board board = new Board();
+        board.code = "g";
+        Post.Builder builder = new Post.Builder()
+                .board(board)
+                .id(no)
+                .opId(1)
+                .op(no == 1)
+                .setUnixTimestampSeconds(0);
+        for (int to : replyTo) {
+            builder.addReplyTo(to);
+        }
+        return builder.build();
+    }
+}
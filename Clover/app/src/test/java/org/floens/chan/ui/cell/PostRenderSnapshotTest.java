@@ -0,0 +1,142 @@
+package org.floens.chan.ui.cell;
+
+import android.content.res.Resources;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PostRenderSnapshotTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long TIME = 1500000000000L;
+
+    @Test
+    public void testRelativeDateValidUntil() {
+        assertEquals(TIME + 6 * SECOND, PostRenderSnapshot.getRelativeDateValidUntil(TIME, TIME + 5500));
+        assertEquals(TIME + 2 * MINUTE, PostRenderSnapshot.getRelativeDateValidUntil(TIME, TIME + MINUTE + 10 * SECOND));
+        assertEquals(TIME + 3 * HOUR, PostRenderSnapshot.getRelativeDateValidUntil(TIME, TIME + 2 * HOUR));
+        // A post from the future, shown until the clocks agree.
+        assertEquals(TIME + SECOND, PostRenderSnapshot.getRelativeDateValidUntil(TIME + MINUTE, TIME));
+
+        for (long age = DAY; age < 10 * DAY; age += 5 * HOUR) {
+            long now = TIME + age;
+            long validUntil = PostRenderSnapshot.getRelativeDateValidUntil(TIME, now);
+            assertTrue(validUntil > now);
+            assertTrue(validUntil <= now + DAY);
+            if (age < 7 * DAY) {
+                assertTrue(validUntil <= TIME + 7 * DAY);
+            }
+        }
+    }
+
+    /**
+     * Binds a cell with the same snapshot over and over with a clock that moves a frame each
+     * bind, the title and the replies text are only made when their text changes.
+     */
+    @Test
+    public void testBindReusesTexts() {
+        final int[] builds = new int[1];
+        PostRenderSnapshot snapshot = new PostRenderSnapshot(null, 0, 0, 1, TIME, "", "", "", "") {
+            @Override
+            CharSequence buildTitle(long now) {
+                builds[0]++;
+                return "title";
+            }
+
+            @Override
+            String buildRepliesText(Resources resources, int replyCount, int imageCount) {
+                builds[0]++;
+                return "replies";
+            }
+        };
+
+        // 100000 frames of 16ms from 30 seconds old, about 27 minutes.
+        long now = TIME + 30 * SECOND;
+        for (int i = 0; i < 100000; i++) {
+            snapshot.getTitle(now);
+            snapshot.getRepliesText(null, 3, 1);
+            now += 16;
+        }
+
+        // The replies text once, the title for each second of the first minute and then for
+        // each minute.
+        assertEquals(1 + 30 + 27, builds[0]);
+
+        snapshot.getRepliesText(null, 4, 1);
+        assertEquals(1 + 30 + 27 + 1, builds[0]);
+    }
+
+    /**
+     * Allocated bytes of binding a cell over and over, making the title and the replies text
+     * each bind like before the snapshot, and with the texts of the snapshot.
+     */
+    @Test
+    @Ignore("Benchmark")
+    public void benchmarkBindAllocations() {
+        PostRenderSnapshot snapshot = new PostRenderSnapshot(null, 0, 0, 1, TIME, "", "", "", "") {
+            @Override
+            CharSequence buildTitle(long now) {
+                // The spans need android, a string of the same length stands in for them.
+                return "Anonymous\n#" + 1 + " " + ((now - TIME) / SECOND) + " seconds ago";
+            }
+
+            @Override
+            String buildRepliesText(Resources resources, int replyCount, int imageCount) {
+                return replyCount + " replies, " + imageCount + " images";
+            }
+        };
+
+        int binds = 100000;
+        long start = TIME + 30 * SECOND;
+        // Warm up, so that the measured loops run compiled code.
+        bindWithoutSnapshot(snapshot, start, binds);
+        bindWithSnapshot(snapshot, start, binds);
+
+        long before = allocatedBytes();
+        bindWithoutSnapshot(snapshot, start, binds);
+        long withoutSnapshot = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        bindWithSnapshot(snapshot, start, binds);
+        long withSnapshot = allocatedBytes() - before;
+
+        if (before < 0) {
+            System.out.println("Allocated bytes not available on this vm");
+        } else {
+            System.out.println("Binding " + binds + " times, without snapshot: " +
+                    withoutSnapshot + " bytes, with snapshot: " + withSnapshot + " bytes");
+        }
+    }
+
+    private void bindWithoutSnapshot(PostRenderSnapshot snapshot, long now, int binds) {
+        for (int i = 0; i < binds; i++) {
+            snapshot.buildTitle(now);
+            snapshot.buildRepliesText(null, 3, 1);
+            now += 16;
+        }
+    }
+
+    private void bindWithSnapshot(PostRenderSnapshot snapshot, long now, int binds) {
+        for (int i = 0; i < binds; i++) {
+            snapshot.getTitle(now);
+            snapshot.getRepliesText(null, 3, 1);
+            now += 16;
+        }
+    }
+
+    // -1 when the vm can't tell.
+    private long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}